@@ -0,0 +1,147 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.benchmarks;
+
+import jnr.enxio.channels.EventLoop;
+import jnr.enxio.channels.EventLoopGroup;
+import jnr.enxio.channels.NativeServerSocketChannel;
+import jnr.enxio.channels.NativeSocketChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Loopback TCP echo served by an {@link EventLoopGroup} with 1, 2, 4 and 8 loops.  Each
+ * benchmark thread owns one blocking client connection and does request/response round trips,
+ * so the score is round trips per second across all connections.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class EchoBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({ "1", "2", "4", "8" })
+        public int loops;
+
+        EventLoopGroup group;
+        NativeServerSocketChannel server;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            group = new EventLoopGroup(loops);
+            server = NativeServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final Consumer<NativeSocketChannel> register = new Consumer<NativeSocketChannel>() {
+                public void accept(NativeSocketChannel ch) {
+                    group.register(ch, SelectionKey.OP_READ, new Echo());
+                }
+            };
+            group.loop(0).register(server, SelectionKey.OP_ACCEPT, new EventLoop.Handler() {
+                public void ready(SelectionKey key) throws IOException {
+                    server.drainAccept(64, register);
+                }
+            }).get();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            group.shutdown();
+            group.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        @Param({ "64" })
+        public int size;
+
+        NativeSocketChannel ch;
+        ByteBuffer src;
+        ByteBuffer dst;
+
+        @Setup(Level.Trial)
+        public void setup(Server server) throws IOException {
+            ch = NativeSocketChannel.open();
+            ch.connect(server.server.getLocalAddress());
+            src = ByteBuffer.allocateDirect(size);
+            dst = ByteBuffer.allocateDirect(size);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            ch.close();
+        }
+    }
+
+    /** Writes back whatever arrives, the client never has more than one message in flight */
+    static final class Echo implements EventLoop.Handler {
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+
+        public void ready(SelectionKey key) throws IOException {
+            NativeSocketChannel ch = (NativeSocketChannel) key.channel();
+            if (ch.read(buf) < 0) {
+                ch.close();
+                return;
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(Client client) throws IOException {
+        client.src.clear();
+        client.dst.clear();
+        client.ch.write(client.src);
+        int n = 0;
+        while (client.dst.hasRemaining()) {
+            int r = client.ch.read(client.dst);
+            if (r < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+            n += r;
+        }
+        return n;
+    }
+}
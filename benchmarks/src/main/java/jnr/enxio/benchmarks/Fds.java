@@ -0,0 +1,87 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.benchmarks;
+
+import jnr.enxio.channels.NativeSelectorProvider;
+import jnr.ffi.LibraryLoader;
+import jnr.ffi.Platform;
+import jnr.ffi.annotations.Out;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * The few libc calls the benchmarks need to create descriptors, and selector lookup by name.
+ */
+final class Fds {
+    private static final int AF_UNIX = 1;
+    private static final int SOCK_STREAM = Platform.getNativePlatform().getOS() == Platform.OS.SOLARIS ? 2 : 1;
+
+    public interface LibC {
+        int pipe(@Out int[] fds);
+        int socketpair(int domain, int type, int protocol, @Out int[] sv);
+        int close(int fd);
+    }
+
+    static final LibC libc = LibraryLoader.create(LibC.class)
+            .load(Platform.getNativePlatform().getStandardCLibraryName());
+
+    private Fds() {
+    }
+
+    static int[] pipe() throws IOException {
+        int[] fds = { -1, -1 };
+        if (libc.pipe(fds) < 0) {
+            throw new IOException("pipe failed");
+        }
+        return fds;
+    }
+
+    static int[] socketpair() throws IOException {
+        int[] fds = { -1, -1 };
+        if (libc.socketpair(AF_UNIX, SOCK_STREAM, 0, fds) < 0) {
+            throw new IOException("socketpair failed");
+        }
+        return fds;
+    }
+
+    /**
+     * Opens a selector by benchmark parameter: {@code jdk} for the stock NIO provider,
+     * {@code poll} for the enxio poll(2) selector, and {@code native} for the enxio
+     * platform default (epoll on linux, kqueue on BSD and MacOS).
+     */
+    static Selector openSelector(String name) throws IOException {
+        if ("jdk".equals(name)) {
+            return SelectorProvider.provider().openSelector();
+        }
+        if ("poll".equals(name)) {
+            System.setProperty(NativeSelectorProvider.SELECTOR_PROPERTY, "poll");
+        } else {
+            System.clearProperty(NativeSelectorProvider.SELECTOR_PROPERTY);
+        }
+        try {
+            return NativeSelectorProvider.getInstance().openSelector();
+        } finally {
+            System.clearProperty(NativeSelectorProvider.SELECTOR_PROPERTY);
+        }
+    }
+
+    static boolean isJdk(String name) {
+        return "jdk".equals(name);
+    }
+}
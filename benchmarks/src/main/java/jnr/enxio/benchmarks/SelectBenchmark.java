@@ -0,0 +1,130 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.benchmarks;
+
+import jnr.enxio.channels.NativeDeviceChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one select cycle with a single ready descriptor among {@code fdCount} idle ones.
+ *
+ * Each registered descriptor is the read end of a pipe, so {@code fdCount} of 50000 needs an
+ * open file limit of at least 100000 ({@code ulimit -n}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectBenchmark {
+
+    @Param({ "100", "1000", "10000", "50000" })
+    public int fdCount;
+
+    @Param({ "jdk", "poll", "native" })
+    public String selector;
+
+    private Selector sel;
+    private final List<SelectableChannel> channels = new ArrayList<SelectableChannel>();
+    private final List<WritableByteChannel> sinks = new ArrayList<WritableByteChannel>();
+    private ReadableByteChannel hotSource;
+    private WritableByteChannel hotSink;
+    private final ByteBuffer one = ByteBuffer.allocateDirect(1);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        sel = Fds.openSelector(selector);
+        for (int i = 0; i < fdCount; i++) {
+            SelectableChannel source = openPipe();
+            source.register(sel, SelectionKey.OP_READ);
+            if (i == 0) {
+                hotSource = (ReadableByteChannel) source;
+                hotSink = sinks.get(0);
+            }
+        }
+    }
+
+    private SelectableChannel openPipe() throws IOException {
+        SelectableChannel source;
+        if (Fds.isJdk(selector)) {
+            Pipe pipe = Pipe.open();
+            source = pipe.source();
+            sinks.add(pipe.sink());
+        } else {
+            int[] fds = Fds.pipe();
+            source = new NativeDeviceChannel(fds[0]);
+            sinks.add(new NativeDeviceChannel(fds[1]));
+        }
+        source.configureBlocking(false);
+        channels.add(source);
+        return source;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sel.close();
+        for (SelectableChannel ch : channels) {
+            ch.close();
+        }
+        for (WritableByteChannel ch : sinks) {
+            ch.close();
+        }
+        channels.clear();
+        sinks.clear();
+    }
+
+    @Benchmark
+    public int selectOneReady() throws IOException {
+        one.clear();
+        hotSink.write(one);
+        int n = sel.select();
+        Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+        while (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        one.clear();
+        hotSource.read(one);
+        return n;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.benchmarks;
+
+import jnr.enxio.channels.NativeSocketChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NativeSocketChannel} write then read of one message over a unix socketpair, with heap
+ * and direct buffers.  The score is operations per second; multiply by {@code size} for bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketThroughputBenchmark {
+
+    @Param({ "64", "4096", "65536" })
+    public int size;
+
+    @Param({ "heap", "direct" })
+    public String buffer;
+
+    private NativeSocketChannel writer;
+    private NativeSocketChannel reader;
+    private ByteBuffer src;
+    private ByteBuffer dst;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int[] fds = Fds.socketpair();
+        writer = new NativeSocketChannel(fds[0]);
+        reader = new NativeSocketChannel(fds[1]);
+        boolean direct = "direct".equals(buffer);
+        src = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        dst = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writer.close();
+        reader.close();
+    }
+
+    @Benchmark
+    public int writeThenRead() throws IOException {
+        //
+        // Messages are written and read back in chunks small enough for the socket buffer,
+        // so a single thread never blocks on a full socket
+        //
+        src.clear();
+        dst.clear();
+        int total = 0;
+        while (src.hasRemaining()) {
+            int limit = src.limit();
+            src.limit(Math.min(limit, src.position() + 16384));
+            writer.write(src);
+            src.limit(limit);
+            while (dst.position() < src.position()) {
+                total += reader.read(dst);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip latency of {@link Selector#wakeup()}: the time from waking a thread blocked in
+ * {@link Selector#select()} until that thread has returned and acknowledged it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WakeupBenchmark {
+
+    @Param({ "jdk", "poll", "native" })
+    public String selector;
+
+    private Selector sel;
+    private Thread selectorThread;
+    private volatile long woken;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        sel = Fds.openSelector(selector);
+        running = true;
+        selectorThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (running) {
+                        sel.select();
+                        woken++;
+                    }
+                } catch (ClosedSelectorException ex) {
+                    // shutting down
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }, "selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        sel.wakeup();
+        selectorThread.join();
+        sel.close();
+    }
+
+    @Benchmark
+    public long wakeupRoundTrip() {
+        long before = woken;
+        sel.wakeup();
+        long now;
+        while ((now = woken) == before) {
+            Thread.yield();
+        }
+        return now;
+    }
+}
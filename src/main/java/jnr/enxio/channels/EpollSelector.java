@@ -0,0 +1,446 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Errno;
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * An implementation of a {@link java.nio.channels.Selector} that uses the linux
+ * epoll(7) mechanism.
+ *
+ * Unlike {@link PollSelector}, the set of interesting descriptors lives in the kernel,
+ * so each select only costs as much as the number of ready descriptors.
+ */
+class EpollSelector extends java.nio.channels.spi.AbstractSelector implements NativeSelector, NativeReadySet {
+    private static final int MAX_EVENTS = 1024;
+    private static final int EPOLL_CLOEXEC = 0x80000;
+    private static final int EPOLL_CTL_ADD = 1;
+    private static final int EPOLL_CTL_DEL = 2;
+    private static final int EPOLL_CTL_MOD = 3;
+
+    static final int EPOLLIN = 0x1;
+    static final int EPOLLOUT = 0x4;
+    static final int EPOLLERR = 0x8;
+    static final int EPOLLHUP = 0x10;
+    static final int EPOLLONESHOT = 1 << 30;
+    static final int EPOLLET = 1 << 31;
+
+    // struct epoll_event is packed on x86, and naturally aligned everywhere else
+    private static final boolean PACKED = Platform.getNativePlatform().getCPU() == Platform.CPU.X86_64
+            || Platform.getNativePlatform().getCPU() == Platform.CPU.I386;
+    private static final int EVENT_SIZE = PACKED ? 12 : 16;
+    private static final int EVENTS_OFFSET = 0;
+    private static final int DATA_OFFSET = PACKED ? 4 : 8;
+
+    private static final int ENOSYS = Errno.ENOSYS.intValue();
+    // Cleared the first time epoll_pwait2(2) turns out to be missing from libc or the kernel
+    private static boolean pwait2Available = true;
+
+    private final int epfd;
+    private final SelectorMetrics metrics = SelectorMetrics.open("epoll");
+    private final SelectorWakeup wakeup = new SelectorWakeup(metrics);
+    private final Pointer ctlbuf;
+    private final Pointer eventbuf;
+    private final Native.Timespec timespec = new Native.Timespec();
+    private final Object regLock = new Object();
+    private EpollSelectionKey[] fdTable = new EpollSelectionKey[64];
+
+    private final Map<SelectionKey, Boolean> keys = new ConcurrentHashMap<SelectionKey, Boolean>();
+    private final Set<SelectionKey> publicKeys = Collections.unmodifiableSet(keys.keySet());
+    private final Set<SelectionKey> selected = new HashSet<SelectionKey>();
+    // Keys found ready by select(Consumer), handed to the consumer once regLock is released
+    private SelectionKey[] readyKeys = new SelectionKey[16];
+
+    public EpollSelector(SelectorProvider provider) throws IOException {
+        super(provider);
+        ctlbuf = Memory.allocateDirect(Native.getRuntime(), EVENT_SIZE);
+        eventbuf = Memory.allocateDirect(Native.getRuntime(), MAX_EVENTS * EVENT_SIZE);
+
+        epfd = Native.libc().epoll_create1(EPOLL_CLOEXEC);
+        if (epfd < 0) {
+            String message = String.format("epoll_create1 failed: %s", Native.getLastErrorString());
+            throw new NativeException(message, Native.getLastError());
+        }
+
+        // Register the wakeup fd, it never has a key in the fd table
+        ctl(EPOLL_CTL_ADD, wakeup.getFD(), EPOLLIN);
+    }
+
+    private int ctl(int op, int fd, int events) {
+        ctlbuf.putInt(EVENTS_OFFSET, events);
+        ctlbuf.putLong(DATA_OFFSET, fd);
+        return Native.libc().epoll_ctl(epfd, op, fd, ctlbuf);
+    }
+
+    private int getEventFD(int idx) {
+        return (int) eventbuf.getLong((idx * EVENT_SIZE) + DATA_OFFSET);
+    }
+
+    private int getEvents(int idx) {
+        return eventbuf.getInt((idx * EVENT_SIZE) + EVENTS_OFFSET);
+    }
+
+    private static int events(int ops) {
+        int events = 0;
+        if ((ops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ)) != 0) {
+            events |= EPOLLIN;
+        }
+        if ((ops & (SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT)) != 0) {
+            events |= EPOLLOUT;
+        }
+        if ((ops & NativeSelectionKeys.EDGE_TRIGGERED) != 0) {
+            events |= EPOLLET;
+        }
+        if ((ops & NativeSelectionKeys.ONE_SHOT) != 0) {
+            events |= EPOLLONESHOT;
+        }
+        return events;
+    }
+
+    @Override
+    protected void implCloseSelector() throws IOException {
+        if (epfd != -1) {
+            Native.close(epfd);
+        }
+        wakeup.close();
+        if (SelectorMetrics.ENABLED) {
+            metrics.close();
+        }
+
+        // deregister all keys, the kernel side went away with the epoll fd
+        synchronized (regLock) {
+            for (SelectionKey key : keys.keySet()) {
+                deregister((EpollSelectionKey) key);
+            }
+            keys.clear();
+            Arrays.fill(fdTable, null);
+        }
+    }
+
+    @Override
+    protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
+        EpollSelectionKey key = new EpollSelectionKey(this, (NativeSelectableChannel) ch, ops);
+        add(key);
+        key.attach(att);
+        if (SelectorMetrics.ENABLED) {
+            metrics.keyRegistered();
+        }
+        return key;
+    }
+
+    @Override
+    public Set<SelectionKey> keys() {
+        return publicKeys;
+    }
+
+    @Override
+    public Set<SelectionKey> selectedKeys() {
+        return selected;
+    }
+
+    void interestOps(EpollSelectionKey k, int ops) {
+        synchronized (regLock) {
+            int fd = k.getFD();
+            if (fd < fdTable.length && fdTable[fd] == k) {
+                ctl(EPOLL_CTL_MOD, fd, events(ops));
+            }
+        }
+    }
+
+    private void add(EpollSelectionKey k) {
+        synchronized (regLock) {
+            int fd = k.getFD();
+            if (fd >= fdTable.length) {
+                fdTable = Arrays.copyOf(fdTable, Math.max(fd + 1, fdTable.length * 2));
+            }
+            if (ctl(EPOLL_CTL_ADD, fd, events(k.interestOps())) < 0) {
+                throw new IllegalArgumentException(String.format("Cannot register fd %d with epoll: %s",
+                        fd, Native.getLastErrorString()));
+            }
+            fdTable[fd] = k;
+            keys.put(k, true);
+        }
+    }
+
+    private void remove(EpollSelectionKey k) {
+        synchronized (regLock) {
+            int fd = k.getFD();
+            //
+            // The fd may already have been closed (and even reused by a newer key),
+            // so only touch the kernel state if this key still owns the slot
+            //
+            if (fd < fdTable.length && fdTable[fd] == k) {
+                fdTable[fd] = null;
+                ctl(EPOLL_CTL_DEL, fd, 0);
+            }
+            selected.remove(k);
+            keys.remove(k);
+        }
+        deregister(k);
+        if (SelectorMetrics.ENABLED) {
+            metrics.keysRemoved(1);
+        }
+    }
+
+    @Override
+    public int selectNow() throws IOException {
+        return poll(0, null);
+    }
+
+    @Override
+    public int select(long timeout) throws IOException {
+        return poll(timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1, null);
+    }
+
+    @Override
+    public int select() throws IOException {
+        return poll(-1, null);
+    }
+
+    public int selectNanos(long timeoutNanos) throws IOException {
+        return poll(timeoutNanos, null);
+    }
+
+    /**
+     * Hands ready keys to {@code action} straight from the epoll event buffer, see
+     * {@link PollSelector#select(Consumer, long)}.
+     */
+    public int select(Consumer<SelectionKey> action, long timeout) throws IOException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        return poll(timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1, checkAction(action));
+    }
+
+    public int select(Consumer<SelectionKey> action) throws IOException {
+        return poll(-1, checkAction(action));
+    }
+
+    public int selectNow(Consumer<SelectionKey> action) throws IOException {
+        return poll(0, checkAction(action));
+    }
+
+    private static Consumer<SelectionKey> checkAction(Consumer<SelectionKey> action) {
+        if (action == null) {
+            throw new NullPointerException("action");
+        }
+        return action;
+    }
+
+    private int poll(long timeoutNanos, Consumer<SelectionKey> action) throws IOException {
+        int nready = pollNative(timeoutNanos, MAX_EVENTS);
+
+        int updatedKeyCount = 0;
+        int readyCount = 0;
+        synchronized (regLock) {
+            for (int i = 0; i < nready; ++i) {
+                int fd = getEventFD(i);
+                if (fd == wakeup.getFD()) {
+                    wakeup.drain();
+                    continue;
+                }
+
+                EpollSelectionKey k = fd < fdTable.length ? fdTable[fd] : null;
+                if (k == null || !k.isValid()) {
+                    continue;
+                }
+
+                int revents = getEvents(i);
+                int iops = k.interestOps();
+                int ops = 0;
+
+                if ((revents & EPOLLIN) != 0) {
+                    ops |= iops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ);
+                }
+
+                if ((revents & EPOLLOUT) != 0) {
+                    ops |= iops & (SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE);
+                }
+
+                // If an error occurred, enable all interested ops and let the
+                // event handling code deal with it
+                if ((revents & (EPOLLHUP | EPOLLERR)) != 0) {
+                    ops = iops & NativeSelectionKeys.STANDARD_OPS;
+                }
+
+                k.readyOps(ops);
+                ++updatedKeyCount;
+                if (action != null) {
+                    addReady(readyCount++, k);
+                } else if (!selected.contains(k)) {
+                    selected.add(k);
+                }
+            }
+        }
+
+        if (SelectorMetrics.ENABLED) {
+            metrics.selected(updatedKeyCount);
+        }
+        if (readyCount > 0) {
+            dispatch(readyCount, action);
+        }
+        return updatedKeyCount;
+    }
+
+    private void addReady(int idx, SelectionKey k) {
+        if (idx == readyKeys.length) {
+            readyKeys = Arrays.copyOf(readyKeys, idx * 2);
+        }
+        readyKeys[idx] = k;
+    }
+
+    /**
+     * Runs the consumer outside regLock, so it may register, cancel or change interest from
+     * any thread without blocking against this one.
+     */
+    private void dispatch(int count, Consumer<SelectionKey> action) {
+        try {
+            for (int i = 0; i < count; i++) {
+                action.accept(readyKeys[i]);
+            }
+        } finally {
+            Arrays.fill(readyKeys, 0, count, null);
+        }
+    }
+
+    /**
+     * Processes cancelled keys and waits in epoll_wait(2) for at most {@code maxEvents} events.
+     */
+    private int pollNative(long timeoutNanos, int maxEvents) throws IOException {
+        //
+        // Remove any cancelled keys
+        //
+        Set<SelectionKey> cancelled = cancelledKeys();
+        synchronized (cancelled) {
+            for (SelectionKey k : cancelled) {
+                remove((EpollSelectionKey) k);
+            }
+            if (SelectorMetrics.ENABLED) {
+                metrics.cancelled(cancelled.size());
+            }
+            cancelled.clear();
+        }
+
+        int nready = 0;
+        long start = SelectorMetrics.ENABLED ? metrics.beforeSelect() : 0;
+        try {
+            begin();
+
+            do {
+                nready = timeoutNanos > 0
+                        ? pwait2(maxEvents, timeoutNanos) : Native.libc().epoll_wait(epfd, eventbuf, maxEvents, timeoutNanos < 0 ? -1 : 0);
+            } while (nready < 0 && Native.getLastErrno() == Native.EINTR);
+
+        } finally {
+            end();
+        }
+        if (SelectorMetrics.ENABLED) {
+            metrics.afterSelect(start);
+        }
+
+        if (nready < 0) {
+            String message = String.format("epoll_wait failed: %s", Native.getLastErrorString());
+            throw new NativeException(message, Native.getLastError());
+        }
+
+        return nready;
+    }
+
+    /**
+     * Waits with epoll_pwait2(2) so a timeout is not rounded up to whole milliseconds, or with
+     * epoll_wait(2) on kernels older than 5.11.
+     */
+    private int pwait2(int maxEvents, long timeoutNanos) {
+        if (pwait2Available) {
+            try {
+                int nready = Native.libc().epoll_pwait2(epfd, eventbuf, maxEvents, Native.timespec(timespec, timeoutNanos), null);
+                if (nready >= 0 || Native.getLastErrno() != ENOSYS) {
+                    return nready;
+                }
+            } catch (UnsatisfiedLinkError ex) {
+            }
+            pwait2Available = false;
+        }
+        return Native.libc().epoll_wait(epfd, eventbuf, maxEvents, Native.timeoutMillis(timeoutNanos));
+    }
+
+    public int selectInto(int[] fds, int[] ops, long timeoutNanos) throws IOException {
+        if (fds.length == 0 || ops.length < fds.length) {
+            throw new IllegalArgumentException("fds is empty or ops is shorter than fds");
+        }
+        // Never ask for more events than fit, edge triggered ones would be lost
+        int nready = pollNative(timeoutNanos, Math.min(fds.length, MAX_EVENTS));
+
+        int n = 0;
+        int wakeupFD = wakeup.getFD();
+        synchronized (regLock) {
+            for (int i = 0; i < nready; ++i) {
+                int fd = getEventFD(i);
+                if (fd == wakeupFD) {
+                    wakeup.drain();
+                    continue;
+                }
+
+                // Drop events for a key cancelled, or an fd reused, since the wait
+                EpollSelectionKey k = fd < fdTable.length ? fdTable[fd] : null;
+                if (k == null || !k.isValid()) {
+                    continue;
+                }
+
+                int revents = getEvents(i);
+                int ready = 0;
+                if ((revents & (EPOLLIN | EPOLLHUP | EPOLLERR)) != 0) {
+                    ready |= SelectionKey.OP_READ;
+                }
+                if ((revents & (EPOLLOUT | EPOLLHUP | EPOLLERR)) != 0) {
+                    ready |= SelectionKey.OP_WRITE;
+                }
+                fds[n] = fd;
+                ops[n++] = ready;
+            }
+        }
+
+        if (SelectorMetrics.ENABLED) {
+            metrics.selected(n);
+        }
+        return n;
+    }
+
+    @Override
+    public Selector wakeup() {
+        try {
+            wakeup.wakeup();
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+
+        return this;
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread that owns one native selector, runs the handlers of the channels registered with it
+ * and executes tasks submitted from other threads.
+ *
+ * Loops are created by an {@link EventLoopGroup}.  Tasks go through a lock-free queue, and a
+ * submitting thread only wakes the selector when the loop may be blocked in select; while the
+ * loop is busy a submission costs one queue insertion.
+ *
+ * The {@link Handler} of a channel is its key's attachment.  A handler that throws an
+ * {@link IOException} has its channel closed.  When the loop terminates, every channel still
+ * registered with it is closed and its handler told through {@link Handler#terminated}.
+ *
+ * Timers live in a hashed wheel owned by the loop: the select timeout is taken from the next
+ * deadline, and expired timers run on the loop thread after the ready channels have been
+ * handled, so a timer never costs a wakeup of its own.
+ */
+public final class EventLoop implements Executor {
+    /**
+     * Called on the loop thread when a registered channel is ready.
+     */
+    public interface Handler {
+        void ready(SelectionKey key) throws IOException;
+
+        /**
+         * Called on the loop thread when a channel registered with an idle timeout has not been
+         * ready for that long.  Closes the channel unless overridden; if the channel is left
+         * open, the timeout starts over.
+         */
+        default void idle(SelectionKey key) throws IOException {
+            key.channel().close();
+        }
+
+        /**
+         * Called on the loop thread when the loop terminates with the channel still registered,
+         * after the loop has closed the channel.  Does nothing unless overridden.
+         */
+        default void terminated(SelectionKey key) {
+        }
+    }
+
+    /**
+     * A pending timer.
+     */
+    public interface Timeout {
+        /**
+         * Cancels the timer.  Safe to call from any thread.
+         *
+         * @return true if the timer had neither run nor been cancelled yet
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+    }
+
+    private static final int ST_RUNNING = 0;
+    private static final int ST_SHUTTING_DOWN = 1;
+    private static final int ST_TERMINATED = 2;
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int WHEEL_SIZE = 512;
+    // Longer delays are clamped so deadlines never overflow
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 4;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final int cpu;
+    private final TimerWheel timers;
+    private final TimerWheel.ErrorHandler timerErrors = new TimerWheel.ErrorHandler() {
+        public void error(RuntimeException ex) {
+            report(ex);
+        }
+    };
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // Set while the loop may block in select, a submitter that clears it owes a wakeup
+    private final AtomicBoolean wakeupNeeded = new AtomicBoolean();
+    private final AtomicInteger pendingRegistrations = new AtomicInteger();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile int state = ST_RUNNING;
+    private volatile int keyCount;
+    // The loop clock, read once after select and again before timers run
+    private long now;
+
+    EventLoop(String name, int cpu) throws IOException {
+        this.selector = NativeSelectorProvider.getInstance().openSelector();
+        this.cpu = cpu;
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                EventLoop.this.run();
+            }
+        }, name);
+        this.timers = new TimerWheel(thread, TICK_NANOS, WHEEL_SIZE);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Tests whether the calling thread is this loop's thread.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Returns the number of channels registered with this loop, including registrations that
+     * have been submitted but not yet applied.
+     */
+    public int load() {
+        return keyCount + pendingRegistrations.get();
+    }
+
+    /**
+     * Queues a task to run on the loop thread.
+     *
+     * @throws RejectedExecutionException if the loop has been shut down
+     */
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        if (state != ST_RUNNING) {
+            throw new RejectedExecutionException("Event loop is shut down");
+        }
+        tasks.offer(task);
+        // Shutdown may have raced with the check above, and the loop's last drain with the offer
+        if (state != ST_RUNNING && tasks.remove(task)) {
+            throw new RejectedExecutionException("Event loop is shut down");
+        }
+        if (!inEventLoop() && wakeupNeeded.compareAndSet(true, false)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs a task on the loop thread once the delay has elapsed.  Timers still pending when the
+     * loop terminates never run.
+     *
+     * @throws RejectedExecutionException if the loop has been shut down
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        if (state != ST_RUNNING) {
+            throw new RejectedExecutionException("Event loop is shut down");
+        }
+        long delayNanos = Math.min(unit.toNanos(Math.max(0, delay)), MAX_DELAY_NANOS);
+        final TimerWheel.Timer timer = timers.newTimer(task, System.nanoTime() + delayNanos);
+        if (inEventLoop()) {
+            timers.schedule(timer);
+        } else {
+            execute(new Runnable() {
+                public void run() {
+                    timers.schedule(timer);
+                }
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Registers a channel with this loop, switching it to non-blocking mode.  The registration
+     * is applied on the loop thread.
+     *
+     * @return a future completed with the channel's key, or with the failure to register it
+     */
+    public CompletableFuture<SelectionKey> register(SelectableChannel ch, int ops, Handler handler) {
+        return register(ch, ops, handler, null);
+    }
+
+    /**
+     * Registers a channel like {@link #register(SelectableChannel, int, Handler)}, calling
+     * {@link Handler#idle} whenever the channel has not been ready for {@code idleTimeout}.
+     * The key's attachment is then a wrapper around {@code handler}.
+     */
+    public CompletableFuture<SelectionKey> register(SelectableChannel ch, int ops, Handler handler,
+                                                    long idleTimeout, TimeUnit unit) {
+        IdleHandler idle = new IdleHandler(handler, Math.min(unit.toNanos(idleTimeout), MAX_DELAY_NANOS));
+        return register(ch, ops, idle, idle);
+    }
+
+    private CompletableFuture<SelectionKey> register(SelectableChannel ch, int ops, Handler handler,
+                                                     IdleHandler idle) {
+        Registration registration = new Registration(ch, ops, handler, idle);
+        pendingRegistrations.incrementAndGet();
+        try {
+            execute(registration);
+        } catch (RejectedExecutionException ex) {
+            pendingRegistrations.decrementAndGet();
+            throw ex;
+        }
+        return registration.future;
+    }
+
+    /**
+     * A registration waiting to be applied on the loop thread.
+     */
+    private final class Registration implements Runnable {
+        final CompletableFuture<SelectionKey> future = new CompletableFuture<SelectionKey>();
+        private final SelectableChannel ch;
+        private final int ops;
+        private final Handler handler;
+        private final IdleHandler idle;
+
+        Registration(SelectableChannel ch, int ops, Handler handler, IdleHandler idle) {
+            this.ch = ch;
+            this.ops = ops;
+            this.handler = handler;
+            this.idle = idle;
+        }
+
+        public void run() {
+            try {
+                if (ch.isBlocking()) {
+                    ch.configureBlocking(false);
+                }
+                SelectionKey key = ch.register(selector, ops, handler);
+                if (idle != null) {
+                    idle.start(key);
+                }
+                future.complete(key);
+                keyCount = selector.keys().size();
+            } catch (IOException ex) {
+                future.completeExceptionally(ex);
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                // Only once the key is counted, so load() never dips in between
+                pendingRegistrations.decrementAndGet();
+            }
+        }
+
+        void reject() {
+            future.completeExceptionally(new RejectedExecutionException("Event loop is shut down"));
+            pendingRegistrations.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting tasks.  Tasks already queued still run, then the loop closes its channels
+     * and terminates.
+     */
+    public void shutdown() {
+        if (state == ST_RUNNING) {
+            state = ST_SHUTTING_DOWN;
+            selector.wakeup();
+        }
+    }
+
+    public boolean isShutdown() {
+        return state != ST_RUNNING;
+    }
+
+    public boolean isTerminated() {
+        return state == ST_TERMINATED;
+    }
+
+    /**
+     * Waits for the loop to terminate after a {@link #shutdown()}.
+     *
+     * @return true if the loop terminated, false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    private void run() {
+        if (cpu >= 0) {
+            pin(cpu);
+        }
+        try {
+            while (state == ST_RUNNING) {
+                wakeupNeeded.set(true);
+                long timeout = tasks.isEmpty() ? timers.nextTimeout(System.nanoTime()) : 0;
+                ((NativeSelector) selector).selectNanos(timeout);
+                wakeupNeeded.set(false);
+
+                now = System.nanoTime();
+                processSelectedKeys();
+                now = System.nanoTime();
+                timers.expire(now, timerErrors);
+                runTasks();
+                keyCount = selector.keys().size();
+            }
+            runTasks();
+
+        } catch (Throwable ex) {
+            report(ex);
+
+        } finally {
+            state = ST_TERMINATED;
+            closeAll();
+            keyCount = 0;
+            rejectTasks();
+            terminated.countDown();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            try {
+                ((Handler) key.attachment()).ready(key);
+            } catch (IOException ex) {
+                closeQuietly(key.channel());
+            } catch (RuntimeException ex) {
+                closeQuietly(key.channel());
+                report(ex);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                report(ex);
+            }
+        }
+    }
+
+    /**
+     * Drops the tasks that slipped in after the last run, failing the registrations among them
+     * so no caller waits on a key that will never come.
+     */
+    private void rejectTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            if (task instanceof Registration) {
+                ((Registration) task).reject();
+            }
+        }
+    }
+
+    /**
+     * Tracks when a channel was last ready.  Its timer is only moved when it fires, rather than
+     * on every ready event, so busy channels cost one timer per timeout period.
+     */
+    private final class IdleHandler implements Handler, Runnable {
+        private final Handler handler;
+        private final long timeoutNanos;
+        private SelectionKey key;
+        private long lastActive;
+
+        IdleHandler(Handler handler, long timeoutNanos) {
+            this.handler = handler;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        void start(SelectionKey key) {
+            this.key = key;
+            this.lastActive = System.nanoTime();
+            timers.schedule(timers.newTimer(this, lastActive + timeoutNanos));
+        }
+
+        public void ready(SelectionKey key) throws IOException {
+            lastActive = now;
+            handler.ready(key);
+        }
+
+        public void idle(SelectionKey key) throws IOException {
+            handler.idle(key);
+        }
+
+        public void terminated(SelectionKey key) {
+            handler.terminated(key);
+        }
+
+        public void run() {
+            if (!key.isValid()) {
+                return;
+            }
+            long deadline = lastActive + timeoutNanos;
+            if (deadline - now <= 0) {
+                try {
+                    handler.idle(key);
+                } catch (IOException ex) {
+                    closeQuietly(key.channel());
+                } catch (RuntimeException ex) {
+                    closeQuietly(key.channel());
+                    report(ex);
+                }
+                if (!key.isValid() || !key.channel().isOpen()) {
+                    return;
+                }
+                lastActive = now;
+                deadline = now + timeoutNanos;
+            }
+            timers.schedule(timers.newTimer(this, deadline));
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+                try {
+                    ((Handler) key.attachment()).terminated(key);
+                } catch (RuntimeException ex) {
+                    report(ex);
+                }
+            }
+            selector.close();
+        } catch (IOException ex) {
+            report(ex);
+        }
+    }
+
+    private static void closeQuietly(SelectableChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void report(Throwable ex) {
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+    }
+
+    private static void pin(int cpu) {
+        long[] mask = new long[cpu / 64 + 1];
+        mask[cpu / 64] = 1L << (cpu % 64);
+        // Best effort, the loop runs unpinned if the cpu is not available to the process
+        Native.libc().sched_setaffinity(0, mask.length * 8L, mask);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed set of {@link EventLoop}s, each running a native selector on its own thread, with
+ * channels spread across them.
+ */
+public final class EventLoopGroup {
+    /**
+     * How {@link #next(SelectableChannel)} picks a loop for a channel.
+     */
+    public enum Placement {
+        /** By a hash of the channel's fd, so a channel always maps to the same loop */
+        HASH,
+        /** The loop with the fewest registered channels */
+        LEAST_LOADED
+    }
+
+    private final EventLoop[] loops;
+    private final Placement placement;
+
+    /**
+     * Creates a group of unpinned loops that places channels on the least loaded loop.
+     */
+    public EventLoopGroup(int nLoops) throws IOException {
+        this(nLoops, Placement.LEAST_LOADED, false);
+    }
+
+    /**
+     * Creates a group of loops.
+     *
+     * @param nLoops the number of loops, usually no more than the number of cores
+     * @param placement how channels are assigned to loops
+     * @param pin whether to pin loop {@code i} to cpu {@code i}, only done on linux
+     */
+    public EventLoopGroup(int nLoops, Placement placement, boolean pin) throws IOException {
+        if (nLoops < 1) {
+            throw new IllegalArgumentException("nLoops must be positive");
+        }
+        this.placement = placement;
+        this.loops = new EventLoop[nLoops];
+
+        boolean pinned = pin && Platform.getNativePlatform().getOS() == Platform.OS.LINUX;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < nLoops; i++) {
+            try {
+                loops[i] = new EventLoop("enxio-loop-" + i, pinned ? i % cpus : -1);
+            } catch (IOException ex) {
+                // Let the loops already created close their selectors
+                for (int j = 0; j < i; j++) {
+                    loops[j].shutdown();
+                    loops[j].start();
+                }
+                throw ex;
+            }
+        }
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    public EventLoop loop(int index) {
+        return loops[index];
+    }
+
+    /**
+     * Picks the loop a channel should be registered with.
+     */
+    public EventLoop next(SelectableChannel ch) {
+        if (loops.length == 1) {
+            return loops[0];
+        }
+
+        if (placement == Placement.HASH) {
+            int h = ch instanceof NativeSelectableChannel
+                    ? ((NativeSelectableChannel) ch).getFD() : System.identityHashCode(ch);
+            h ^= h >>> 16;
+            h *= 0x45d9f3b;
+            h ^= h >>> 16;
+            return loops[(h & Integer.MAX_VALUE) % loops.length];
+        }
+
+        EventLoop best = loops[0];
+        int bestLoad = best.load();
+        for (int i = 1; i < loops.length && bestLoad > 0; i++) {
+            int load = loops[i].load();
+            if (load < bestLoad) {
+                best = loops[i];
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Registers a channel with the loop picked by {@link #next(SelectableChannel)}.
+     */
+    public CompletableFuture<SelectionKey> register(SelectableChannel ch, int ops, EventLoop.Handler handler) {
+        return next(ch).register(ch, ops, handler);
+    }
+
+    /**
+     * Shuts down every loop, see {@link EventLoop#shutdown()}.
+     */
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    public boolean isTerminated() {
+        for (EventLoop loop : loops) {
+            if (!loop.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for every loop to terminate after a {@link #shutdown()}.
+     *
+     * @return true if all loops terminated, false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (EventLoop loop : loops) {
+            if (!loop.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
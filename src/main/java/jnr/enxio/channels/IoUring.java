@@ -0,0 +1,446 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Errno;
+import jnr.ffi.LastError;
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * A thin wrapper around a linux io_uring(7) instance.
+ *
+ * Only the raw ring handling lives here: setting up and mapping the rings, filling in
+ * submission queue entries and walking the completion queue.  It is not thread safe,
+ * the owner drives it from a single thread.
+ */
+final class IoUring {
+    private static final long SYS_io_uring_setup = 425;
+    private static final long SYS_io_uring_enter = 426;
+
+    static final int IORING_OP_POLL_ADD = 6;
+    static final int IORING_OP_ACCEPT = 13;
+    static final int IORING_OP_ASYNC_CANCEL = 14;
+    static final int IORING_OP_READ = 22;
+    static final int IORING_OP_WRITE = 23;
+    static final int IORING_OP_SEND = 26;
+    static final int IORING_OP_RECV = 27;
+    static final int IORING_OP_PROVIDE_BUFFERS = 31;
+
+    static final int IOSQE_BUFFER_SELECT = 1 << 5;
+    static final int IORING_ACCEPT_MULTISHOT = 1 << 0;
+    static final int IORING_RECV_MULTISHOT = 1 << 1;
+
+    static final int IORING_CQE_F_BUFFER = 1 << 0;
+    static final int IORING_CQE_F_MORE = 1 << 1;
+
+    private static final int IORING_FEAT_SINGLE_MMAP = 1 << 0;
+    private static final int IORING_FEAT_NODROP = 1 << 1;
+    private static final int IORING_FEAT_EXT_ARG = 1 << 8;
+    private static final int IORING_ENTER_GETEVENTS = 1 << 0;
+    private static final int IORING_ENTER_EXT_ARG = 1 << 3;
+
+    private static final long IORING_OFF_SQ_RING = 0L;
+    private static final long IORING_OFF_CQ_RING = 0x8000000L;
+    private static final long IORING_OFF_SQES = 0x10000000L;
+
+    private static final int PROT_READ = 0x1;
+    private static final int PROT_WRITE = 0x2;
+    private static final int MAP_SHARED = 0x01;
+    private static final int MAP_POPULATE = 0x8000;
+
+    // struct io_uring_params
+    private static final int PARAMS_SIZE = 120;
+    private static final int PARAMS_SQ_ENTRIES = 0;
+    private static final int PARAMS_CQ_ENTRIES = 4;
+    private static final int PARAMS_FEATURES = 20;
+    private static final int PARAMS_SQ_OFF = 40;
+    private static final int PARAMS_CQ_OFF = 80;
+
+    // struct io_sqring_offsets / io_cqring_offsets, relative to sq_off / cq_off
+    private static final int OFF_HEAD = 0;
+    private static final int OFF_TAIL = 4;
+    private static final int OFF_RING_MASK = 8;
+    private static final int OFF_SQ_ARRAY = 24;
+    private static final int OFF_CQES = 20;
+
+    // struct io_uring_sqe
+    private static final int SQE_SIZE = 64;
+    private static final int SQE_OPCODE = 0;
+    private static final int SQE_FLAGS = 1;
+    private static final int SQE_IOPRIO = 2;
+    private static final int SQE_FD = 4;
+    private static final int SQE_OFF = 8;
+    private static final int SQE_ADDR = 16;
+    private static final int SQE_LEN = 24;
+    private static final int SQE_OP_FLAGS = 28;
+    private static final int SQE_USER_DATA = 32;
+    private static final int SQE_BUF_GROUP = 40;
+
+    // struct io_uring_cqe
+    private static final int CQE_SIZE = 16;
+    private static final int CQE_USER_DATA = 0;
+    private static final int CQE_RES = 8;
+    private static final int CQE_FLAGS = 12;
+
+    private static final int EINTR = Errno.EINTR.intValue();
+    private static final int ETIME = Errno.ETIME.intValue();
+
+    private static final class SupportHolder {
+        static final boolean SUPPORTED = probe();
+
+        private static boolean probe() {
+            Platform platform = Platform.getNativePlatform();
+            if (platform.getOS() != Platform.OS.LINUX) {
+                return false;
+            }
+            try {
+                new IoUring(2).close();
+                return true;
+            } catch (Throwable t) {
+                return false;
+            }
+        }
+    }
+
+    private final int ringfd;
+    private final long sqRingAddress, sqRingSize;
+    private final long cqRingAddress, cqRingSize;
+    private final long sqesAddress, sqesSize;
+    private final Pointer sqRing, cqRing, sqes;
+    private final int sqHead, sqTail, sqMask, sqEntries;
+    private final int cqHead, cqTail, cqMask, cqes;
+    private final Pointer enterArg;
+    private final Pointer timeout;
+
+    /** Local copy of the submission tail, published to the kernel by {@link #submit} */
+    private int localSqTail;
+    private boolean closed;
+
+    //
+    // The ring indexes are shared with the kernel but read and written through plain Pointer
+    // accesses, so they are ordered with explicit fences: a load fence after reading an index
+    // the kernel publishes (acquire), and a fence before publishing one of ours (release).
+    //
+    // sun.misc.Unsafe is not visible when compiling for release 8, so its fences are bound here
+    private static final MethodHandle LOAD_FENCE = unsafeFence("loadFence");
+    private static final MethodHandle STORE_FENCE = unsafeFence("storeFence");
+
+    private static MethodHandle unsafeFence(String name) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return MethodHandles.lookup().findVirtual(unsafeClass, name, MethodType.methodType(void.class))
+                    .bindTo(f.get(null));
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static void loadFence() {
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static void storeFence() {
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Tests whether io_uring can be used on this machine.  Old kernels, seccomp filters and
+     * the kernel.io_uring_disabled sysctl can all prevent it.
+     */
+    static boolean isSupported() {
+        return SupportHolder.SUPPORTED;
+    }
+
+    IoUring(int entries) throws IOException {
+        if (LOAD_FENCE == null || STORE_FENCE == null) {
+            throw new IOException("io_uring needs the sun.misc.Unsafe memory fences");
+        }
+        jnr.ffi.Runtime runtime = Native.getRuntime();
+        Pointer params = Memory.allocateDirect(runtime, PARAMS_SIZE, true);
+        ringfd = Native.libc().syscall(SYS_io_uring_setup, entries, params);
+        if (ringfd < 0) {
+            throw error("io_uring_setup");
+        }
+
+        int features = params.getInt(PARAMS_FEATURES);
+        if ((features & (IORING_FEAT_NODROP | IORING_FEAT_EXT_ARG)) != (IORING_FEAT_NODROP | IORING_FEAT_EXT_ARG)) {
+            Native.libc().close(ringfd);
+            throw new IOException("io_uring is too old, a 5.11 or newer kernel is required");
+        }
+
+        sqEntries = params.getInt(PARAMS_SQ_ENTRIES);
+        int cqEntries = params.getInt(PARAMS_CQ_ENTRIES);
+        int sqArray = params.getInt(PARAMS_SQ_OFF + OFF_SQ_ARRAY);
+        cqes = params.getInt(PARAMS_CQ_OFF + OFF_CQES);
+
+        long sqSize = sqArray + (sqEntries * 4L);
+        long cqSize = cqes + (cqEntries * (long) CQE_SIZE);
+        boolean singleMmap = (features & IORING_FEAT_SINGLE_MMAP) != 0;
+        if (singleMmap) {
+            sqSize = cqSize = Math.max(sqSize, cqSize);
+        }
+
+        long sqAddress = 0, cqAddress = 0, sqesAddr = 0;
+        try {
+            sqAddress = map(sqSize, IORING_OFF_SQ_RING);
+            cqAddress = singleMmap ? sqAddress : map(cqSize, IORING_OFF_CQ_RING);
+            sqesAddr = map(sqEntries * (long) SQE_SIZE, IORING_OFF_SQES);
+        } catch (IOException e) {
+            if (cqAddress != 0 && cqAddress != sqAddress) {
+                Native.libc().munmap(cqAddress, cqSize);
+            }
+            if (sqAddress != 0) {
+                Native.libc().munmap(sqAddress, sqSize);
+            }
+            Native.libc().close(ringfd);
+            throw e;
+        }
+        sqRingAddress = sqAddress;
+        sqRingSize = sqSize;
+        cqRingAddress = cqAddress;
+        cqRingSize = singleMmap ? 0 : cqSize;
+        sqesAddress = sqesAddr;
+        sqesSize = sqEntries * (long) SQE_SIZE;
+
+        sqRing = Pointer.wrap(runtime, sqRingAddress, sqSize);
+        cqRing = Pointer.wrap(runtime, cqRingAddress, cqSize);
+        sqes = Pointer.wrap(runtime, sqesAddress, sqesSize);
+
+        sqHead = params.getInt(PARAMS_SQ_OFF + OFF_HEAD);
+        sqTail = params.getInt(PARAMS_SQ_OFF + OFF_TAIL);
+        sqMask = sqRing.getInt(params.getInt(PARAMS_SQ_OFF + OFF_RING_MASK));
+        cqHead = params.getInt(PARAMS_CQ_OFF + OFF_HEAD);
+        cqTail = params.getInt(PARAMS_CQ_OFF + OFF_TAIL);
+        cqMask = cqRing.getInt(params.getInt(PARAMS_CQ_OFF + OFF_RING_MASK));
+
+        // Submission entries are always used in ring order, so the indirection array is fixed
+        for (int i = 0; i < sqEntries; i++) {
+            sqRing.putInt(sqArray + (i * 4L), i);
+        }
+        localSqTail = sqRing.getInt(sqTail);
+
+        // struct io_uring_getevents_arg followed by a struct __kernel_timespec
+        enterArg = Memory.allocateDirect(runtime, 24 + 16, true);
+        timeout = enterArg.slice(24, 16);
+        enterArg.putLongLong(16, timeout.address());
+    }
+
+    private long map(long size, long offset) throws IOException {
+        long address = Native.libc().mmap(0, size, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE, ringfd, offset);
+        if (address == -1L) {
+            throw error("mmap");
+        }
+        return address;
+    }
+
+    private static IOException error(String function) {
+        int errno = LastError.getLastError(Native.getRuntime());
+        return new NativeException(String.format("%s failed: %s", function, Native.libc().strerror(errno)),
+                Errno.valueOf(errno));
+    }
+
+    int entries() {
+        return sqEntries;
+    }
+
+    /**
+     * Claims the next submission queue entry, flushing the queue to the kernel when it is full.
+     *
+     * @return the offset of the cleared entry in the submission entry array
+     */
+    private long nextSqe() throws IOException {
+        int head = sqRing.getInt(sqHead);
+        loadFence();
+        if (localSqTail - head >= sqEntries) {
+            submit();
+        }
+        long sqe = (localSqTail & sqMask) * (long) SQE_SIZE;
+        sqes.setMemory(sqe, SQE_SIZE, (byte) 0);
+        ++localSqTail;
+        return sqe;
+    }
+
+    /**
+     * Queues a new operation.
+     *
+     * @param opcode the IORING_OP_* operation
+     * @param fd the target file descriptor
+     * @param address the buffer address, or the target user data for a cancel
+     * @param length the buffer length
+     * @param offset the file offset
+     * @param userData the value handed back with the completion
+     */
+    void prepare(int opcode, int fd, long address, int length, long offset, long userData) throws IOException {
+        long sqe = nextSqe();
+        sqes.putByte(sqe + SQE_OPCODE, (byte) opcode);
+        sqes.putInt(sqe + SQE_FD, fd);
+        sqes.putLongLong(sqe + SQE_OFF, offset);
+        sqes.putLongLong(sqe + SQE_ADDR, address);
+        sqes.putInt(sqe + SQE_LEN, length);
+        sqes.putLongLong(sqe + SQE_USER_DATA, userData);
+    }
+
+    /**
+     * Same as {@link #prepare(int, int, long, int, long, long)}, with the extra fields the
+     * multishot, poll and provided buffer operations need.
+     */
+    void prepare(int opcode, int fd, long address, int length, long offset, long userData,
+                 int flags, int ioprio, int opFlags, int bufGroup) throws IOException {
+        prepare(opcode, fd, address, length, offset, userData);
+        long sqe = (((localSqTail - 1) & sqMask) * (long) SQE_SIZE);
+        sqes.putByte(sqe + SQE_FLAGS, (byte) flags);
+        sqes.putShort(sqe + SQE_IOPRIO, (short) ioprio);
+        sqes.putInt(sqe + SQE_OP_FLAGS, opFlags);
+        sqes.putShort(sqe + SQE_BUF_GROUP, (short) bufGroup);
+    }
+
+    /**
+     * Submits all queued entries to the kernel without waiting for completions.
+     */
+    int submit() throws IOException {
+        return enter(0, -1);
+    }
+
+    /**
+     * Submits all queued entries and waits for completions.
+     *
+     * @param minComplete the number of completions to wait for
+     * @param timeoutNanos the maximum time to wait, or a negative value to wait forever
+     */
+    int submitAndWait(int minComplete, long timeoutNanos) throws IOException {
+        return enter(minComplete, timeoutNanos);
+    }
+
+    private int enter(int minComplete, long timeoutNanos) throws IOException {
+        // The entries must be visible before the tail that hands them to the kernel
+        storeFence();
+        sqRing.putInt(sqTail, localSqTail);
+
+        int flags = 0;
+        Pointer arg = null;
+        long argsz = 0;
+        if (minComplete > 0) {
+            flags |= IORING_ENTER_GETEVENTS;
+            if (timeoutNanos >= 0) {
+                timeout.putLongLong(0, timeoutNanos / 1000000000L);
+                timeout.putLongLong(8, timeoutNanos % 1000000000L);
+                flags |= IORING_ENTER_EXT_ARG;
+                arg = enterArg;
+                argsz = 24;
+            }
+        }
+
+        if (minComplete == 0 && localSqTail == sqRing.getInt(sqHead)) {
+            return 0;
+        }
+
+        int rc;
+        do {
+            // Anything published but not yet consumed by the kernel still needs submitting
+            int toSubmit = localSqTail - sqRing.getInt(sqHead);
+            rc = Native.libc().syscall(SYS_io_uring_enter, ringfd, toSubmit, minComplete, flags, arg, argsz);
+        } while (rc < 0 && LastError.getLastError(Native.getRuntime()) == EINTR);
+
+        if (rc < 0) {
+            if (LastError.getLastError(Native.getRuntime()) == ETIME) {
+                return 0;
+            }
+            throw error("io_uring_enter");
+        }
+
+        return rc;
+    }
+
+    /**
+     * Tests if there are completions waiting to be reaped.
+     */
+    boolean hasCompletions() {
+        int tail = cqRing.getInt(cqTail);
+        loadFence();
+        return cqRing.getInt(cqHead) != tail;
+    }
+
+    interface CompletionVisitor {
+        void completed(long userData, int res, int flags) throws IOException;
+    }
+
+    /**
+     * Hands every available completion to {@code visitor} and returns them to the kernel.
+     *
+     * @return the number of completions visited
+     */
+    int reap(CompletionVisitor visitor) throws IOException {
+        int head = cqRing.getInt(cqHead);
+        int tail = cqRing.getInt(cqTail);
+        // No entry may be read before the tail that published it
+        loadFence();
+
+        int count = 0;
+        while (head != tail) {
+            long cqe = cqes + ((head & cqMask) * (long) CQE_SIZE);
+            long userData = cqRing.getLongLong(cqe + CQE_USER_DATA);
+            int res = cqRing.getInt(cqe + CQE_RES);
+            int flags = cqRing.getInt(cqe + CQE_FLAGS);
+            ++head;
+            ++count;
+
+            // Release the slot before running the visitor, so it can queue more work.  The
+            // entry must be read before the head store lets the kernel overwrite it.
+            loadFence();
+            storeFence();
+            cqRing.putInt(cqHead, head);
+            visitor.completed(userData, res, flags);
+        }
+
+        return count;
+    }
+
+    void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (sqesAddress != 0) {
+            Native.libc().munmap(sqesAddress, sqesSize);
+        }
+        if (cqRingAddress != 0 && cqRingSize != 0) {
+            Native.libc().munmap(cqRingAddress, cqRingSize);
+        }
+        if (sqRingAddress != 0) {
+            Native.libc().munmap(sqRingAddress, sqRingSize);
+        }
+        Native.close(ringfd);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Errno;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link NativeCompletionEngine} backed by an io_uring instance.
+ */
+final class IoUringCompletionEngine extends NativeCompletionEngine {
+    /** user_data of the cancel and provide buffer entries, whose completions are dropped */
+    private static final long INTERNAL = -1L;
+    private static final int BUFFER_GROUP = 0;
+
+    // linux accept4(2) flags
+    private static final int SOCK_NONBLOCK = 0x800;
+    private static final int SOCK_CLOEXEC = 0x80000;
+
+    private static final int POLLIN = 0x1;
+    private static final int POLLOUT = 0x4;
+    private static final int EAGAIN = Errno.EAGAIN.intValue();
+
+    /** Slot state of a read or write waiting for readiness before it is retried */
+    private static final int POLLING = 1;
+
+    private final IoUring ring;
+    private final IoUring.CompletionVisitor visitor = new IoUring.CompletionVisitor() {
+        public void completed(long userData, int res, int flags) throws IOException {
+            IoUringCompletionEngine.this.completed(userData, res, flags);
+        }
+    };
+    private CompletionHandler handler;
+    private int dispatched;
+
+    IoUringCompletionEngine(int entries) throws IOException {
+        this.ring = new IoUring(entries);
+    }
+
+    @Override
+    void queued(int slot) throws IOException {
+        prepare(slot);
+    }
+
+    private void prepare(int slot) throws IOException {
+        NativeSelectableChannel ch = channel(slot);
+        int fd = ch.getFD();
+        long id = id(slot);
+        boolean socket = ch instanceof NativeSocketChannel;
+        ByteBuffer buffer = slotBuffer(slot);
+
+        switch (kind(slot)) {
+            case OP_READ:
+                // Reads on regular fds use the current file position
+                ring.prepare(socket ? IoUring.IORING_OP_RECV : IoUring.IORING_OP_READ,
+                        fd, address(buffer), buffer.remaining(), socket ? 0 : -1L, id);
+                break;
+
+            case OP_WRITE:
+                ring.prepare(socket ? IoUring.IORING_OP_SEND : IoUring.IORING_OP_WRITE,
+                        fd, address(buffer), buffer.remaining(), socket ? 0 : -1L, id);
+                break;
+
+            case OP_ACCEPT:
+                ring.prepare(IoUring.IORING_OP_ACCEPT, fd, 0, 0, 0, id,
+                        0, 0, SOCK_NONBLOCK | SOCK_CLOEXEC, 0);
+                break;
+
+            case OP_ACCEPT_MULTISHOT:
+                ring.prepare(IoUring.IORING_OP_ACCEPT, fd, 0, 0, 0, id,
+                        0, IoUring.IORING_ACCEPT_MULTISHOT, SOCK_NONBLOCK | SOCK_CLOEXEC, 0);
+                break;
+
+            case OP_RECV_MULTISHOT:
+                ring.prepare(IoUring.IORING_OP_RECV, fd, 0, 0, 0, id,
+                        IoUring.IOSQE_BUFFER_SELECT, IoUring.IORING_RECV_MULTISHOT, 0, BUFFER_GROUP);
+                break;
+
+            default:
+                throw new IllegalStateException("unknown operation " + kind(slot));
+        }
+    }
+
+    private void completed(long userData, int res, int flags) throws IOException {
+        if (userData == INTERNAL) {
+            return;
+        }
+        int slot = slot(userData);
+        if (slot < 0) {
+            return;
+        }
+
+        int kind = kind(slot);
+        if (state(slot) == POLLING) {
+            state(slot, 0);
+            if (res >= 0) {
+                prepare(slot);
+                return;
+            }
+
+        } else if (res == -EAGAIN && (kind == OP_READ || kind == OP_WRITE)) {
+            //
+            // Plain reads and writes on non-blocking fds fail rather than wait, so wait for
+            // readiness with a poll and then retry
+            //
+            state(slot, POLLING);
+            ring.prepare(IoUring.IORING_OP_POLL_ADD, channel(slot).getFD(), 0, 0, 0, userData,
+                    0, 0, kind == OP_READ ? POLLIN : POLLOUT, 0);
+            return;
+        }
+
+        ++dispatched;
+        dispatch(handler, slot, res, flags);
+    }
+
+    @Override
+    void provide(int firstBufferId, int count) throws IOException {
+        ring.prepare(IoUring.IORING_OP_PROVIDE_BUFFERS, count, bufferAddress(firstBufferId), bufferSize(),
+                firstBufferId, INTERNAL, 0, 0, 0, BUFFER_GROUP);
+    }
+
+    @Override
+    public void cancel(long op) throws IOException {
+        if (slot(op) >= 0) {
+            ring.prepare(IoUring.IORING_OP_ASYNC_CANCEL, -1, op, 0, 0, INTERNAL);
+        }
+    }
+
+    @Override
+    public int submit() throws IOException {
+        return ring.submit();
+    }
+
+    @Override
+    public int complete(CompletionHandler handler, long timeout) throws IOException {
+        this.handler = handler;
+        this.dispatched = 0;
+        try {
+            if (timeout != 0 && !ring.hasCompletions()) {
+                ring.submitAndWait(1, timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1);
+            } else {
+                ring.submit();
+            }
+            ring.reap(visitor);
+
+            // Hand any retries queued while reaping straight to the kernel
+            ring.submit();
+
+            return dispatched;
+
+        } finally {
+            this.handler = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ring.close();
+    }
+}
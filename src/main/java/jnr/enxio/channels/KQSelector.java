@@ -18,7 +18,6 @@
 
 package jnr.enxio.channels;
 
-import jnr.constants.platform.Errno;
 import jnr.ffi.Memory;
 import jnr.ffi.Pointer;
 import jnr.ffi.StructLayout;
@@ -33,12 +32,13 @@ import java.nio.channels.spi.AbstractSelectableChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * An implementation of a {@link java.nio.channels.Selector} that uses the BSD (including MacOS)
  * kqueue(2) mechanism
  */
-class KQSelector extends java.nio.channels.spi.AbstractSelector {
+class KQSelector extends java.nio.channels.spi.AbstractSelector implements NativeSelector, NativeReadySet {
     private static final boolean DEBUG = false;
     private static final int MAX_EVENTS = 100;
     private static final int EVFILT_READ = -1;
@@ -48,17 +48,22 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
     private static final int EV_ENABLE = 0x0004;
     private static final int EV_DISABLE = 0x0008;
     private static final int EV_CLEAR = 0x0020;
+    private static final int EV_DISPATCH = 0x0080;
 
 
     private int kqfd = -1;
     private final jnr.ffi.Runtime runtime = NativeRuntime.getSystemRuntime();
     private final Pointer changebuf;
     private final Pointer eventbuf;
+    private final Native.Timespec timespec = new Native.Timespec();
     private final EventIO io = EventIO.getInstance();
-    private final int[] pipefd = { -1, -1 };
+    private final SelectorMetrics metrics = SelectorMetrics.open("kqueue");
+    private final SelectorWakeup wakeup = new SelectorWakeup(metrics);
     private final Object regLock = new Object();
     private final Map<Integer, Descriptor> descriptors = new ConcurrentHashMap<Integer, Descriptor>();
     private final Set<SelectionKey> selected = new LinkedHashSet<SelectionKey>();
+    // Keys found ready by select(Consumer), handed to the consumer once regLock is released
+    private SelectionKey[] readyKeys = new SelectionKey[16];
     private final Native.Timespec ZERO_TIMESPEC = new Native.Timespec(0, 0);  
 
     public KQSelector(NativeSelectorProvider provider) {
@@ -66,10 +71,8 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
         changebuf = Memory.allocateDirect(runtime, MAX_EVENTS * io.size());
         eventbuf = Memory.allocateDirect(runtime, MAX_EVENTS * io.size());
 
-        Native.libc().pipe(pipefd);
-
         kqfd = Native.libc().kqueue();
-        io.put(changebuf, 0, pipefd[0], EVFILT_READ, EV_ADD);
+        io.put(changebuf, 0, wakeup.getFD(), EVFILT_READ, EV_ADD);
         Native.libc().kevent(kqfd, changebuf, 1, null, 0, ZERO_TIMESPEC);
     }
 
@@ -77,6 +80,7 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
         private final int fd;
         private final Set<KQSelectionKey> keys = new HashSet<KQSelectionKey>();
         private boolean write = false, read = false;
+        private boolean oneshot = false;
 
         public Descriptor(int fd) {
             this.fd = fd;
@@ -88,13 +92,11 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
         if (kqfd != -1) {
             Native.close(kqfd);
         }
-        if (pipefd[0] != -1) {
-            Native.close(pipefd[0]);
-        }
-        if (pipefd[1] != -1) {
-            Native.close(pipefd[1]);
+        wakeup.close();
+        if (SelectorMetrics.ENABLED) {
+            metrics.close();
         }
-        pipefd[0] = pipefd[1] = kqfd = -1;
+        kqfd = -1;
 
         // deregister all keys
         for (Map.Entry<Integer, Descriptor> entry : descriptors.entrySet()) {
@@ -114,6 +116,9 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
             handleChangedKey(d);
         }
         k.attach(att);
+        if (SelectorMetrics.ENABLED) {
+            metrics.keyRegistered();
+        }
         return k;
     }
 
@@ -133,47 +138,54 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
 
     @Override
     public int selectNow() throws IOException {
-        return poll(0);
+        return poll(0, null);
     }
 
     @Override
     public int select(long timeout) throws IOException {
-        return poll(timeout);
+        return poll(timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1, null);
     }
 
     @Override
     public int select() throws IOException {
-        return poll(-1);
+        return poll(-1, null);
     }
-    
-    private int poll(long timeout) {
-        
-        int nchanged = handleCancelledKeys();
-
-        Native.Timespec ts = null;
-        if (timeout >= 0) {
-            long sec = TimeUnit.MILLISECONDS.toSeconds(timeout);
-            long nsec = TimeUnit.MILLISECONDS.toNanos(timeout % 1000);
-            ts = new Native.Timespec(sec, nsec);
-        }
 
-        if (DEBUG) System.err.printf("nchanged=%d\n", nchanged);
-        int nready = 0;
-        try {
-            begin();
-            do {
+    public int selectNanos(long timeoutNanos) throws IOException {
+        return poll(timeoutNanos, null);
+    }
 
-                nready = Native.libc().kevent(kqfd, changebuf, nchanged, eventbuf, MAX_EVENTS, ts);
+    /**
+     * Hands ready keys to {@code action} straight from the kevent list, see
+     * {@link PollSelector#select(Consumer, long)}.
+     */
+    public int select(Consumer<SelectionKey> action, long timeout) throws IOException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        return poll(timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1, checkAction(action));
+    }
 
-            } while (nready < 0 && Errno.EINTR.equals(Errno.valueOf(Native.getRuntime().getLastError())));
+    public int select(Consumer<SelectionKey> action) throws IOException {
+        return poll(-1, checkAction(action));
+    }
 
-            if (DEBUG) System.err.println("kevent returned " + nready + " events ready");
+    public int selectNow(Consumer<SelectionKey> action) throws IOException {
+        return poll(0, checkAction(action));
+    }
 
-        } finally {
-            end();
+    private static Consumer<SelectionKey> checkAction(Consumer<SelectionKey> action) {
+        if (action == null) {
+            throw new NullPointerException("action");
         }
+        return action;
+    }
+
+    private int poll(long timeoutNanos, Consumer<SelectionKey> action) throws IOException {
+        int nready = pollNative(timeoutNanos, MAX_EVENTS);
 
         int updatedKeyCount = 0;
+        int readyCount = 0;
         synchronized (regLock) {
             for (int i = 0; i < nready; ++i) {
                 int fd = io.getFD(eventbuf, i);
@@ -194,20 +206,130 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
                         }
                         ++updatedKeyCount;
                         k.readyOps(ops);
-                        if (!selected.contains(k)) {
+                        if (action != null) {
+                            addReady(readyCount++, k);
+                        } else if (!selected.contains(k)) {
                             selected.add(k);
                         }
                     }
 
-                } else if (fd == pipefd[0]) {
+                } else if (fd == wakeup.getFD()) {
                     if (DEBUG) System.err.println("Waking up");
-                    wakeupReceived();
+                    wakeup.drain();
                 }
             }
         }
+        if (SelectorMetrics.ENABLED) {
+            metrics.selected(updatedKeyCount);
+        }
+        if (readyCount > 0) {
+            dispatch(readyCount, action);
+        }
         return updatedKeyCount;
     }
 
+    private void addReady(int idx, SelectionKey k) {
+        if (idx == readyKeys.length) {
+            readyKeys = Arrays.copyOf(readyKeys, idx * 2);
+        }
+        readyKeys[idx] = k;
+    }
+
+    /**
+     * Runs the consumer outside regLock, so it may register, cancel or change interest from
+     * any thread without blocking against this one.
+     */
+    private void dispatch(int count, Consumer<SelectionKey> action) {
+        try {
+            for (int i = 0; i < count; i++) {
+                action.accept(readyKeys[i]);
+            }
+        } finally {
+            Arrays.fill(readyKeys, 0, count, null);
+        }
+    }
+
+    /**
+     * Flushes cancelled keys and waits in kevent(2) for at most {@code maxEvents} events.
+     */
+    private int pollNative(long timeoutNanos, int maxEvents) throws IOException {
+        int nchanged = handleCancelledKeys();
+
+        // kevent(2) takes a timespec, so timeouts keep their full resolution
+        Native.Timespec ts = timeoutNanos >= 0 ? Native.timespec(timespec, timeoutNanos) : null;
+
+        if (DEBUG) System.err.printf("nchanged=%d\n", nchanged);
+        int nready = 0;
+        long start = SelectorMetrics.ENABLED ? metrics.beforeSelect() : 0;
+        try {
+            begin();
+            do {
+
+                nready = Native.libc().kevent(kqfd, changebuf, nchanged, eventbuf, maxEvents, ts);
+
+            } while (nready < 0 && Native.getLastErrno() == Native.EINTR);
+
+            if (DEBUG) System.err.println("kevent returned " + nready + " events ready");
+
+        } finally {
+            end();
+        }
+        if (SelectorMetrics.ENABLED) {
+            metrics.afterSelect(start);
+        }
+        return nready;
+    }
+
+    /**
+     * Copies the ready descriptors straight out of the kevent list.  Each filter is reported
+     * on its own, so a descriptor that is both readable and writable can appear twice.
+     */
+    public int selectInto(int[] fds, int[] ops, long timeoutNanos) throws IOException {
+        if (fds.length == 0 || ops.length < fds.length) {
+            throw new IllegalArgumentException("fds is empty or ops is shorter than fds");
+        }
+        // Never ask for more events than fit, one-shot filters would be lost
+        int nready = pollNative(timeoutNanos, Math.min(fds.length, MAX_EVENTS));
+
+        int n = 0;
+        int wakeupFD = wakeup.getFD();
+        synchronized (regLock) {
+            for (int i = 0; i < nready; ++i) {
+                int fd = io.getFD(eventbuf, i);
+                if (fd == wakeupFD) {
+                    wakeup.drain();
+                    continue;
+                }
+
+                // Drop events for keys cancelled, or an fd reused, since the wait
+                if (!hasValidKey(descriptors.get(fd))) {
+                    continue;
+                }
+
+                int filt = io.getFilter(eventbuf, i);
+                fds[n] = fd;
+                ops[n++] = filt == EVFILT_READ ? SelectionKey.OP_READ
+                        : filt == EVFILT_WRITE ? SelectionKey.OP_WRITE : 0;
+            }
+        }
+
+        if (SelectorMetrics.ENABLED) {
+            metrics.selected(n);
+        }
+        return n;
+    }
+
+    private static boolean hasValidKey(Descriptor d) {
+        if (d != null) {
+            for (KQSelectionKey k : d.keys) {
+                if (k.isValid()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private int handleCancelledKeys() {
         Set<SelectionKey> cancelled = cancelledKeys();
         synchronized (cancelled) {
@@ -232,6 +354,10 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
                     }
                 }
             }
+            if (SelectorMetrics.ENABLED) {
+                metrics.cancelled(cancelled.size());
+                metrics.keysRemoved(cancelled.size());
+            }
             cancelled.clear();
             return nchanged;
         }
@@ -242,6 +368,7 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
         synchronized (regLock) {
             int _nchanged = 0;
             int writers = 0, readers = 0;
+            boolean oneshot = false;
             for (KQSelectionKey k : changed.keys) {
                 if ((k.interestOps() & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ)) != 0) {
                     ++readers;
@@ -249,15 +376,25 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
                 if ((k.interestOps() & (SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE)) != 0) {
                     ++writers;
                 }
+                if ((k.interestOps() & NativeSelectionKeys.ONE_SHOT) != 0) {
+                    oneshot = true;
+                }
             }
+            //
+            // A one-shot filter is disabled by the kernel once it fires, so writing the
+            // interest set always re-arms it, as does switching back from one-shot mode
+            //
+            boolean rearm = oneshot || changed.oneshot;
+            changed.oneshot = oneshot;
+            int addFlags = EV_ADD | EV_ENABLE | EV_CLEAR | (oneshot ? EV_DISPATCH : 0);
             for (Integer filt : new Integer[] { EVFILT_READ, EVFILT_WRITE }) {
                 int flags = 0;
                 //
                 // If no one is interested in events on the fd, disable it
                 //
                 if (filt == EVFILT_READ) {
-                    if (readers > 0 && !changed.read) {
-                        flags = EV_ADD |EV_ENABLE | EV_CLEAR;
+                    if (readers > 0 && (!changed.read || rearm)) {
+                        flags = addFlags;
                         changed.read = true;
                     } else if (readers == 0 && changed.read) {
                         flags = EV_DISABLE;
@@ -265,8 +402,8 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
                     }
                 }
                 if (filt == EVFILT_WRITE) {
-                    if (writers > 0 && !changed.write) {
-                        flags = EV_ADD | EV_ENABLE | EV_CLEAR;
+                    if (writers > 0 && (!changed.write || rearm)) {
+                        flags = addFlags;
                         changed.write = true;
                     } else if (writers == 0 && changed.write) {
                         flags = EV_DISABLE;
@@ -284,13 +421,13 @@ class KQSelector extends java.nio.channels.spi.AbstractSelector {
         }        
     }
     
-    private void wakeupReceived() {
-        Native.libc().read(pipefd[0], new byte[1], 1);
-    }
-    
     @Override
     public Selector wakeup() {
-        Native.libc().write(pipefd[1], new byte[1], 1);
+        try {
+            wakeup.wakeup();
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
         return this;
     }
 
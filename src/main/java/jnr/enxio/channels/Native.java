@@ -28,6 +28,8 @@ import jnr.ffi.annotations.In;
 import jnr.ffi.annotations.Out;
 import jnr.ffi.annotations.Transient;
 import jnr.ffi.annotations.Variadic;
+import jnr.ffi.types.intptr_t;
+import jnr.ffi.types.off_t;
 import jnr.ffi.types.size_t;
 import jnr.ffi.types.ssize_t;
 import jnr.ffi.Platform;
@@ -35,6 +37,7 @@ import jnr.ffi.types.u_int64_t;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public final class Native {
 
@@ -48,10 +51,15 @@ public final class Native {
         public @ssize_t int read(int fd, @Out byte[] data, @size_t long size);
         public @ssize_t int write(int fd, @In ByteBuffer data, @size_t long size);
         public @ssize_t int write(int fd, @In byte[] data, @size_t long size);
+        public @ssize_t int read(int fd, @Out Pointer data, @size_t long size);
+        public @ssize_t int write(int fd, @In Pointer data, @size_t long size);
+        public @ssize_t long readv(int fd, @In Pointer iov, int iovcnt);
+        public @ssize_t long writev(int fd, @In Pointer iov, int iovcnt);
         @Variadic(fixedCount = 2)
         public int fcntl(int fd, int cmd, @u_int64_t int data);
         public int poll(@In @Out ByteBuffer pfds, int nfds, int timeout);
         public int poll(@In @Out Pointer pfds, int nfds, int timeout);
+        public int ppoll(@In @Out Pointer pfds, int nfds, @In @Transient Timespec timeout, @In Pointer sigmask);
         public int kqueue();
         public int kevent(int kq, @In ByteBuffer changebuf, int nchanges,
                           @Out ByteBuffer eventbuf, int nevents,
@@ -60,8 +68,50 @@ public final class Native {
                           @In Pointer changebuf, int nchanges,
                           @Out Pointer eventbuf, int nevents,
                           @In @Transient Timespec timeout);
+        public int eventfd(int initval, int flags);
+        public int epoll_create1(int flags);
+        public int epoll_ctl(int epfd, int op, int fd, @In Pointer event);
+        public int epoll_wait(int epfd, @Out Pointer events, int maxevents, int timeout);
+        public int epoll_pwait2(int epfd, @Out Pointer events, int maxevents, @In @Transient Timespec timeout, @In Pointer sigmask);
+        public int signalfd(int fd, @In Pointer mask, int flags);
+        public int sigprocmask(int how, @In Pointer set, @Out Pointer oldset);
+        public int inotify_init1(int flags);
+        public int inotify_add_watch(int fd, String pathname, int mask);
+        public int inotify_rm_watch(int fd, int wd);
         public int pipe(@Out int[] fds);
+        public int pipe2(@Out int[] fds, int flags);
+        public int sched_setaffinity(int pid, @size_t long cpusetsize, @In long[] mask);
+        public int accept(int fd, @Out Pointer addr, @In @Out Pointer addrlen);
+        // @Variadic keeps this off the jffi fast call path, which mangles six argument calls
+        @Variadic(fixedCount = 6)
+        public @intptr_t long mmap(@intptr_t long addr, @size_t long length, int prot, int flags, int fd, @off_t long offset);
+        public int munmap(@intptr_t long addr, @size_t long length);
+        @Variadic(fixedCount = 1)
+        public int syscall(long number, int arg1, @In @Out Pointer arg2);
+        @Variadic(fixedCount = 1)
+        public int syscall(long number, int arg1, int arg2, int arg3, int arg4, @In Pointer arg5, @size_t long arg6);
         public int shutdown(int s, int how);
+        public @ssize_t long pread(int fd, @Out Pointer buf, @size_t long count, @off_t long offset);
+        public @ssize_t long sendfile(int out_fd, int in_fd, @In @Out long[] offset, @size_t long count);
+        // @Variadic keeps this off the jffi fast call path, which mangles six argument calls
+        @Variadic(fixedCount = 6)
+        public @ssize_t long splice(int fd_in, @In @Out Pointer off_in, int fd_out, @In @Out Pointer off_out, @size_t long len, int flags);
+        public @ssize_t long tee(int fd_in, int fd_out, @size_t long len, int flags);
+        public int socket(int domain, int type, int protocol);
+        public int listen(int fd, int backlog);
+        public int accept4(int fd, @Out Pointer addr, @In @Out Pointer addrlen, int flags);
+        public int bind(int fd, @In Pointer addr, int addrlen);
+        public int connect(int fd, @In Pointer addr, int addrlen);
+        public int getsockname(int fd, @Out Pointer addr, @In @Out Pointer addrlen);
+        public int getpeername(int fd, @Out Pointer addr, @In @Out Pointer addrlen);
+        public int setsockopt(int fd, int level, int optname, @In Pointer optval, int optlen);
+        public int getsockopt(int fd, int level, int optname, @Out Pointer optval, @In @Out Pointer optlen);
+        @Variadic(fixedCount = 6)
+        public @ssize_t long sendto(int fd, @In Pointer buf, @size_t long len, int flags, @In Pointer addr, int addrlen);
+        @Variadic(fixedCount = 6)
+        public @ssize_t long recvfrom(int fd, @Out Pointer buf, @size_t long len, int flags, @Out Pointer addr, @In @Out Pointer addrlen);
+        public int sendmmsg(int fd, @In @Out Pointer msgvec, int vlen, int flags);
+        public int recvmmsg(int fd, @In @Out Pointer msgvec, int vlen, int flags, @In Pointer timeout);
 
         @IgnoreError String strerror(int error);
     }
@@ -100,7 +150,7 @@ public final class Native {
         int rc;
         do {
             rc = libc().close(fd);
-        } while (rc < 0 && Errno.EINTR.equals(getLastError()));
+        } while (rc < 0 && getLastErrno() == EINTR);
 
         if (rc < 0) {
             String message = String.format("Error closing fd %d: %s", fd, getLastErrorString());
@@ -117,11 +167,14 @@ public final class Native {
         if (dst.isReadOnly()) {
             throw new IllegalArgumentException("Read-only buffer");
         }
+        if (!dst.isDirect()) {
+            return readStaged(fd, dst);
+        }
 
         int n;
         do {
             n = libc().read(fd, dst, dst.remaining());
-        } while (n < 0 && Errno.EINTR.equals(getLastError()));
+        } while (n < 0 && getLastErrno() == EINTR);
 
         if (n > 0) {
             dst.position(dst.position() + n);
@@ -134,11 +187,14 @@ public final class Native {
         if (src == null) {
             throw new NullPointerException("Source buffer cannot be null");
         }
+        if (!src.isDirect() && src.hasArray()) {
+            return writeStaged(fd, src);
+        }
 
         int n;
         do {
             n = libc().write(fd, src, src.remaining());
-        } while (n < 0 && Errno.EINTR.equals(getLastError()));
+        } while (n < 0 && getLastErrno() == EINTR);
 
         if (n > 0) {
             src.position(src.position() + n);
@@ -147,6 +203,455 @@ public final class Native {
         return n;
     }
 
+    //
+    // jnr-ffi would allocate and copy a temporary native buffer on every call made with a
+    // heap buffer, so heap buffers are copied through a per-thread native buffer instead.
+    // Reads are capped at its size, writes go out in chunks of it.
+    //
+    static final int STAGING_SIZE = 64 * 1024;
+
+    /**
+     * A thread's staging buffer, with the scratch arrays a vectored transfer needs to describe
+     * its buffers, so neither is allocated per call.
+     */
+    private static final class Staging {
+        final Pointer buffer = Memory.allocateDirect(getRuntime(), STAGING_SIZE);
+        ByteBuffer[] used = new ByteBuffer[0];
+        int[] stagedAt = new int[0];
+        long[] addresses = new long[0];
+        long[] lengths = new long[0];
+
+        /**
+         * Grows the scratch arrays to hold at least {@code count} buffers.
+         */
+        Staging scratch(int count) {
+            if (used.length < count) {
+                int size = Math.max(count, Math.min(used.length * 2, IOV_MAX));
+                used = new ByteBuffer[size];
+                stagedAt = new int[size];
+                addresses = new long[size];
+                lengths = new long[size];
+            }
+            return this;
+        }
+    }
+
+    private static final ThreadLocal<Staging> staging = new ThreadLocal<Staging>() {
+        @Override
+        protected Staging initialValue() {
+            return new Staging();
+        }
+    };
+
+    /**
+     * Returns the calling thread's staging buffer, {@link #STAGING_SIZE} bytes of native memory.
+     */
+    static Pointer stagingBuffer() {
+        return staging.get().buffer;
+    }
+
+    private static int readStaged(int fd, ByteBuffer dst) {
+        Pointer buf = staging.get().buffer;
+        int n;
+        do {
+            n = libc().read(fd, buf, Math.min(dst.remaining(), STAGING_SIZE));
+        } while (n < 0 && getLastErrno() == EINTR);
+
+        if (n > 0) {
+            buf.get(0, dst.array(), dst.arrayOffset() + dst.position(), n);
+            dst.position(dst.position() + n);
+        }
+
+        return n;
+    }
+
+    private static int writeStaged(int fd, ByteBuffer src) {
+        Pointer buf = staging.get().buffer;
+        int total = 0;
+        while (src.hasRemaining()) {
+            int len = Math.min(src.remaining(), STAGING_SIZE);
+            buf.put(0, src.array(), src.arrayOffset() + src.position(), len);
+
+            int n;
+            do {
+                n = libc().write(fd, buf, len);
+            } while (n < 0 && getLastErrno() == EINTR);
+
+            if (n < 0) {
+                return total > 0 ? total : n;
+            }
+            src.position(src.position() + n);
+            total += n;
+            if (n < len) {
+                break;
+            }
+        }
+
+        return total;
+    }
+
+    public static int read(int fd, Pointer dst, long size) throws IOException {
+        int n;
+        do {
+            n = libc().read(fd, dst, size);
+        } while (n < 0 && getLastErrno() == EINTR);
+
+        return n;
+    }
+
+    public static int write(int fd, Pointer src, long size) throws IOException {
+        int n;
+        do {
+            n = libc().write(fd, src, size);
+        } while (n < 0 && getLastErrno() == EINTR);
+
+        return n;
+    }
+
+    /**
+     * Reads into a sequence of buffers with one readv(2) call, advancing each buffer's position.
+     */
+    public static long read(int fd, ByteBuffer[] dsts, int offset, int length) throws IOException {
+        checkBounds(dsts.length, offset, length);
+        for (int i = offset; i < offset + length; i++) {
+            if (dsts[i].isReadOnly()) {
+                throw new IllegalArgumentException("Read-only buffer");
+            }
+        }
+        return transfer(fd, dsts, offset, length, false);
+    }
+
+    /**
+     * Writes a sequence of buffers with one writev(2) call, advancing each buffer's position.
+     */
+    public static long write(int fd, ByteBuffer[] srcs, int offset, int length) throws IOException {
+        checkBounds(srcs.length, offset, length);
+        return transfer(fd, srcs, offset, length, true);
+    }
+
+    /**
+     * Reads into {@code length} native memory regions, given as address and length pairs,
+     * with one readv(2) call.
+     */
+    public static long read(int fd, long[] addresses, long[] lengths, int offset, int length) throws IOException {
+        checkBounds(Math.min(addresses.length, lengths.length), offset, length);
+        return vector(fd, addresses, lengths, offset, length, false);
+    }
+
+    /**
+     * Writes {@code length} native memory regions, given as address and length pairs, with
+     * one writev(2) call.
+     */
+    public static long write(int fd, long[] addresses, long[] lengths, int offset, int length) throws IOException {
+        checkBounds(Math.min(addresses.length, lengths.length), offset, length);
+        return vector(fd, addresses, lengths, offset, length, true);
+    }
+
+    static boolean hasRemaining(ByteBuffer[] bufs, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bufs[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long[] addresses(Pointer[] pointers) {
+        long[] addresses = new long[pointers.length];
+        for (int i = 0; i < pointers.length; i++) {
+            if (!pointers[i].isDirect()) {
+                throw new IllegalArgumentException("Pointer must be direct");
+            }
+            addresses[i] = pointers[i].address();
+        }
+        return addresses;
+    }
+
+    private static void checkBounds(int size, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > size - length) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    // Linux and the BSDs all allow at least this many iovecs per call
+    private static final int IOV_MAX = 1024;
+
+    private static final ThreadLocal<Pointer> iovecs = new ThreadLocal<Pointer>() {
+        @Override
+        protected Pointer initialValue() {
+            return Memory.allocateDirect(getRuntime(), IOV_MAX * 2 * getRuntime().addressSize());
+        }
+    };
+
+    private static long vector(int fd, long[] addresses, long[] lengths, int offset, int length, boolean write) {
+        int count = Math.min(length, IOV_MAX);
+        Pointer iov = iovecs.get();
+        int addressSize = getRuntime().addressSize();
+        for (int i = 0; i < count; i++) {
+            iov.putAddress((i * 2L) * addressSize, addresses[offset + i]);
+            iov.putAddress((i * 2L + 1) * addressSize, lengths[offset + i]);
+        }
+
+        long n;
+        do {
+            n = write ? libc().writev(fd, iov, count) : libc().readv(fd, iov, count);
+        } while (n < 0 && getLastErrno() == EINTR);
+
+        return n;
+    }
+
+    private static long transfer(int fd, ByteBuffer[] bufs, int offset, int length, boolean write) throws IOException {
+        //
+        // Only buffers with space left take part.  Heap buffers are staged through the
+        // per-thread native buffer, and the vector stops at the first one that does not fit
+        // completely so the bytes transferred stay contiguous.
+        //
+        int max = Math.min(length, IOV_MAX);
+        Staging scratch = staging.get().scratch(max);
+        ByteBuffer[] used = scratch.used;
+        int[] stagedAt = scratch.stagedAt;
+        long[] addresses = scratch.addresses;
+        long[] lengths = scratch.lengths;
+        Pointer stage = scratch.buffer;
+        int stageUsed = 0;
+        int count = 0;
+
+        for (int i = offset; i < offset + length && count < max; i++) {
+            ByteBuffer buf = bufs[i];
+            int remaining = buf.remaining();
+            if (remaining == 0) {
+                continue;
+            }
+
+            int len = remaining;
+            if (buf.isDirect()) {
+                stagedAt[count] = -1;
+                addresses[count] = Pointer.wrap(getRuntime(), buf).address() + buf.position();
+            } else {
+                if (stageUsed == STAGING_SIZE) {
+                    break;
+                }
+                len = Math.min(remaining, STAGING_SIZE - stageUsed);
+                if (write) {
+                    if (buf.hasArray()) {
+                        stage.put(stageUsed, buf.array(), buf.arrayOffset() + buf.position(), len);
+                    } else {
+                        byte[] tmp = new byte[len];
+                        buf.duplicate().get(tmp);
+                        stage.put(stageUsed, tmp, 0, len);
+                    }
+                }
+                stagedAt[count] = stageUsed;
+                addresses[count] = stage.address() + stageUsed;
+                stageUsed += len;
+            }
+            used[count] = buf;
+            lengths[count++] = len;
+            if (len < remaining) {
+                break;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long n = vector(fd, addresses, lengths, 0, count, write);
+
+        // Hand out the bytes transferred in order, copying back into staged heap buffers
+        long left = n;
+        for (int j = 0; j < count && left > 0; j++) {
+            ByteBuffer buf = used[j];
+            int chunk = (int) Math.min(left, lengths[j]);
+            if (!write && stagedAt[j] >= 0) {
+                stage.get(stagedAt[j], buf.array(), buf.arrayOffset() + buf.position(), chunk);
+            }
+            buf.position(buf.position() + chunk);
+            left -= chunk;
+        }
+        // Don't keep the caller's buffers reachable from the thread
+        Arrays.fill(used, 0, count, null);
+
+        return n;
+    }
+
+    // linux sendfile(2) transfers at most this much per call
+    private static final long SENDFILE_MAX = 0x7ffff000L;
+    private static final boolean SENDFILE = Platform.getNativePlatform().getOS() == OS.LINUX;
+
+    /**
+     * Transfers up to {@code count} bytes from the file {@code inFd}, starting at
+     * {@code position}, to {@code outFd}.  On linux the data never passes through user space;
+     * elsewhere, or when the kernel cannot sendfile between the two descriptors, it is copied
+     * through the staging buffer.  The file offset of {@code inFd} is not changed.
+     *
+     * Stops early at end of file, or when a non-blocking {@code outFd} cannot take more, so a
+     * selector driven caller resumes by calling again with the position advanced by the result.
+     *
+     * @return the number of bytes transferred, possibly zero
+     */
+    public static long sendfile(int outFd, int inFd, long position, long count) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("Negative position or count");
+        }
+        if (SENDFILE) {
+            long[] offset = { position };
+            long total = 0;
+            while (total < count) {
+                long n = libc().sendfile(outFd, inFd, offset, Math.min(count - total, SENDFILE_MAX));
+                if (n > 0) {
+                    total += n;
+                    continue;
+                }
+                if (n == 0) {
+                    // end of file
+                    return total;
+                }
+
+                int errno = getLastErrno();
+                if (errno == EINTR) {
+                    continue;
+                }
+                if (wouldBlock(errno)) {
+                    return total;
+                }
+                if ((errno == Errno.EINVAL.intValue() || errno == Errno.ENOSYS.intValue()) && total == 0) {
+                    // Not a pair of descriptors sendfile can handle
+                    break;
+                }
+                throw newException("sendfile", errno);
+            }
+            if (total > 0 || count == 0) {
+                return total;
+            }
+        }
+
+        return copyFile(outFd, inFd, position, count);
+    }
+
+    private static long copyFile(int outFd, int inFd, long position, long count) throws IOException {
+        Pointer buf = staging.get().buffer;
+        long total = 0;
+        while (total < count) {
+            long n;
+            do {
+                n = libc().pread(inFd, buf, Math.min(count - total, STAGING_SIZE), position + total);
+            } while (n < 0 && getLastErrno() == EINTR);
+            if (n < 0) {
+                throw newException("pread", getLastErrno());
+            }
+            if (n == 0) {
+                break;
+            }
+
+            int written = write(outFd, buf, n);
+            if (written < 0) {
+                int errno = getLastErrno();
+                if (wouldBlock(errno)) {
+                    break;
+                }
+                throw newException("write", errno);
+            }
+            total += written;
+            if (written < n) {
+                break;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * The JDK fields holding a file channel's descriptor.  On JDK 16 and newer they are only
+     * accessible when the JVM runs with {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}
+     * and {@code --add-opens java.base/java.io=ALL-UNNAMED}; otherwise both are null.
+     */
+    private static final class FileChannelFD {
+        static final java.lang.reflect.Field CHANNEL_FD;
+        static final java.lang.reflect.Field DESCRIPTOR_FD;
+
+        static {
+            java.lang.reflect.Field channelFd = null;
+            java.lang.reflect.Field descriptorFd = null;
+            try {
+                channelFd = Class.forName("sun.nio.ch.FileChannelImpl").getDeclaredField("fd");
+                channelFd.setAccessible(true);
+                descriptorFd = java.io.FileDescriptor.class.getDeclaredField("fd");
+                descriptorFd.setAccessible(true);
+            } catch (Exception ex) {
+                // also catches InaccessibleObjectException on newer JDKs without --add-opens
+                channelFd = descriptorFd = null;
+            }
+            CHANNEL_FD = channelFd;
+            DESCRIPTOR_FD = descriptorFd;
+        }
+    }
+
+    /**
+     * Returns the descriptor behind a JDK {@link java.nio.channels.FileChannel}, or -1 if the
+     * JDK internals are not accessible, see {@link FileChannelFD}.
+     */
+    static int getFD(java.nio.channels.FileChannel channel) {
+        if (FileChannelFD.CHANNEL_FD == null || !FileChannelFD.CHANNEL_FD.getDeclaringClass().isInstance(channel)) {
+            return -1;
+        }
+        try {
+            Object descriptor = FileChannelFD.CHANNEL_FD.get(channel);
+            return descriptor instanceof java.io.FileDescriptor
+                    ? FileChannelFD.DESCRIPTOR_FD.getInt(descriptor) : -1;
+        } catch (IllegalAccessException ex) {
+            return -1;
+        }
+    }
+
+    // SOCK_NONBLOCK and SOCK_CLOEXEC can be or'ed into the socket type and accept4 flags
+    private static final boolean SOCK_FLAGS = Platform.getNativePlatform().getOS() == OS.LINUX
+            || (Platform.getNativePlatform().isBSD() && Platform.getNativePlatform().getOS() != OS.DARWIN);
+    private static final int SOCK_NONBLOCK = jnr.constants.platform.Sock.SOCK_NONBLOCK.intValue();
+    private static final int SOCK_CLOEXEC = jnr.constants.platform.Sock.SOCK_CLOEXEC.intValue();
+    private static final int F_SETFD = jnr.constants.platform.Fcntl.F_SETFD.intValue();
+    private static final int FD_CLOEXEC = 1;
+
+    /**
+     * Creates a close-on-exec socket.
+     */
+    static int socket(int family, int type, boolean nonBlocking) throws IOException {
+        int fd;
+        if (SOCK_FLAGS) {
+            fd = libc().socket(family, type | SOCK_CLOEXEC | (nonBlocking ? SOCK_NONBLOCK : 0), 0);
+        } else {
+            fd = libc().socket(family, type, 0);
+            if (fd >= 0) {
+                libc().fcntl(fd, F_SETFD, FD_CLOEXEC);
+                if (nonBlocking) {
+                    setBlocking(fd, false);
+                }
+            }
+        }
+        if (fd < 0) {
+            throw newException("socket", getLastErrno());
+        }
+        return fd;
+    }
+
+    /**
+     * Accepts a connection as a non-blocking, close-on-exec socket.
+     *
+     * @return the new socket, or -1 with errno set
+     */
+    static int accept(int fd) {
+        int n;
+        if (SOCK_FLAGS) {
+            n = libc().accept4(fd, null, null, SOCK_NONBLOCK | SOCK_CLOEXEC);
+        } else {
+            n = libc().accept(fd, null, null);
+            if (n >= 0) {
+                setBlocking(n, false);
+                libc().fcntl(n, F_SETFD, FD_CLOEXEC);
+            }
+        }
+        return n;
+    }
+
     public static void setBlocking(int fd, boolean block) {
         int flags = libc().fcntl(fd, LibC.F_GETFL, 0);
         if (block) {
@@ -169,6 +674,60 @@ public final class Native {
         return libc().shutdown(fd, how);
     }
 
+    // errno values tested on hot paths, compared as ints so a failed call needs no Errno lookup
+    static final int EINTR = Errno.EINTR.intValue();
+    static final int EAGAIN = Errno.EAGAIN.intValue();
+    static final int EWOULDBLOCK = Errno.EWOULDBLOCK.intValue();
+    private static final int ECONNRESET = Errno.ECONNRESET.intValue();
+    private static final int EPIPE = Errno.EPIPE.intValue();
+
+    /**
+     * Returns the errno of the last native call on this thread.
+     */
+    public static int getLastErrno() {
+        return LastError.getLastError(getRuntime());
+    }
+
+    /**
+     * Tests whether an errno means a non-blocking call had nothing to do.
+     */
+    static boolean wouldBlock(int errno) {
+        return errno == EAGAIN || errno == EWOULDBLOCK;
+    }
+
+    /**
+     * Creates the exception for a failed call, with a subclass for the errors callers commonly
+     * handle.  The strerror text is only looked up if the message is read.
+     */
+    static NativeException newException(String call, int errno) {
+        if (errno == ECONNRESET) {
+            return new ConnectionResetException(errno, call);
+        } else if (errno == EPIPE) {
+            return new BrokenPipeException(errno, call);
+        }
+        return new NativeException(errno, call);
+    }
+
+    /**
+     * Converts a select timeout in nanoseconds to the milliseconds taken by poll(2) and friends,
+     * rounding up so a short wait is not turned into a busy poll.
+     */
+    static int timeoutMillis(long timeoutNanos) {
+        if (timeoutNanos < 0) {
+            return -1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (timeoutNanos + 999999) / 1000000);
+    }
+
+    /**
+     * Fills {@code ts} with a relative timeout in nanoseconds, for ppoll(2) and friends.
+     */
+    static Timespec timespec(Timespec ts, long timeoutNanos) {
+        ts.tv_sec.set(timeoutNanos / 1000000000L);
+        ts.tv_nsec.set(timeoutNanos % 1000000000L);
+        return ts;
+    }
+
     public static String getLastErrorString() {
         return libc().strerror(LastError.getLastError(getRuntime()));
     }
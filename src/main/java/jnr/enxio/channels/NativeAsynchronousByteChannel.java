@@ -0,0 +1,398 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jnr.enxio.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.nio.channels.WritePendingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * An {@link AsynchronousByteChannel} over a native socket or device channel, driven by an
+ * {@link EventLoop}.
+ *
+ * Each read or write is first attempted on the calling thread; only when that would block is
+ * the channel's interest armed on the loop, and the operation finishes once the loop sees it
+ * ready.  Data that is already buffered in the kernel therefore never costs a selector round
+ * trip.
+ *
+ * A completion handler runs on the initiating thread when the first attempt finishes the
+ * operation, and on the loop thread otherwise.  At most one read and one write may be
+ * outstanding at a time.  Closing the channel, or shutting down its loop, fails pending
+ * operations with an {@link AsynchronousCloseException}; cancelling a returned future does not
+ * stop its operation.
+ *
+ * Wrapping a channel switches it to non-blocking mode for good, like registering it with an
+ * {@link EventLoop} does.  Synchronous reads and writes on the wrapped channel then return
+ * without waiting, so once wrapped it should only be used through this adapter.
+ */
+public final class NativeAsynchronousByteChannel implements AsynchronousByteChannel {
+    // Handlers that complete inline nest at most this deep before the loop takes over
+    private static final int MAX_DEPTH = 16;
+    private static final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    private static final CompletionHandler<Integer, CompletableFuture<Integer>> FUTURE =
+            new CompletionHandler<Integer, CompletableFuture<Integer>>() {
+        public void completed(Integer result, CompletableFuture<Integer> future) {
+            future.complete(result);
+        }
+
+        public void failed(Throwable ex, CompletableFuture<Integer> future) {
+            future.completeExceptionally(ex);
+        }
+    };
+    // Result of an attempt that would block
+    private static final int AGAIN = -2;
+
+    private static final class Op {
+        final ByteBuffer buf;
+        final Object attachment;
+        final CompletionHandler<Integer, Object> handler;
+
+        @SuppressWarnings("unchecked")
+        <A> Op(ByteBuffer buf, A attachment, CompletionHandler<Integer, ? super A> handler) {
+            this.buf = buf;
+            this.attachment = attachment;
+            this.handler = (CompletionHandler<Integer, Object>) handler;
+        }
+    }
+
+    private final EventLoop loop;
+    private final SelectableChannel channel;
+    private final int fd;
+    private final CompletableFuture<SelectionKey> registration;
+    private final AtomicReference<Op> pendingRead = new AtomicReference<Op>();
+    private final AtomicReference<Op> pendingWrite = new AtomicReference<Op>();
+    private final Runnable armRead = new Runnable() {
+        public void run() {
+            arm(SelectionKey.OP_READ, pendingRead);
+        }
+    };
+    private final Runnable armWrite = new Runnable() {
+        public void run() {
+            arm(SelectionKey.OP_WRITE, pendingWrite);
+        }
+    };
+
+    /**
+     * Takes over {@code channel}, switching it to non-blocking mode and registering it with
+     * {@code loop}.
+     */
+    private NativeAsynchronousByteChannel(EventLoop loop, SelectableChannel channel, int fd) throws IOException {
+        this.loop = loop;
+        this.channel = channel;
+        this.fd = fd;
+        channel.configureBlocking(false);
+        try {
+            this.registration = loop.register(channel, 0, new EventLoop.Handler() {
+                public void ready(SelectionKey key) {
+                    NativeAsynchronousByteChannel.this.ready(key);
+                }
+
+                public void terminated(SelectionKey key) {
+                    failPending(new AsynchronousCloseException());
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            throw new ShutdownChannelGroupException();
+        }
+        // A registration rejected by a terminating loop drops any arming task queued behind it
+        registration.whenComplete(new BiConsumer<SelectionKey, Throwable>() {
+            public void accept(SelectionKey key, Throwable ex) {
+                if (ex != null) {
+                    failPending(registrationFailure());
+                }
+            }
+        });
+    }
+
+    /**
+     * Wraps a socket channel, registering it with {@code loop}.  The channel is switched to
+     * non-blocking mode and left that way, see the class description.
+     *
+     * @throws ShutdownChannelGroupException if the loop has been shut down
+     */
+    public static NativeAsynchronousByteChannel open(EventLoop loop, NativeSocketChannel channel) throws IOException {
+        return new NativeAsynchronousByteChannel(loop, channel, channel.getFD());
+    }
+
+    /**
+     * Wraps a device channel, registering it with {@code loop}.  The channel is switched to
+     * non-blocking mode and left that way, see the class description.  The device must
+     * support poll(2), so regular files cannot be used.
+     *
+     * @throws ShutdownChannelGroupException if the loop has been shut down
+     */
+    public static NativeAsynchronousByteChannel open(EventLoop loop, NativeDeviceChannel channel) throws IOException {
+        return new NativeAsynchronousByteChannel(loop, channel, channel.getFD());
+    }
+
+    /**
+     * Returns the wrapped channel.  It must not be read, written or registered elsewhere.
+     */
+    public SelectableChannel channel() {
+        return channel;
+    }
+
+    public EventLoop loop() {
+        return loop;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            failPending(new AsynchronousCloseException());
+        }
+    }
+
+    public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        Op op = new Op(dst, attachment, handler);
+        if (!pendingRead.compareAndSet(null, op)) {
+            throw new ReadPendingException();
+        }
+        start(SelectionKey.OP_READ, op, pendingRead, armRead);
+    }
+
+    public CompletableFuture<Integer> read(ByteBuffer dst) {
+        CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        read(dst, future, FUTURE);
+        return future;
+    }
+
+    public <A> void write(ByteBuffer src, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        Op op = new Op(src, attachment, handler);
+        if (!pendingWrite.compareAndSet(null, op)) {
+            throw new WritePendingException();
+        }
+        start(SelectionKey.OP_WRITE, op, pendingWrite, armWrite);
+    }
+
+    public CompletableFuture<Integer> write(ByteBuffer src) {
+        CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        write(src, future, FUTURE);
+        return future;
+    }
+
+    private void start(int kind, Op op, AtomicReference<Op> pending, Runnable arm) {
+        if (!channel.isOpen()) {
+            if (pending.compareAndSet(op, null)) {
+                failed(op, new ClosedChannelException());
+            }
+            return;
+        }
+        if (!op.buf.hasRemaining()) {
+            if (pending.compareAndSet(op, null)) {
+                completed(op, 0);
+            }
+            return;
+        }
+
+        int n;
+        try {
+            n = attempt(kind, op.buf);
+        } catch (IOException ex) {
+            if (pending.compareAndSet(op, null)) {
+                failed(op, ex);
+            }
+            return;
+        }
+        if (n != AGAIN) {
+            if (pending.compareAndSet(op, null)) {
+                completed(op, n);
+            }
+            return;
+        }
+
+        if (loop.inEventLoop() && registration.isDone()) {
+            arm.run();
+            return;
+        }
+        try {
+            loop.execute(arm);
+        } catch (RejectedExecutionException ex) {
+            if (pending.compareAndSet(op, null)) {
+                failed(op, new ShutdownChannelGroupException());
+            }
+        }
+    }
+
+    /**
+     * Runs on the loop thread, which applies the registration before any arming task.
+     */
+    private void arm(int kind, AtomicReference<Op> pending) {
+        SelectionKey key = registration.isCompletedExceptionally() ? null : registration.getNow(null);
+        if (key == null || !key.isValid()) {
+            Op op = pending.getAndSet(null);
+            if (op != null) {
+                failed(op, channel.isOpen() ? registrationFailure() : new AsynchronousCloseException());
+            }
+            return;
+        }
+        if (pending.get() != null && (key.interestOps() & kind) == 0) {
+            key.interestOps(key.interestOps() | kind);
+        }
+    }
+
+    private Throwable registrationFailure() {
+        try {
+            registration.join();
+            return new ClosedChannelException();
+        } catch (RuntimeException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            return cause instanceof RejectedExecutionException ? new ShutdownChannelGroupException() : cause;
+        }
+    }
+
+    private void ready(SelectionKey key) {
+        int ready = key.readyOps();
+        if ((ready & SelectionKey.OP_READ) != 0) {
+            resume(key, SelectionKey.OP_READ, pendingRead);
+        }
+        if ((ready & SelectionKey.OP_WRITE) != 0 && key.isValid()) {
+            resume(key, SelectionKey.OP_WRITE, pendingWrite);
+        }
+    }
+
+    private void resume(SelectionKey key, int kind, AtomicReference<Op> pending) {
+        Op op = pending.get();
+        int n = 0;
+        IOException error = null;
+        if (op != null) {
+            try {
+                n = attempt(kind, op.buf);
+            } catch (IOException ex) {
+                error = ex;
+            }
+            if (n == AGAIN && error == null) {
+                return;
+            }
+        }
+
+        // Disarm before the handler runs, it may start the next operation
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~kind);
+        }
+        if (op != null && pending.compareAndSet(op, null)) {
+            if (error != null) {
+                failed(op, error);
+            } else {
+                completed(op, n);
+            }
+        }
+    }
+
+    private int attempt(int kind, ByteBuffer buf) throws IOException {
+        int n = kind == SelectionKey.OP_READ ? Native.read(fd, buf) : Native.write(fd, buf);
+        if (n < 0) {
+            int errno = Native.getLastErrno();
+            if (Native.wouldBlock(errno)) {
+                return AGAIN;
+            }
+            throw Native.newException(kind == SelectionKey.OP_READ ? "read" : "write", errno);
+        }
+
+        return kind == SelectionKey.OP_READ && n == 0 ? -1 : n;
+    }
+
+    private void completed(final Op op, final int result) {
+        int[] level = depth.get();
+        if (level[0] >= MAX_DEPTH && dispatch(op, result)) {
+            return;
+        }
+        ++level[0];
+        try {
+            op.handler.completed(result, op.attachment);
+        } catch (RuntimeException ex) {
+            report(ex);
+        } finally {
+            --level[0];
+        }
+    }
+
+    private void failed(Op op, Throwable error) {
+        try {
+            op.handler.failed(error, op.attachment);
+        } catch (RuntimeException ex) {
+            report(ex);
+        }
+    }
+
+    private void failPending(Throwable error) {
+        Op op = pendingRead.getAndSet(null);
+        if (op != null) {
+            failed(op, error);
+        }
+        op = pendingWrite.getAndSet(null);
+        if (op != null) {
+            failed(op, error);
+        }
+    }
+
+    /**
+     * Hands a completion to the loop, so a handler that keeps completing inline does not
+     * overflow the stack.
+     *
+     * @return false if the loop has shut down and the caller must complete the operation itself
+     */
+    private boolean dispatch(final Op op, final int result) {
+        try {
+            loop.execute(new Runnable() {
+                public void run() {
+                    op.handler.completed(result, op.attachment);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    private static void report(RuntimeException ex) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A completion based I/O engine for native channels.
+ *
+ * Operations are queued with {@link #read}, {@link #write}, {@link #accept} and friends, handed
+ * to the kernel in one batch by {@link #submit()}, and their results are delivered to a
+ * {@link CompletionHandler} from {@link #complete(CompletionHandler, long)}.
+ *
+ * On linux kernels that support it this is backed by io_uring, so many operations cost one
+ * system call and completions are read straight out of shared memory.  Everywhere else the
+ * same contract is implemented on top of a {@link NativeSelectorProvider} selector.
+ *
+ * Completion results follow the kernel convention: a non-negative value is the number of
+ * bytes transferred (zero meaning end of stream) or the accepted file descriptor, and a
+ * negative value is a negated errno.  Buffers must be direct, and must not be touched until
+ * their operation completes; the buffer position is advanced before the handler runs.
+ *
+ * An engine is not thread safe and should be driven by a single thread.
+ */
+public abstract class NativeCompletionEngine implements Closeable {
+    /**
+     * System property that can be set to {@code false} to never use io_uring.
+     */
+    public static final String IO_URING_PROPERTY = "jnr.enxio.io_uring";
+
+    /** Completion flag set when the data was placed in a provided buffer, see {@link #bufferId(int)} */
+    public static final int F_BUFFER = IoUring.IORING_CQE_F_BUFFER;
+
+    /** Completion flag set when a multishot operation is still armed and will complete again */
+    public static final int F_MORE = IoUring.IORING_CQE_F_MORE;
+
+    private static final int DEFAULT_ENTRIES = 256;
+
+    static final int OP_READ = 1;
+    static final int OP_WRITE = 2;
+    static final int OP_ACCEPT = 3;
+    static final int OP_ACCEPT_MULTISHOT = 4;
+    static final int OP_RECV_MULTISHOT = 5;
+
+    /**
+     * Receives the results of completed operations.
+     */
+    public interface CompletionHandler {
+        /**
+         * Called once for each completed operation, or once per result of a multishot operation.
+         *
+         * @param userData the value the operation was queued with
+         * @param result the number of bytes transferred, an accepted fd, or a negated errno
+         * @param flags a combination of {@link #F_BUFFER} and {@link #F_MORE}
+         */
+        void completed(long userData, int result, int flags);
+    }
+
+    // In-flight operations, indexed by slot
+    private int[] kinds = new int[16];
+    private int[] generations = new int[16];
+    private int[] states = new int[16];
+    private long[] userData = new long[16];
+    private ByteBuffer[] buffers = new ByteBuffer[16];
+    private NativeSelectableChannel[] channels = new NativeSelectableChannel[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    private ByteBuffer bufferPool;
+    private int bufferSize;
+
+    /**
+     * Opens a new engine, using io_uring when it is available.
+     */
+    public static NativeCompletionEngine open() throws IOException {
+        return open(DEFAULT_ENTRIES);
+    }
+
+    /**
+     * Opens a new engine, using io_uring when it is available.
+     *
+     * @param entries a hint of how many operations will be queued between calls to {@link #submit()}
+     */
+    public static NativeCompletionEngine open(int entries) throws IOException {
+        if (isIoUringAvailable()) {
+            return new IoUringCompletionEngine(entries);
+        }
+        return new SelectorCompletionEngine(NativeSelectorProvider.getInstance().openSelector());
+    }
+
+    /**
+     * Tests whether {@link #open()} will return an io_uring backed engine.
+     */
+    public static boolean isIoUringAvailable() {
+        return !"false".equals(System.getProperty(IO_URING_PROPERTY)) && IoUring.isSupported();
+    }
+
+    /**
+     * Returns the provided buffer id carried in the flags of a {@link #F_BUFFER} completion.
+     */
+    public static int bufferId(int flags) {
+        return flags >>> 16;
+    }
+
+    /**
+     * Queues a read of up to {@code dst.remaining()} bytes.
+     *
+     * @return an operation id that can be passed to {@link #cancel(long)}
+     */
+    public final long read(NativeSelectableChannel ch, ByteBuffer dst, long userData) throws IOException {
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        return queue(OP_READ, ch, checkDirect(dst), userData);
+    }
+
+    /**
+     * Queues a write of up to {@code src.remaining()} bytes.
+     *
+     * @return an operation id that can be passed to {@link #cancel(long)}
+     */
+    public final long write(NativeSelectableChannel ch, ByteBuffer src, long userData) throws IOException {
+        return queue(OP_WRITE, ch, checkDirect(src), userData);
+    }
+
+    /**
+     * Queues the acceptance of one connection.  The accepted fd is non-blocking and close-on-exec.
+     *
+     * @return an operation id that can be passed to {@link #cancel(long)}
+     */
+    public final long accept(NativeSelectableChannel ch, long userData) throws IOException {
+        return queue(OP_ACCEPT, ch, null, userData);
+    }
+
+    /**
+     * Queues a multishot accept, which completes with {@link #F_MORE} once per accepted
+     * connection until it fails or is cancelled.
+     *
+     * @return an operation id that can be passed to {@link #cancel(long)}
+     */
+    public final long acceptMultishot(NativeSelectableChannel ch, long userData) throws IOException {
+        return queue(OP_ACCEPT_MULTISHOT, ch, null, userData);
+    }
+
+    /**
+     * Queues a multishot receive, which completes with {@link #F_MORE} each time data arrives
+     * until end of stream, an error, or cancellation.  Data is placed in one of the buffers
+     * registered with {@link #provideBuffers(ByteBuffer, int)}; each completion carries
+     * {@link #F_BUFFER} and the buffer id, and the buffer must be handed back with
+     * {@link #releaseBuffer(int)} once consumed.  Running out of buffers ends the receive
+     * with {@code -ENOBUFS}.
+     *
+     * @return an operation id that can be passed to {@link #cancel(long)}
+     */
+    public final long recvMultishot(NativeSelectableChannel ch, long userData) throws IOException {
+        if (bufferPool == null) {
+            throw new IllegalStateException("No buffers provided");
+        }
+        return queue(OP_RECV_MULTISHOT, ch, null, userData);
+    }
+
+    /**
+     * Registers a pool of buffers for {@link #recvMultishot}.  The pool is split into
+     * {@code pool.capacity() / bufferSize} buffers, numbered from zero.
+     */
+    public final void provideBuffers(ByteBuffer pool, int bufferSize) throws IOException {
+        if (bufferPool != null) {
+            throw new IllegalStateException("Buffers already provided");
+        }
+        if (bufferSize <= 0 || bufferSize > pool.capacity()) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        this.bufferPool = checkDirect(pool);
+        this.bufferSize = bufferSize;
+        provide(0, pool.capacity() / bufferSize);
+    }
+
+    /**
+     * Returns a view of the provided buffer with the given id.
+     */
+    public final ByteBuffer buffer(int bufferId) {
+        ByteBuffer view = bufferPool.duplicate();
+        view.limit((bufferId * bufferSize) + bufferSize).position(bufferId * bufferSize);
+        return view.slice();
+    }
+
+    /**
+     * Hands a provided buffer back to the engine once its data has been consumed.
+     */
+    public final void releaseBuffer(int bufferId) throws IOException {
+        if (bufferPool == null || bufferId < 0 || bufferId >= bufferPool.capacity() / bufferSize) {
+            throw new IllegalArgumentException("Invalid buffer id " + bufferId);
+        }
+        provide(bufferId, 1);
+    }
+
+    /**
+     * Requests the cancellation of an operation.  A cancelled operation still completes,
+     * normally with {@code -ECANCELED}.
+     */
+    public abstract void cancel(long op) throws IOException;
+
+    /**
+     * Hands all queued operations to the kernel.
+     *
+     * @return the number of operations submitted
+     */
+    public abstract int submit() throws IOException;
+
+    /**
+     * Submits queued operations, waits for completions and dispatches them to {@code handler}.
+     *
+     * @param timeout the maximum time to wait in milliseconds, zero to not wait at all, or a
+     *                negative value to wait until an operation completes
+     * @return the number of completions dispatched
+     */
+    public abstract int complete(CompletionHandler handler, long timeout) throws IOException;
+
+    abstract void provide(int firstBufferId, int count) throws IOException;
+
+    abstract void queued(int slot) throws IOException;
+
+    private static ByteBuffer checkDirect(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer must be direct");
+        }
+        return buffer;
+    }
+
+    private long queue(int kind, NativeSelectableChannel ch, ByteBuffer buffer, long data) throws IOException {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == kinds.length) {
+                int length = kinds.length * 2;
+                kinds = Arrays.copyOf(kinds, length);
+                generations = Arrays.copyOf(generations, length);
+                states = Arrays.copyOf(states, length);
+                userData = Arrays.copyOf(userData, length);
+                buffers = Arrays.copyOf(buffers, length);
+                channels = Arrays.copyOf(channels, length);
+                freeSlots = Arrays.copyOf(freeSlots, length);
+            }
+            slot = slotCount++;
+        }
+        kinds[slot] = kind;
+        states[slot] = 0;
+        userData[slot] = data;
+        buffers[slot] = buffer;
+        channels[slot] = ch;
+        queued(slot);
+        return id(slot);
+    }
+
+    /**
+     * Returns the operation id for a slot, the generation protects against stale ids.
+     */
+    final long id(int slot) {
+        return ((long) generations[slot] << 32) | slot;
+    }
+
+    /**
+     * Returns the slot of a live operation, or -1 if the id is stale.
+     */
+    final int slot(long id) {
+        int slot = (int) id;
+        if (slot < 0 || slot >= slotCount || kinds[slot] == 0 || generations[slot] != (int) (id >>> 32)) {
+            return -1;
+        }
+        return slot;
+    }
+
+    final int kind(int slot) {
+        return kinds[slot];
+    }
+
+    final ByteBuffer slotBuffer(int slot) {
+        return buffers[slot];
+    }
+
+    /**
+     * Per slot scratch space for the engine implementation, zeroed when an operation is queued.
+     */
+    final int state(int slot) {
+        return states[slot];
+    }
+
+    final void state(int slot, int state) {
+        states[slot] = state;
+    }
+
+    final NativeSelectableChannel channel(int slot) {
+        return channels[slot];
+    }
+
+    final long bufferAddress(int bufferId) {
+        return jnr.ffi.Pointer.wrap(Native.getRuntime(), bufferPool).address() + ((long) bufferId * bufferSize);
+    }
+
+    final int bufferSize() {
+        return bufferSize;
+    }
+
+    final int bufferCount() {
+        return bufferPool != null ? bufferPool.capacity() / bufferSize : 0;
+    }
+
+    /**
+     * Delivers a result for the operation in {@code slot}, releasing the slot unless more
+     * results will follow.
+     */
+    final void dispatch(CompletionHandler handler, int slot, int result, int flags) {
+        long data = userData[slot];
+        ByteBuffer buffer = buffers[slot];
+        if (buffer != null && result > 0) {
+            buffer.position(buffer.position() + result);
+        }
+        if ((flags & F_MORE) == 0) {
+            kinds[slot] = 0;
+            buffers[slot] = null;
+            channels[slot] = null;
+            ++generations[slot];
+            freeSlots[freeCount++] = slot;
+        }
+        handler.completed(data, result, flags);
+    }
+
+    static long address(ByteBuffer buffer) {
+        return jnr.ffi.Pointer.wrap(Native.getRuntime(), buffer).address() + buffer.position();
+    }
+}
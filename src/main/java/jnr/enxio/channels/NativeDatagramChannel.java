@@ -0,0 +1,783 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Errno;
+import jnr.constants.platform.IP;
+import jnr.constants.platform.IPProto;
+import jnr.constants.platform.Shutdown;
+import jnr.constants.platform.Sock;
+import jnr.constants.platform.SocketLevel;
+import jnr.constants.platform.SocketMessage;
+import jnr.constants.platform.SocketOption;
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link DatagramChannel} on a native UDP socket.
+ *
+ * Besides the standard API it can receive and send a batch of datagrams in one call, see
+ * {@link #receive(ByteBuffer[], SocketAddress[])} and {@link #send(ByteBuffer[], SocketAddress[])}.
+ * On linux a batch costs a single recvmmsg(2) or sendmmsg(2) system call; elsewhere the
+ * datagrams are transferred one at a time.
+ *
+ * Multicast and the {@link DatagramSocket} adaptor are not supported.
+ */
+public class NativeDatagramChannel extends DatagramChannel implements NativeSelectableChannel {
+    /** The most datagrams transferred by one batch call */
+    public static final int MAX_BATCH = 1024;
+
+    private static final boolean MMSG = Platform.getNativePlatform().getOS() == Platform.OS.LINUX;
+    // linux recvmmsg(2) flag: block for the first datagram only
+    private static final int MSG_WAITFORONE = 0x10000;
+    private static final int MSG_DONTWAIT = SocketMessage.MSG_DONTWAIT.intValue();
+    private static final int SHUT_RDWR = Shutdown.SHUT_RDWR.intValue();
+
+    private static final Set<java.net.SocketOption<?>> OPTIONS = Collections.unmodifiableSet(
+            new HashSet<java.net.SocketOption<?>>(Arrays.<java.net.SocketOption<?>>asList(
+                    StandardSocketOptions.SO_SNDBUF, StandardSocketOptions.SO_RCVBUF,
+                    StandardSocketOptions.SO_REUSEADDR, StandardSocketOptions.SO_BROADCAST,
+                    StandardSocketOptions.IP_TOS)));
+
+    private final int fd;
+    private final int family;
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+    private final Object stateLock = new Object();
+    private volatile InetSocketAddress remoteAddress;
+    // Threads inside a system call that may block, which close has to wake
+    private final AtomicInteger blockedThreads = new AtomicInteger();
+
+    // Native scratch space, the receive side guarded by readLock and the send side by writeLock
+    private final Pointer recvAddress = Memory.allocateDirect(Native.getRuntime(), SockAddr.STORAGE_SIZE);
+    private final Pointer recvAddressLength = Memory.allocateDirect(Native.getRuntime(), 4);
+    private final Pointer sendAddress = Memory.allocateDirect(Native.getRuntime(), SockAddr.STORAGE_SIZE);
+    private Batch recvBatch;
+    private Batch sendBatch;
+
+    /**
+     * Wraps an existing datagram socket.
+     */
+    public NativeDatagramChannel(int fd) {
+        this(NativeSelectorProvider.getInstance(), fd);
+    }
+
+    public NativeDatagramChannel(SelectorProvider provider, int fd) {
+        super(provider);
+        this.fd = fd;
+        this.family = SockAddr.family(fd);
+    }
+
+    /**
+     * Opens an unbound datagram socket of the given family.
+     */
+    static NativeDatagramChannel open(SelectorProvider provider, ProtocolFamily family) throws IOException {
+        int fd = Native.socket(SockAddr.af(family), Sock.SOCK_DGRAM.intValue(), false);
+        return new NativeDatagramChannel(provider, fd);
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() throws IOException {
+        // Closing the fd does not wake a thread blocked on it, shutting the socket down does
+        if (blockedThreads.get() > 0) {
+            Native.shutdown(fd, SHUT_RDWR);
+        }
+        Native.close(fd);
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        Native.setBlocking(fd, block);
+    }
+
+    public final int getFD() {
+        return fd;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static NativeException error(String call) {
+        return Native.newException(call, Native.getLastErrno());
+    }
+
+    private static boolean wouldBlock() {
+        return Native.wouldBlock(Native.getLastErrno());
+    }
+
+    /**
+     * Brackets a system call that may block on the fd, so an interrupt or an asynchronous
+     * close ends it.
+     *
+     * @return true if the call may block and {@link #leaveBlocking} must follow it
+     */
+    private boolean enterBlocking() {
+        if (!isBlocking()) {
+            return false;
+        }
+        blockedThreads.incrementAndGet();
+        begin();
+        return true;
+    }
+
+    private void leaveBlocking(boolean blocking, boolean completed) throws IOException {
+        if (blocking) {
+            blockedThreads.decrementAndGet();
+            // Throws if the channel was closed or the thread interrupted meanwhile
+            end(completed && isOpen());
+        }
+    }
+
+    @Override
+    public DatagramChannel bind(SocketAddress local) throws IOException {
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                synchronized (stateLock) {
+                    ensureOpen();
+                    InetSocketAddress address = local != null ? SockAddr.check(local) : new InetSocketAddress(0);
+                    int len = SockAddr.put(sendAddress, 0, family, address);
+                    if (Native.libc().bind(fd, sendAddress, len) < 0) {
+                        throw error("bind");
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() throws IOException {
+        synchronized (stateLock) {
+            ensureOpen();
+            return SockAddr.localAddress(fd);
+        }
+    }
+
+    @Override
+    public <T> DatagramChannel setOption(java.net.SocketOption<T> name, T value) throws IOException {
+        if (!OPTIONS.contains(name)) {
+            throw new UnsupportedOperationException("'" + name + "' not supported");
+        }
+        int intValue = value instanceof Boolean ? (((Boolean) value) ? 1 : 0) : (Integer) value;
+        synchronized (stateLock) {
+            ensureOpen();
+            Pointer val = Memory.allocateDirect(Native.getRuntime(), 4);
+            val.putInt(0, intValue);
+            if (Native.libc().setsockopt(fd, level(name), optname(name), val, 4) < 0) {
+                throw error("setsockopt");
+            }
+        }
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getOption(java.net.SocketOption<T> name) throws IOException {
+        if (!OPTIONS.contains(name)) {
+            throw new UnsupportedOperationException("'" + name + "' not supported");
+        }
+        synchronized (stateLock) {
+            ensureOpen();
+            Pointer val = Memory.allocateDirect(Native.getRuntime(), 4);
+            Pointer length = Memory.allocateDirect(Native.getRuntime(), 4);
+            length.putInt(0, 4);
+            if (Native.libc().getsockopt(fd, level(name), optname(name), val, length) < 0) {
+                throw error("getsockopt");
+            }
+            int value = val.getInt(0);
+            return name.type() == Boolean.class ? (T) Boolean.valueOf(value != 0) : (T) Integer.valueOf(value);
+        }
+    }
+
+    private int level(java.net.SocketOption<?> name) {
+        if (name == StandardSocketOptions.IP_TOS) {
+            return family == SockAddr.AF_INET6 ? IPProto.IPPROTO_IPV6.intValue() : IPProto.IPPROTO_IP.intValue();
+        }
+        return SocketLevel.SOL_SOCKET.intValue();
+    }
+
+    private int optname(java.net.SocketOption<?> name) {
+        if (name == StandardSocketOptions.SO_SNDBUF) {
+            return SocketOption.SO_SNDBUF.intValue();
+        } else if (name == StandardSocketOptions.SO_RCVBUF) {
+            return SocketOption.SO_RCVBUF.intValue();
+        } else if (name == StandardSocketOptions.SO_REUSEADDR) {
+            return SocketOption.SO_REUSEADDR.intValue();
+        } else if (name == StandardSocketOptions.SO_BROADCAST) {
+            return SocketOption.SO_BROADCAST.intValue();
+        }
+        // IPV6_TCLASS is not in jnr-constants, it is 67 on linux
+        return family == SockAddr.AF_INET6 && Platform.getNativePlatform().getOS() == Platform.OS.LINUX
+                ? 67 : IP.IP_TOS.intValue();
+    }
+
+    @Override
+    public Set<java.net.SocketOption<?>> supportedOptions() {
+        return OPTIONS;
+    }
+
+    @Override
+    public DatagramSocket socket() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public MembershipKey join(InetAddress group, NetworkInterface interf) throws IOException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public MembershipKey join(InetAddress group, NetworkInterface interf, InetAddress source) throws IOException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean isConnected() {
+        return remoteAddress != null;
+    }
+
+    @Override
+    public DatagramChannel connect(SocketAddress remote) throws IOException {
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                synchronized (stateLock) {
+                    ensureOpen();
+                    InetSocketAddress address = SockAddr.check(remote);
+                    int len = SockAddr.put(sendAddress, 0, family, address);
+                    if (Native.libc().connect(fd, sendAddress, len) < 0) {
+                        throw error("connect");
+                    }
+                    remoteAddress = address;
+                }
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public DatagramChannel disconnect() throws IOException {
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                synchronized (stateLock) {
+                    if (!isConnected() || !isOpen()) {
+                        return this;
+                    }
+                    int len = SockAddr.putUnspec(sendAddress, 0);
+                    // Some systems report EAFNOSUPPORT even though the association is gone
+                    if (Native.libc().connect(fd, sendAddress, len) < 0 && Native.getLastError() != Errno.EAFNOSUPPORT) {
+                        throw error("connect");
+                    }
+                    remoteAddress = null;
+                }
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() throws IOException {
+        ensureOpen();
+        return remoteAddress;
+    }
+
+    private void ensureConnected() throws IOException {
+        ensureOpen();
+        if (remoteAddress == null) {
+            throw new NotYetConnectedException();
+        }
+    }
+
+    @Override
+    public SocketAddress receive(ByteBuffer dst) throws IOException {
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        synchronized (readLock) {
+            ensureOpen();
+            SocketAddress address = null;
+            boolean blocking = enterBlocking();
+            try {
+                address = receive(dst, 0);
+            } finally {
+                leaveBlocking(blocking, address != null);
+            }
+            return address;
+        }
+    }
+
+    private SocketAddress receive(ByteBuffer dst, int flags) throws IOException {
+        boolean staged = !dst.isDirect();
+        Pointer buf = staged ? Native.stagingBuffer() : Pointer.wrap(Native.getRuntime(), dst);
+        long off = staged ? 0 : dst.position();
+        int len = staged ? Math.min(dst.remaining(), Native.STAGING_SIZE) : dst.remaining();
+
+        recvAddressLength.putInt(0, SockAddr.STORAGE_SIZE);
+        long n;
+        do {
+            n = Native.libc().recvfrom(fd, buf.slice(off), len, flags, recvAddress, recvAddressLength);
+        } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+
+        if (n < 0) {
+            if (wouldBlock()) {
+                return null;
+            }
+            throw error("recvfrom");
+        }
+
+        advance(dst, buf, 0, (int) n, staged);
+        return SockAddr.get(recvAddress, 0);
+    }
+
+    @Override
+    public int send(ByteBuffer src, SocketAddress target) throws IOException {
+        InetSocketAddress address = SockAddr.check(target);
+        synchronized (writeLock) {
+            ensureOpen();
+            InetSocketAddress remote = remoteAddress;
+            if (remote != null && !remote.equals(address)) {
+                throw new IllegalArgumentException("Connected address not equal to target address");
+            }
+
+            boolean staged = !src.isDirect();
+            int len = staged ? Math.min(src.remaining(), Native.STAGING_SIZE) : src.remaining();
+            Pointer buf = staged ? stage(src, len) : Pointer.wrap(Native.getRuntime(), src).slice(src.position());
+
+            int addrlen = SockAddr.put(sendAddress, 0, family, address);
+            long n = -1;
+            boolean blocking = enterBlocking();
+            try {
+                do {
+                    n = Native.libc().sendto(fd, buf, len, 0, sendAddress, addrlen);
+                } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+            } finally {
+                leaveBlocking(blocking, n >= 0);
+            }
+
+            if (n < 0) {
+                if (wouldBlock()) {
+                    return 0;
+                }
+                throw error("sendto");
+            }
+            src.position(src.position() + (int) n);
+            return (int) n;
+        }
+    }
+
+    private static Pointer stage(ByteBuffer src, int len) {
+        Pointer buf = Native.stagingBuffer();
+        put(buf, 0, src, len);
+        return buf;
+    }
+
+    private static void put(Pointer buf, long off, ByteBuffer src, int len) {
+        if (src.hasArray()) {
+            buf.put(off, src.array(), src.arrayOffset() + src.position(), len);
+        } else {
+            byte[] bytes = new byte[len];
+            src.duplicate().get(bytes);
+            buf.put(off, bytes, 0, len);
+        }
+    }
+
+    private static void advance(ByteBuffer dst, Pointer buf, long off, int n, boolean staged) {
+        int count = Math.min(n, dst.remaining());
+        if (staged) {
+            buf.get(off, dst.array(), dst.arrayOffset() + dst.position(), count);
+        }
+        dst.position(dst.position() + count);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        synchronized (readLock) {
+            ensureConnected();
+            int n = -1;
+            boolean blocking = enterBlocking();
+            try {
+                n = Native.read(fd, dst);
+            } finally {
+                leaveBlocking(blocking, n >= 0);
+            }
+            if (n < 0) {
+                if (wouldBlock()) {
+                    return 0;
+                }
+                throw error("read");
+            }
+            return n;
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        synchronized (readLock) {
+            ensureConnected();
+            long n = -1;
+            boolean blocking = enterBlocking();
+            try {
+                n = Native.read(fd, dsts, offset, length);
+            } finally {
+                leaveBlocking(blocking, n >= 0);
+            }
+            if (n < 0) {
+                if (wouldBlock()) {
+                    return 0;
+                }
+                throw error("readv");
+            }
+            return n;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        synchronized (writeLock) {
+            ensureConnected();
+            int n = -1;
+            boolean blocking = enterBlocking();
+            try {
+                n = Native.write(fd, src);
+            } finally {
+                leaveBlocking(blocking, n >= 0);
+            }
+            if (n < 0) {
+                if (wouldBlock()) {
+                    return 0;
+                }
+                throw error("write");
+            }
+            return n;
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        synchronized (writeLock) {
+            ensureConnected();
+            long n = -1;
+            boolean blocking = enterBlocking();
+            try {
+                n = Native.write(fd, srcs, offset, length);
+            } finally {
+                leaveBlocking(blocking, n >= 0);
+            }
+            if (n < 0) {
+                if (wouldBlock()) {
+                    return 0;
+                }
+                throw error("writev");
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Receives up to {@code dsts.length} datagrams, one into each buffer, with a single system
+     * call where the platform allows.  In blocking mode this waits for the first datagram only.
+     * Each buffer's position is advanced by the length of its datagram; a datagram longer than
+     * its buffer is truncated.
+     *
+     * @param from if not null, receives the source address of each datagram
+     * @return the number of datagrams received, zero if none were available in non-blocking mode
+     */
+    public int receive(ByteBuffer[] dsts, SocketAddress[] from) throws IOException {
+        if (from != null && from.length < dsts.length) {
+            throw new IllegalArgumentException("Address array too short");
+        }
+        for (ByteBuffer dst : dsts) {
+            if (dst.isReadOnly()) {
+                throw new IllegalArgumentException("Read-only buffer");
+            }
+        }
+        synchronized (readLock) {
+            ensureOpen();
+            int received = -1;
+            boolean blocking = enterBlocking();
+            try {
+                received = MMSG ? receiveBatch(dsts, from) : receiveEach(dsts, from);
+            } finally {
+                leaveBlocking(blocking, received >= 0);
+            }
+            return received;
+        }
+    }
+
+    private int receiveBatch(ByteBuffer[] dsts, SocketAddress[] from) throws IOException {
+        if (recvBatch == null) {
+            recvBatch = new Batch();
+        }
+        Batch batch = recvBatch;
+        int count = batch.prepare(dsts, false);
+        if (count == 0) {
+            return 0;
+        }
+
+        int n;
+        do {
+            n = Native.libc().recvmmsg(fd, batch.msgvec, count, MSG_WAITFORONE, null);
+        } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+
+        if (n < 0) {
+            if (wouldBlock()) {
+                return 0;
+            }
+            throw error("recvmmsg");
+        }
+
+        for (int i = 0; i < n; i++) {
+            advance(dsts[i], batch.buffer(i), batch.offset(i), batch.length(i), batch.staged(i));
+            if (from != null) {
+                from[i] = SockAddr.get(batch.addresses, (long) i * SockAddr.STORAGE_SIZE);
+            }
+        }
+        return n;
+    }
+
+    private int receiveEach(ByteBuffer[] dsts, SocketAddress[] from) throws IOException {
+        int count = Math.min(dsts.length, MAX_BATCH);
+        for (int i = 0; i < count; i++) {
+            // Only the first datagram may block
+            SocketAddress address = receive(dsts[i], i == 0 ? 0 : MSG_DONTWAIT);
+            if (address == null) {
+                return i;
+            }
+            if (from != null) {
+                from[i] = address;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sends up to {@code srcs.length} datagrams with a single system call where the platform
+     * allows.  Each buffer's position is advanced past the bytes sent.
+     *
+     * @param to the destination of each datagram, or null to send every datagram to the
+     *           connected address
+     * @return the number of datagrams sent, zero if none could be sent in non-blocking mode
+     */
+    public int send(ByteBuffer[] srcs, SocketAddress[] to) throws IOException {
+        if (to != null && to.length < srcs.length) {
+            throw new IllegalArgumentException("Address array too short");
+        }
+        synchronized (writeLock) {
+            ensureOpen();
+            InetSocketAddress remote = remoteAddress;
+            if (to == null && remote == null) {
+                throw new NotYetConnectedException();
+            }
+            if (!MMSG) {
+                return sendEach(srcs, to);
+            }
+
+            if (sendBatch == null) {
+                sendBatch = new Batch();
+            }
+            Batch batch = sendBatch;
+            int count = batch.prepare(srcs, true);
+            if (count == 0) {
+                return 0;
+            }
+            for (int i = 0; i < count; i++) {
+                if (to != null) {
+                    InetSocketAddress address = SockAddr.check(to[i]);
+                    if (remote != null && !remote.equals(address)) {
+                        throw new IllegalArgumentException("Connected address not equal to target address");
+                    }
+                    batch.setAddress(i, SockAddr.put(batch.addresses, (long) i * SockAddr.STORAGE_SIZE, family, address));
+                } else {
+                    batch.setAddress(i, 0);
+                }
+            }
+
+            int n = -1;
+            boolean blocking = enterBlocking();
+            try {
+                do {
+                    n = Native.libc().sendmmsg(fd, batch.msgvec, count, 0);
+                } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+            } finally {
+                leaveBlocking(blocking, n >= 0);
+            }
+
+            if (n < 0) {
+                if (wouldBlock()) {
+                    return 0;
+                }
+                throw error("sendmmsg");
+            }
+
+            for (int i = 0; i < n; i++) {
+                srcs[i].position(srcs[i].position() + batch.length(i));
+            }
+            return n;
+        }
+    }
+
+    private int sendEach(ByteBuffer[] srcs, SocketAddress[] to) throws IOException {
+        int count = Math.min(srcs.length, MAX_BATCH);
+        for (int i = 0; i < count; i++) {
+            int len = srcs[i].remaining();
+            int n = to != null ? send(srcs[i], to[i]) : write(srcs[i]);
+            if (n == 0 && len > 0) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A reusable array of linux mmsghdr structures, each with one iovec and room for an address.
+     *
+     * struct mmsghdr { struct msghdr msg_hdr; unsigned int msg_len; } where msghdr is
+     * { msg_name, msg_namelen, msg_iov, msg_iovlen, msg_control, msg_controllen, msg_flags },
+     * every field padded to the native word size.
+     */
+    private static final class Batch {
+        private static final int A = Native.getRuntime().addressSize();
+        private static final int MSGHDR_NAME = 0;
+        private static final int MSGHDR_NAMELEN = A;
+        private static final int MSGHDR_IOV = 2 * A;
+        private static final int MSGHDR_IOVLEN = 3 * A;
+        private static final int MMSGHDR_LEN = 7 * A;
+        private static final int MMSGHDR_SIZE = 8 * A;
+        private static final int IOVEC_SIZE = 2 * A;
+
+        private int capacity;
+        Pointer msgvec;
+        Pointer iovecs;
+        Pointer addresses;
+        private Pointer[] buffers = new Pointer[0];
+        private long[] offsets = new long[0];
+        private boolean[] staged = new boolean[0];
+
+        private void ensureCapacity(int count) {
+            if (count <= capacity) {
+                return;
+            }
+            capacity = Math.max(count, Math.min(MAX_BATCH, capacity * 2));
+            msgvec = Memory.allocateDirect(Native.getRuntime(), capacity * MMSGHDR_SIZE);
+            iovecs = Memory.allocateDirect(Native.getRuntime(), capacity * IOVEC_SIZE);
+            addresses = Memory.allocateDirect(Native.getRuntime(), capacity * SockAddr.STORAGE_SIZE);
+            buffers = new Pointer[capacity];
+            offsets = new long[capacity];
+            staged = new boolean[capacity];
+        }
+
+        /**
+         * Fills in one message per buffer.  Heap buffers are staged through the thread's
+         * staging buffer, and the batch stops short when that is full.
+         *
+         * @return the number of messages prepared
+         */
+        int prepare(ByteBuffer[] bufs, boolean write) {
+            int count = Math.min(bufs.length, MAX_BATCH);
+            ensureCapacity(count);
+            Pointer stage = Native.stagingBuffer();
+            int stageUsed = 0;
+
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buf = bufs[i];
+                int len = buf.remaining();
+                if (buf.isDirect()) {
+                    buffers[i] = Pointer.wrap(Native.getRuntime(), buf);
+                    offsets[i] = buf.position();
+                    staged[i] = false;
+                } else {
+                    if (len > Native.STAGING_SIZE - stageUsed) {
+                        if (i > 0) {
+                            return i;
+                        }
+                        len = Native.STAGING_SIZE;
+                    }
+                    if (write) {
+                        put(stage, stageUsed, buf, len);
+                    }
+                    buffers[i] = stage;
+                    offsets[i] = stageUsed;
+                    staged[i] = true;
+                    stageUsed += len;
+                }
+
+                long iov = (long) i * IOVEC_SIZE;
+                iovecs.putAddress(iov, buffers[i].address() + offsets[i]);
+                iovecs.putAddress(iov + A, len);
+
+                long msg = (long) i * MMSGHDR_SIZE;
+                msgvec.setMemory(msg, MMSGHDR_SIZE, (byte) 0);
+                msgvec.putAddress(msg + MSGHDR_NAME, addresses.address() + (long) i * SockAddr.STORAGE_SIZE);
+                msgvec.putInt(msg + MSGHDR_NAMELEN, SockAddr.STORAGE_SIZE);
+                msgvec.putAddress(msg + MSGHDR_IOV, iovecs.address() + iov);
+                msgvec.putAddress(msg + MSGHDR_IOVLEN, 1);
+            }
+            return count;
+        }
+
+        /**
+         * Sets the length of a message's destination address, zero meaning none.
+         */
+        void setAddress(int i, int len) {
+            long msg = (long) i * MMSGHDR_SIZE;
+            if (len == 0) {
+                msgvec.putAddress(msg + MSGHDR_NAME, 0);
+            }
+            msgvec.putInt(msg + MSGHDR_NAMELEN, len);
+        }
+
+        Pointer buffer(int i) {
+            return buffers[i];
+        }
+
+        long offset(int i) {
+            return offsets[i];
+        }
+
+        boolean staged(int i) {
+            return staged[i];
+        }
+
+        int length(int i) {
+            return msgvec.getInt((long) i * MMSGHDR_SIZE + MMSGHDR_LEN);
+        }
+    }
+}
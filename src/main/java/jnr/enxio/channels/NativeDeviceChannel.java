@@ -19,14 +19,20 @@
 package jnr.enxio.channels;
 
 
+import jnr.ffi.Pointer;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.nio.channels.spi.SelectorProvider;
 
-public class NativeDeviceChannel extends AbstractSelectableChannel implements ByteChannel, NativeSelectableChannel {
+public class NativeDeviceChannel extends AbstractSelectableChannel implements ByteChannel, ScatteringByteChannel, GatheringByteChannel, NativeSelectableChannel {
 
     private final int fd;
     private final int validOps;
@@ -55,7 +61,7 @@ public class NativeDeviceChannel extends AbstractSelectableChannel implements By
     protected void implCloseSelectableChannel() throws IOException {
         int n = Native.close(fd);
         if (n < 0) {
-            throw new IOException(Native.getLastErrorString());
+            throw Native.newException("close", Native.getLastErrno());
         }
     }
 
@@ -79,14 +85,11 @@ public class NativeDeviceChannel extends AbstractSelectableChannel implements By
                 return -1;
 
             case -1:
-                switch (Native.getLastError()) {
-                    case EAGAIN:
-                    case EWOULDBLOCK:
-                        return 0;
-
-                    default:
-                        throw new IOException(Native.getLastErrorString());
+                int errno = Native.getLastErrno();
+                if (Native.wouldBlock(errno)) {
+                    return 0;
                 }
+                throw Native.newException("read", errno);
 
             default:
                 return n;
@@ -96,7 +99,115 @@ public class NativeDeviceChannel extends AbstractSelectableChannel implements By
     public int write(ByteBuffer src) throws IOException {
         int n = Native.write(fd, src);
         if (n < 0) {
-            throw new IOException(Native.getLastErrorString());
+            throw Native.newException("write", Native.getLastErrno());
+        }
+
+        return n;
+    }
+
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long n = Native.read(fd, dsts, offset, length);
+        if (n == 0 && Native.hasRemaining(dsts, offset, length)) {
+            return -1;
+        }
+        return vectorResult(n, "readv");
+    }
+
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    /**
+     * Reads into native memory regions given as address and length pairs, with one system call.
+     *
+     * @return the number of bytes read, 0 if none are available right now, or -1 at end of stream
+     */
+    public long read(long[] addresses, long[] lengths, int offset, int length) throws IOException {
+        long n = Native.read(fd, addresses, lengths, offset, length);
+        if (n == 0 && length > 0) {
+            return -1;
+        }
+        return vectorResult(n, "readv");
+    }
+
+    /**
+     * Reads into direct pointers, {@code lengths[i]} bytes at most into {@code dsts[i]}.
+     */
+    public long read(Pointer[] dsts, long[] lengths) throws IOException {
+        return read(Native.addresses(dsts), lengths, 0, dsts.length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        return vectorResult(Native.write(fd, srcs, offset, length), "writev");
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Writes native memory regions given as address and length pairs, with one system call.
+     */
+    public long write(long[] addresses, long[] lengths, int offset, int length) throws IOException {
+        return vectorResult(Native.write(fd, addresses, lengths, offset, length), "writev");
+    }
+
+    /**
+     * Writes {@code lengths[i]} bytes from each of the direct pointers in {@code srcs}.
+     */
+    public long write(Pointer[] srcs, long[] lengths) throws IOException {
+        return write(Native.addresses(srcs), lengths, 0, srcs.length);
+    }
+
+    /**
+     * Transfers up to {@code count} bytes of this file, starting at {@code position}, to
+     * {@code target}.  When the target is a native channel this uses sendfile(2), so the data
+     * never passes through user space; otherwise it is copied through a buffer.  The file
+     * offset is not changed.
+     *
+     * A non-blocking target may take less than {@code count} bytes; call again with the
+     * position advanced by the result once it is writable.
+     *
+     * @return the number of bytes transferred, possibly zero
+     */
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (!isOpen() || !target.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (target instanceof NativeSelectableChannel) {
+            return Native.sendfile(((NativeSelectableChannel) target).getFD(), fd, position, count);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(count, Native.STAGING_SIZE));
+        Pointer address = Pointer.wrap(Native.getRuntime(), buf);
+        long total = 0;
+        while (total < count) {
+            long n = Native.libc().pread(fd, address, Math.min(buf.capacity(), count - total), position + total);
+            if (n < 0) {
+                throw Native.newException("pread", Native.getLastErrno());
+            }
+            if (n == 0) {
+                break;
+            }
+            buf.clear();
+            buf.limit((int) n);
+            int written = target.write(buf);
+            total += written;
+            if (written < n) {
+                break;
+            }
+        }
+
+        return total;
+    }
+
+    private static long vectorResult(long n, String call) throws IOException {
+        if (n < 0) {
+            int errno = Native.getLastErrno();
+            if (Native.wouldBlock(errno)) {
+                return 0;
+            }
+            throw Native.newException(call, errno);
         }
 
         return n;
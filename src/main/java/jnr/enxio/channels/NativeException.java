@@ -5,14 +5,45 @@ import jnr.constants.platform.Errno;
 import java.io.IOException;
 
 public class NativeException extends IOException {
-    private final Errno errno;
+    private final int errno;
+    private final String call;
+    private Errno constant;
 
     public NativeException(String message, Errno errno) {
         super(message);
+        this.errno = errno.intValue();
+        this.call = null;
+        this.constant = errno;
+    }
+
+    /**
+     * Creates an exception for a failed system call, the message is only looked up if asked for.
+     */
+    NativeException(int errno, String call) {
+        super((String) null);
         this.errno = errno;
+        this.call = call;
     }
 
     public Errno getErrno() {
+        if (constant == null) {
+            constant = Errno.valueOf(errno);
+        }
+        return constant;
+    }
+
+    /**
+     * Returns the errno as an int, without an {@link Errno} lookup.
+     */
+    public int getErrnoValue() {
         return errno;
     }
+
+    @Override
+    public String getMessage() {
+        if (call == null) {
+            return super.getMessage();
+        }
+        return String.format("%s failed: %s", call, Native.libc().strerror(errno));
+    }
 }
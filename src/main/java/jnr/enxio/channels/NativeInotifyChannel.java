@@ -0,0 +1,263 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * A channel that reports file system changes through a linux inotify(7) instance.
+ *
+ * Paths are watched with {@link #addWatch}, and the channel becomes readable when events are
+ * queued.  {@link #read()} takes as many events as fit in its buffer with one read(2) and
+ * returns a cursor over them, which is reused by every read:
+ *
+ * <pre>
+ *     NativeInotifyChannel.Events events = channel.read();
+ *     while (events.next()) {
+ *         if ((events.mask() &amp; NativeInotifyChannel.IN_CLOSE_WRITE) != 0) {
+ *             reload(events.wd(), events.name());
+ *         }
+ *     }
+ * </pre>
+ */
+public class NativeInotifyChannel extends AbstractSelectableChannel implements NativeSelectableChannel {
+    public static final int IN_ACCESS = 0x1;
+    public static final int IN_MODIFY = 0x2;
+    public static final int IN_ATTRIB = 0x4;
+    public static final int IN_CLOSE_WRITE = 0x8;
+    public static final int IN_CLOSE_NOWRITE = 0x10;
+    public static final int IN_OPEN = 0x20;
+    public static final int IN_MOVED_FROM = 0x40;
+    public static final int IN_MOVED_TO = 0x80;
+    public static final int IN_CREATE = 0x100;
+    public static final int IN_DELETE = 0x200;
+    public static final int IN_DELETE_SELF = 0x400;
+    public static final int IN_MOVE_SELF = 0x800;
+    public static final int IN_ALL_EVENTS = 0xfff;
+
+    // Only ever set in events
+    public static final int IN_UNMOUNT = 0x2000;
+    public static final int IN_Q_OVERFLOW = 0x4000;
+    public static final int IN_IGNORED = 0x8000;
+    public static final int IN_ISDIR = 0x40000000;
+
+    // Only for addWatch
+    public static final int IN_ONLYDIR = 0x1000000;
+    public static final int IN_DONT_FOLLOW = 0x2000000;
+    public static final int IN_EXCL_UNLINK = 0x4000000;
+    public static final int IN_MASK_ADD = 0x20000000;
+    public static final int IN_ONESHOT = 0x80000000;
+
+    private static final int IN_CLOEXEC = 0x80000;
+
+    // struct inotify_event, followed by len bytes of name
+    private static final int EVENT_SIZE = 16;
+    private static final int WD_OFFSET = 0;
+    private static final int MASK_OFFSET = 4;
+    private static final int COOKIE_OFFSET = 8;
+    private static final int LEN_OFFSET = 12;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A cursor over the events returned by one {@link #read()}.  Positioned before the first
+     * event; each {@link #next()} moves to the following one.
+     */
+    public static final class Events {
+        private final Pointer buffer;
+        private int limit;
+        private int position;
+        private int next;
+
+        Events(Pointer buffer) {
+            this.buffer = buffer;
+        }
+
+        void reset(int limit) {
+            this.limit = limit;
+            this.position = -1;
+            this.next = 0;
+        }
+
+        /**
+         * Moves to the next event.
+         *
+         * @return false once there are no more events
+         */
+        public boolean next() {
+            if (next >= limit) {
+                position = -1;
+                return false;
+            }
+            position = next;
+            next = position + EVENT_SIZE + buffer.getInt(position + LEN_OFFSET);
+            return true;
+        }
+
+        private int current() {
+            if (position < 0) {
+                throw new IllegalStateException("no current event");
+            }
+            return position;
+        }
+
+        /** The watch descriptor returned by {@link #addWatch}, -1 for {@link #IN_Q_OVERFLOW} */
+        public int wd() {
+            return buffer.getInt(current() + WD_OFFSET);
+        }
+
+        public int mask() {
+            return buffer.getInt(current() + MASK_OFFSET);
+        }
+
+        /** Ties an {@link #IN_MOVED_FROM} to the matching {@link #IN_MOVED_TO} */
+        public int cookie() {
+            return buffer.getInt(current() + COOKIE_OFFSET);
+        }
+
+        /**
+         * Returns the name of the file within a watched directory, or null for an event on the
+         * watched path itself.  Decoded on each call, use {@link #name(byte[])} to avoid that.
+         */
+        public String name() {
+            int len = buffer.getInt(current() + LEN_OFFSET);
+            return len == 0 ? null : buffer.getString(position + EVENT_SIZE, len, Charset.defaultCharset());
+        }
+
+        /**
+         * Copies the raw bytes of the name into {@code dst}.
+         *
+         * @return the length of the name, which may exceed {@code dst.length}
+         */
+        public int name(byte[] dst) {
+            int len = buffer.getInt(current() + LEN_OFFSET);
+            int off = position + EVENT_SIZE;
+            int n = 0;
+            // The name is padded with NULs to the record length
+            while (n < len && buffer.getByte(off + n) != 0) {
+                ++n;
+            }
+            buffer.get(off, dst, 0, Math.min(n, dst.length));
+            return n;
+        }
+    }
+
+    private final int fd;
+    private final Events events;
+
+    private NativeInotifyChannel(SelectorProvider provider, int fd) {
+        super(provider);
+        this.fd = fd;
+        this.events = new Events(Memory.allocateDirect(Native.getRuntime(), BUFFER_SIZE));
+    }
+
+    /**
+     * Opens a channel that registers with the selectors of {@link NativeSelectorProvider}.
+     */
+    public static NativeInotifyChannel open() throws IOException {
+        return open(NativeSelectorProvider.getInstance());
+    }
+
+    /**
+     * Opens a channel that registers with the selectors of {@code provider}, for example
+     * {@link NativeFileSelectorProvider}.
+     */
+    public static NativeInotifyChannel open(SelectorProvider provider) throws IOException {
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) {
+            throw new UnsupportedOperationException("inotify is only available on linux");
+        }
+        int fd = Native.libc().inotify_init1(IN_CLOEXEC);
+        if (fd < 0) {
+            throw Native.newException("inotify_init1", Native.getLastErrno());
+        }
+        return new NativeInotifyChannel(provider, fd);
+    }
+
+    /**
+     * Watches {@code path} for the events in {@code mask}.  Watching a path that is already
+     * watched replaces its mask, or adds to it with {@link #IN_MASK_ADD}.
+     *
+     * @return the watch descriptor reported by the events of this watch
+     */
+    public int addWatch(String path, int mask) throws IOException {
+        int wd = Native.libc().inotify_add_watch(fd, path, mask);
+        if (wd < 0) {
+            throw Native.newException("inotify_add_watch", Native.getLastErrno());
+        }
+        return wd;
+    }
+
+    /**
+     * Stops a watch.  An {@link #IN_IGNORED} event for it follows.
+     */
+    public void removeWatch(int wd) throws IOException {
+        if (Native.libc().inotify_rm_watch(fd, wd) < 0) {
+            throw Native.newException("inotify_rm_watch", Native.getLastErrno());
+        }
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() throws IOException {
+        if (Native.close(fd) < 0) {
+            throw Native.newException("close", Native.getLastErrno());
+        }
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        Native.setBlocking(fd, block);
+    }
+
+    @Override
+    public final int validOps() {
+        return SelectionKey.OP_READ;
+    }
+
+    public final int getFD() {
+        return fd;
+    }
+
+    /**
+     * Reads the queued events with one read(2).  The cursor returned is the same for every
+     * call, and is only valid until the next one.  In non-blocking mode it is empty when no
+     * events are queued.
+     */
+    public Events read() throws IOException {
+        int n;
+        do {
+            n = Native.libc().read(fd, events.buffer, BUFFER_SIZE);
+        } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+
+        if (n < 0) {
+            int errno = Native.getLastErrno();
+            if (!Native.wouldBlock(errno)) {
+                throw Native.newException("read", errno);
+            }
+            n = 0;
+        }
+        events.reset(n);
+        return events;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Fcntl;
+import jnr.constants.platform.OpenFlags;
+import jnr.ffi.Platform;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * A {@link Pipe} on a native pipe(2).
+ *
+ * The pipe is created with pipe2(O_NONBLOCK|O_CLOEXEC) where available, so unlike the JDK pipe
+ * both ends start out in non-blocking mode, ready to register with a selector.
+ */
+public final class NativePipe extends Pipe {
+    private static final int O_CLOEXEC = OpenFlags.O_CLOEXEC.intValue();
+    private static final int FD_CLOEXEC = 1;
+    // Linux has had pipe2 since 2.6.27, the BSDs since about 2013; MacOS has none
+    private static final boolean PIPE2 = Platform.getNativePlatform().getOS() == Platform.OS.LINUX
+            || (Platform.getNativePlatform().isBSD() && Platform.getNativePlatform().getOS() != Platform.OS.DARWIN);
+
+    private final NativeSourceChannel source;
+    private final NativeSinkChannel sink;
+
+    NativePipe(SelectorProvider provider) throws IOException {
+        int[] fds = { -1, -1 };
+        if (PIPE2) {
+            if (Native.libc().pipe2(fds, Native.LibC.O_NONBLOCK | O_CLOEXEC) < 0) {
+                throw pipeFailed("pipe2");
+            }
+        } else {
+            if (Native.libc().pipe(fds) < 0) {
+                throw pipeFailed("pipe");
+            }
+            for (int fd : fds) {
+                Native.setBlocking(fd, false);
+                Native.libc().fcntl(fd, Fcntl.F_SETFD.intValue(), FD_CLOEXEC);
+            }
+        }
+
+        source = new NativeSourceChannel(provider, fds[0]);
+        sink = new NativeSinkChannel(provider, fds[1]);
+    }
+
+    /**
+     * Opens a new pipe.
+     */
+    public static NativePipe open() throws IOException {
+        return new NativePipe(NativeSelectorProvider.getInstance());
+    }
+
+    private static NativeException pipeFailed(String call) {
+        return Native.newException(call, Native.getLastErrno());
+    }
+
+    @Override
+    public NativeSourceChannel source() {
+        return source;
+    }
+
+    @Override
+    public NativeSinkChannel sink() {
+        return sink;
+    }
+
+    /**
+     * Returns the capacity of the pipe buffer in bytes.
+     *
+     * @throws UnsupportedOperationException if the platform cannot report it (only linux can)
+     */
+    public int getPipeSize() throws IOException {
+        checkPipeSize();
+        int size = Native.libc().fcntl(sink.getFD(), Fcntl.F_GETPIPE_SZ.intValue(), 0);
+        if (size < 0) {
+            throw pipeFailed("fcntl(F_GETPIPE_SZ)");
+        }
+        return size;
+    }
+
+    /**
+     * Changes the capacity of the pipe buffer.  The kernel rounds the size up to a whole
+     * number of pages, and unprivileged processes are limited by /proc/sys/fs/pipe-max-size.
+     *
+     * @return the capacity actually set
+     * @throws UnsupportedOperationException if the platform does not allow it (only linux does)
+     */
+    public int setPipeSize(int size) throws IOException {
+        checkPipeSize();
+        int actual = Native.libc().fcntl(sink.getFD(), Fcntl.F_SETPIPE_SZ.intValue(), size);
+        if (actual < 0) {
+            throw pipeFailed("fcntl(F_SETPIPE_SZ)");
+        }
+        return actual;
+    }
+
+    private static void checkPipeSize() {
+        if (!Fcntl.F_SETPIPE_SZ.defined() || Platform.getNativePlatform().getOS() != Platform.OS.LINUX) {
+            throw new UnsupportedOperationException("Pipe size isn't supported on this platform");
+        }
+    }
+}
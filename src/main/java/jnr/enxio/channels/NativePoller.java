@@ -0,0 +1,222 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The process-wide poller behind the blocking mode enabled by
+ * {@link NativeSelectorProvider#POLLER_PROPERTY}.
+ *
+ * A channel in that mode keeps its fd non-blocking.  When a blocking call gets EAGAIN, the
+ * thread arms a one-shot key for the operation on a native selector and parks; a single daemon
+ * thread selects on behalf of every waiting thread and unparks them as their fds become ready.
+ * A parked virtual thread holds no carrier thread, so the number of threads blocked in channel
+ * calls is no longer bounded by the carrier pool.
+ */
+final class NativePoller {
+    static final boolean ENABLED = Boolean.getBoolean(NativeSelectorProvider.POLLER_PROPERTY);
+
+    private static final class SingletonHolder {
+        static final NativePoller INSTANCE = new NativePoller();
+    }
+
+    static NativePoller getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Stands in for the waiting channel in the poller's selector, whose own channel may be in
+     * blocking mode and so cannot be registered.  It never touches the fd.
+     */
+    private static final class PolledChannel extends AbstractSelectableChannel implements NativeSelectableChannel {
+        private final int fd;
+
+        PolledChannel(int fd) {
+            super(NativeSelectorProvider.getInstance());
+            this.fd = fd;
+        }
+
+        @Override
+        protected void implCloseSelectableChannel() {
+        }
+
+        @Override
+        protected void implConfigureBlocking(boolean block) {
+        }
+
+        @Override
+        public int validOps() {
+            return SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        }
+
+        public int getFD() {
+            return fd;
+        }
+    }
+
+    /**
+     * The poller side of one channel, with at most one reading and one writing thread waiting.
+     */
+    static final class Registration {
+        private SelectionKey key;
+        private Thread reader;
+        private Thread writer;
+        private boolean released;
+
+        private int waitingOps() {
+            return (reader != null ? SelectionKey.OP_READ : 0) | (writer != null ? SelectionKey.OP_WRITE : 0);
+        }
+
+        private synchronized boolean arm(int op, Thread thread) {
+            if (released) {
+                return false;
+            }
+            if (op == SelectionKey.OP_READ) {
+                reader = thread;
+            } else {
+                writer = thread;
+            }
+            key.interestOps(waitingOps() | NativeSelectionKeys.ONE_SHOT);
+            return true;
+        }
+
+        private synchronized boolean waiting(int op, Thread thread) {
+            return (op == SelectionKey.OP_READ ? reader : writer) == thread;
+        }
+
+        private synchronized void disarm(int op, Thread thread) {
+            if (op == SelectionKey.OP_READ && reader == thread) {
+                reader = null;
+            } else if (op == SelectionKey.OP_WRITE && writer == thread) {
+                writer = null;
+            }
+        }
+
+        private synchronized boolean isReleased() {
+            return released;
+        }
+
+        private synchronized void ready(int readyOps) {
+            if ((readyOps & SelectionKey.OP_READ) != 0 && reader != null) {
+                LockSupport.unpark(reader);
+                reader = null;
+            }
+            if ((readyOps & SelectionKey.OP_WRITE) != 0 && writer != null) {
+                LockSupport.unpark(writer);
+                writer = null;
+            }
+            // The key fired once for the fd, so re-arm it for whoever is still waiting
+            int ops = waitingOps();
+            if (ops != 0 && !released) {
+                key.interestOps(ops | NativeSelectionKeys.ONE_SHOT);
+            }
+        }
+
+        /**
+         * Wakes any waiting thread and drops the key.  Called when the channel is closed.
+         */
+        synchronized void release() {
+            released = true;
+            if (reader != null) {
+                LockSupport.unpark(reader);
+                reader = null;
+            }
+            if (writer != null) {
+                LockSupport.unpark(writer);
+                writer = null;
+            }
+            key.cancel();
+        }
+
+        /**
+         * Parks the calling thread until the fd is ready for {@code op}, which is
+         * {@link SelectionKey#OP_READ} or {@link SelectionKey#OP_WRITE}.  Readiness may be
+         * spurious, the caller retries its call either way.
+         *
+         * @return false if the registration was released or the thread interrupted instead
+         */
+        boolean await(int op) {
+            Thread thread = Thread.currentThread();
+            if (!arm(op, thread)) {
+                return false;
+            }
+            while (waiting(op, thread)) {
+                LockSupport.park(this);
+                if (thread.isInterrupted()) {
+                    disarm(op, thread);
+                    return false;
+                }
+            }
+            return !isReleased();
+        }
+    }
+
+    private final Selector selector;
+
+    private NativePoller() {
+        try {
+            selector = NativeSelectorProvider.getInstance().openSelector();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot open the poller selector", ex);
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                NativePoller.this.run();
+            }
+        }, "jnr-enxio-poller");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds an fd to the poller, with nothing armed yet.
+     */
+    Registration register(int fd) throws IOException {
+        PolledChannel ch = new PolledChannel(fd);
+        ch.configureBlocking(false);
+        Registration registration = new Registration();
+        synchronized (registration) {
+            registration.key = ch.register(selector, 0, registration);
+        }
+        return registration;
+    }
+
+    private void run() {
+        for (;;) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid()) {
+                        ((Registration) key.attachment()).ready(key.readyOps());
+                    }
+                }
+            } catch (Throwable ex) {
+                // Keep polling, the threads parked on other fds still need waking
+                Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.io.IOException;
+
+/**
+ * A primitive view of selection implemented by the selectors of {@link NativeSelectorProvider},
+ * for callers that keep their own fd indexed state and have no use for {@link java.nio.channels.SelectionKey}s.
+ *
+ * Channels are registered the usual way, and the same selector can be used through both this
+ * interface and {@link java.nio.channels.Selector}.  {@link #selectInto} processes cancelled
+ * keys and wakeups like any other select, but leaves the selected-key set and the ready sets
+ * of the keys alone.
+ */
+public interface NativeReadySet {
+    /**
+     * Waits for registered descriptors to become ready and copies them out.
+     *
+     * Readiness is reported as {@link java.nio.channels.SelectionKey#OP_READ} and
+     * {@link java.nio.channels.SelectionKey#OP_WRITE}, so accept readiness shows up as
+     * {@code OP_READ} and connect readiness as {@code OP_WRITE}; an error or hangup reports
+     * both.  Descriptors beyond {@code fds.length} are reported by the next call.
+     *
+     * @param fds receives the ready descriptors
+     * @param ops receives the ready operations of {@code fds[i]} in {@code ops[i]}
+     * @param timeoutNanos the maximum time to wait, zero to not wait or negative to wait
+     *                     until a descriptor is ready or the selector is woken up
+     * @return the number of entries filled in
+     * @throws IllegalArgumentException if {@code fds} is empty or {@code ops} is shorter
+     */
+    int selectInto(int[] fds, int[] ops, long timeoutNanos) throws IOException;
+}
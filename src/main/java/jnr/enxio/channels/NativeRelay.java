@@ -0,0 +1,249 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Moves bytes from one native channel to another through a kernel pipe with splice(2), so
+ * the data is never copied into user space.  Optionally every byte is also copied with tee(2)
+ * to a third, mirror channel, for example to capture traffic.
+ *
+ * A relay is driven by calling {@link #transfer()} whenever the source is readable or, while
+ * {@link #hasPending()} is true, the sink is writable.  With non-blocking channels a call moves
+ * as much as it can without waiting; with a blocking source it moves at most one pipe-full.
+ *
+ * The mirror is best effort: bytes that do not fit in its pipe because it falls behind are
+ * dropped and counted by {@link #getMirrorDropped()}, so it can never stall the relay.
+ *
+ * Only available on linux.  Closing a relay closes its pipes, not the channels.
+ */
+public final class NativeRelay implements Closeable {
+    // splice(2) flags
+    private static final int SPLICE_F_MOVE = 1;
+    private static final int SPLICE_F_NONBLOCK = 2;
+
+    private static final long CHUNK = 64 * 1024;
+
+    private final NativeSelectableChannel source;
+    private final NativeSelectableChannel sink;
+    private final NativeSelectableChannel mirror;
+    private final NativePipe pipe;
+    private final NativePipe mirrorPipe;
+
+    // Bytes sitting in the pipes, waiting for the sink or the mirror
+    private long pending;
+    private long mirrorPending;
+    private long mirrorDropped;
+    private boolean endOfStream;
+
+    private NativeRelay(NativeSelectableChannel source, NativeSelectableChannel sink, NativeSelectableChannel mirror) throws IOException {
+        this.source = source;
+        this.sink = sink;
+        this.mirror = mirror;
+        this.pipe = NativePipe.open();
+        NativePipe mp = null;
+        try {
+            if (mirror != null) {
+                mp = NativePipe.open();
+            }
+        } catch (IOException ex) {
+            pipe.source().close();
+            pipe.sink().close();
+            throw ex;
+        }
+        this.mirrorPipe = mp;
+    }
+
+    /**
+     * Tests whether relays are available on this platform.
+     */
+    public static boolean isSupported() {
+        return Platform.getNativePlatform().getOS() == Platform.OS.LINUX;
+    }
+
+    /**
+     * Opens a relay from {@code source} to {@code sink}.
+     */
+    public static NativeRelay open(NativeSelectableChannel source, NativeSelectableChannel sink) throws IOException {
+        return open(source, sink, null);
+    }
+
+    /**
+     * Opens a relay from {@code source} to {@code sink} that also copies everything to
+     * {@code mirror}.
+     */
+    public static NativeRelay open(NativeSelectableChannel source, NativeSelectableChannel sink,
+                                   NativeSelectableChannel mirror) throws IOException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("splice isn't supported on this platform");
+        }
+        return new NativeRelay(source, sink, mirror);
+    }
+
+    /**
+     * Moves as many bytes as possible from the source to the sink without waiting.
+     *
+     * @return the number of bytes delivered to the sink
+     */
+    public long transfer() throws IOException {
+        return transfer(Long.MAX_VALUE);
+    }
+
+    /**
+     * Moves up to {@code max} bytes from the source to the sink.
+     *
+     * @return the number of bytes delivered to the sink
+     */
+    public long transfer(long max) throws IOException {
+        boolean blockingSource = source instanceof SelectableChannel && ((SelectableChannel) source).isBlocking();
+        long delivered = flush();
+        if (pending > 0) {
+            return delivered;
+        }
+
+        while (!endOfStream && delivered < max) {
+            long n = splice(source.getFD(), pipe.sink().getFD(), Math.min(CHUNK, max - delivered));
+            if (n < 0) {
+                break;
+            }
+            if (n == 0) {
+                endOfStream = true;
+                break;
+            }
+            pending = n;
+            if (mirror != null) {
+                capture(n);
+            }
+
+            delivered += flush();
+            if (pending > 0 || blockingSource) {
+                break;
+            }
+        }
+
+        return delivered;
+    }
+
+    /**
+     * Copies the bytes just spliced into the pipe to the mirror pipe.  tee(2) does not consume
+     * its input, so a second call would copy the same leading bytes again; whatever one call
+     * leaves out is dropped.
+     */
+    private void capture(long n) throws IOException {
+        long t;
+        do {
+            t = Native.libc().tee(pipe.source().getFD(), mirrorPipe.sink().getFD(), n, SPLICE_F_NONBLOCK);
+        } while (t < 0 && Native.getLastErrno() == Native.EINTR);
+
+        if (t < 0) {
+            if (!wouldBlock()) {
+                throw error("tee");
+            }
+            t = 0;
+        }
+        mirrorPending += t;
+        mirrorDropped += n - t;
+    }
+
+    /**
+     * Drains the pipes into the sink and mirror as far as they will take it.
+     */
+    private long flush() throws IOException {
+        while (mirrorPending > 0) {
+            long n = splice(mirrorPipe.source().getFD(), mirror.getFD(), mirrorPending);
+            if (n <= 0) {
+                break;
+            }
+            mirrorPending -= n;
+        }
+
+        long delivered = 0;
+        while (pending > 0) {
+            long n = splice(pipe.source().getFD(), sink.getFD(), pending);
+            if (n <= 0) {
+                break;
+            }
+            pending -= n;
+            delivered += n;
+        }
+        return delivered;
+    }
+
+    /**
+     * @return the bytes moved, zero at end of stream, or -1 if either side would block
+     */
+    private static long splice(int in, int out, long len) throws IOException {
+        long n;
+        do {
+            n = Native.libc().splice(in, null, out, null, len, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+        } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+
+        if (n < 0) {
+            if (wouldBlock()) {
+                return -1;
+            }
+            throw error("splice");
+        }
+        return n;
+    }
+
+    private static boolean wouldBlock() {
+        return Native.wouldBlock(Native.getLastErrno());
+    }
+
+    private static NativeException error(String call) {
+        return Native.newException(call, Native.getLastErrno());
+    }
+
+    /**
+     * Tests whether bytes read from the source are waiting for the sink.  While this is true
+     * the relay needs the sink to become writable, otherwise it needs the source to become
+     * readable.
+     */
+    public boolean hasPending() {
+        return pending > 0;
+    }
+
+    /**
+     * Tests whether the source reached end of stream and everything has been delivered, to the
+     * mirror as well.  Until the mirror has caught up, keep calling {@link #transfer()} when it
+     * is writable.
+     */
+    public boolean isEndOfStream() {
+        return endOfStream && pending == 0 && mirrorPending == 0;
+    }
+
+    /**
+     * Returns the number of bytes the mirror missed because it could not keep up.
+     */
+    public long getMirrorDropped() {
+        return mirrorDropped;
+    }
+
+    public void close() throws IOException {
+        pipe.source().close();
+        pipe.sink().close();
+        if (mirrorPipe != null) {
+            mirrorPipe.source().close();
+            mirrorPipe.sink().close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Extended interest flags understood by the selectors from {@link NativeSelectorProvider}.
+ *
+ * The flags are or'ed into the interest set of a key, e.g.
+ * {@code key.interestOps(SelectionKey.OP_READ | NativeSelectionKeys.ONE_SHOT)}, or passed to
+ * {@link #register(SelectableChannel, Selector, int, Object)}.  They are kept in the value
+ * returned by {@link SelectionKey#interestOps()}, but never show up in the ready set.
+ */
+public final class NativeSelectionKeys {
+    /**
+     * Only report a key when its readiness changes, rather than for as long as it stays ready.
+     * The channel must then be read or written until it would block before it is reported again.
+     *
+     * Honoured by the epoll and kqueue selectors; the poll selector stays level triggered,
+     * which reports at least as often and so never loses an event.
+     */
+    public static final int EDGE_TRIGGERED = 1 << 30;
+
+    /**
+     * Disarm the key as soon as it has been reported once.  It stays registered, but is not
+     * reported again until it is re-armed by setting its interest set, e.g. with {@link #rearm}.
+     */
+    public static final int ONE_SHOT = 1 << 29;
+
+    static final int EXTENDED_OPS = EDGE_TRIGGERED | ONE_SHOT;
+    static final int STANDARD_OPS = SelectionKey.OP_READ | SelectionKey.OP_WRITE
+            | SelectionKey.OP_CONNECT | SelectionKey.OP_ACCEPT;
+
+    private NativeSelectionKeys() {
+    }
+
+    /**
+     * Registers a channel with a native selector, with an interest set that may include
+     * extended flags.
+     *
+     * {@link SelectableChannel#register} validates the interest set against
+     * {@link SelectableChannel#validOps()}, which never includes the extended flags, so the
+     * channel is registered with an empty interest set which is then replaced.
+     */
+    public static SelectionKey register(SelectableChannel ch, Selector selector, int ops, Object att)
+            throws ClosedChannelException {
+        if (!(selector.provider() instanceof NativeSelectorProvider
+                || selector.provider() instanceof NativeFileSelectorProvider)) {
+            throw new IllegalArgumentException("not a native selector");
+        }
+        if ((ops & ~(ch.validOps() | EXTENDED_OPS)) != 0) {
+            throw new IllegalArgumentException();
+        }
+        SelectionKey key = ch.register(selector, 0, att);
+        key.interestOps(ops);
+        return key;
+    }
+
+    /**
+     * Re-arms a {@link #ONE_SHOT} key with its current interest set.
+     */
+    public static SelectionKey rearm(SelectionKey key) {
+        return key.interestOps(key.interestOps());
+    }
+}
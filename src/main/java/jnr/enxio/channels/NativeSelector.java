@@ -0,0 +1,32 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.io.IOException;
+
+/**
+ * Methods shared by the selectors of {@link NativeSelectorProvider} that the
+ * {@link java.nio.channels.Selector} API has no room for.
+ */
+interface NativeSelector {
+    /**
+     * Selects like {@link java.nio.channels.Selector#select(long)}, with the timeout in
+     * nanoseconds.  A negative timeout waits until a key is selected or the selector is
+     * woken up, and zero does not wait at all.
+     */
+    int selectNanos(long timeoutNanos) throws IOException;
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+/**
+ * Management interface of a native selector, registered with the platform MBean server as
+ * {@code jnr.enxio:type=NativeSelector,name=<kind>-<n>} when the
+ * {@link NativeSelectorProvider#METRICS_PROPERTY} system property is {@code true}.
+ *
+ * Times are in nanoseconds.  Values are updated without locks and read without
+ * synchronisation, so a snapshot may be a few events behind the selector.
+ */
+public interface NativeSelectorMXBean {
+    /**
+     * Returns the selector implementation, {@code poll}, {@code epoll} or {@code kqueue}.
+     */
+    String getKind();
+
+    int getRegisteredKeyCount();
+
+    long getSelectCount();
+
+    /**
+     * Returns the time spent blocked in the select system call.
+     */
+    long getBlockedTimeNanos();
+
+    /**
+     * Returns the time between a select returning and the next one starting, which is the
+     * time the selecting thread spent handling the keys it was given.
+     */
+    long getProcessingTimeNanos();
+
+    /**
+     * Returns how many selects reported 0, 1, 2-3, 4-7, 8-15, 16-31, 32-63, 64-127 and
+     * 128 or more ready keys.
+     */
+    long[] getReadyKeysHistogram();
+
+    long getWakeupsRequested();
+
+    /**
+     * Returns the wakeups that reached the kernel, the rest were coalesced with a pending one.
+     */
+    long getWakeupsDelivered();
+
+    /**
+     * Returns the selects that returned without any ready key.
+     */
+    long getSpuriousReturns();
+
+    long getCancelledKeysProcessed();
+}
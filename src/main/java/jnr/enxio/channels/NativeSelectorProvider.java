@@ -29,6 +29,27 @@ import java.nio.channels.spi.SelectorProvider;
 
 
 public final class NativeSelectorProvider extends SelectorProvider {
+    /**
+     * System property selecting the selector implementation.  Set it to {@code poll} to use
+     * the portable poll(2) selector instead of epoll (linux) or kqueue (BSD, MacOS).
+     */
+    public static final String SELECTOR_PROPERTY = "jnr.enxio.selector";
+
+    /**
+     * System property that can be set to {@code true} to publish a {@link NativeSelectorMXBean}
+     * for every selector.  It is read once, and when it is off the metrics cost nothing.
+     */
+    public static final String METRICS_PROPERTY = "jnr.enxio.metrics";
+
+    /**
+     * System property that can be set to {@code true} to keep the sockets of
+     * {@link NativeSocketChannel} and {@link NativeServerSocketChannel} non-blocking even in
+     * blocking mode.  A call that would block then parks the calling thread until a shared
+     * background poller sees the socket ready, so a virtual thread gives up its carrier thread
+     * instead of pinning it in a native call.
+     */
+    public static final String POLLER_PROPERTY = "jnr.enxio.poller";
+
     private static final class SingletonHolder {
         static NativeSelectorProvider INSTANCE = new NativeSelectorProvider();
     }
@@ -37,33 +58,50 @@ public final class NativeSelectorProvider extends SelectorProvider {
         return SingletonHolder.INSTANCE;
     }
 
+    /**
+     * Opens an IPv4 {@link NativeDatagramChannel}.
+     */
     @Override
     public DatagramChannel openDatagramChannel() throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return NativeDatagramChannel.open(this, java.net.StandardProtocolFamily.INET);
     }
 
     public DatagramChannel openDatagramChannel(java.net.ProtocolFamily family) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return NativeDatagramChannel.open(this, family);
     }
 
+    /**
+     * Opens a {@link NativePipe}, both ends of which start out non-blocking.
+     */
     @Override
     public Pipe openPipe() throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return new NativePipe(this);
     }
 
     @Override
     public AbstractSelector openSelector() throws IOException {
-        return Platform.getNativePlatform().isBSD() ? new KQSelector(this) : new PollSelector(this);
+        Platform platform = Platform.getNativePlatform();
+        String selector = System.getProperty(SELECTOR_PROPERTY);
+        if ("poll".equals(selector)) {
+            return new PollSelector(this);
+        }
+        if (platform.isBSD()) {
+            return new KQSelector(this);
+        }
+        if (platform.getOS() == Platform.OS.LINUX) {
+            return new EpollSelector(this);
+        }
+        return new PollSelector(this);
     }
 
     @Override
     public ServerSocketChannel openServerSocketChannel() throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        throw new UnsupportedOperationException("Use NativeServerSocketChannel.open()");
     }
 
     @Override
     public SocketChannel openSocketChannel() throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        throw new UnsupportedOperationException("Use NativeSocketChannel.open()");
     }
 
 }
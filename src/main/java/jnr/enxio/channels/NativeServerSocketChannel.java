@@ -18,15 +18,40 @@
 
 package jnr.enxio.channels;
 
+import jnr.constants.platform.Errno;
+import jnr.constants.platform.Shutdown;
+import jnr.constants.platform.Sock;
+import jnr.constants.platform.SocketLevel;
+import jnr.constants.platform.SocketOption;
+import jnr.ffi.Memory;
+import jnr.ffi.Pointer;
+
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class NativeServerSocketChannel extends AbstractSelectableChannel implements NativeSelectableChannel {
+    private static final int DEFAULT_BACKLOG = 128;
+    private static final int ECONNABORTED = Errno.ECONNABORTED.intValue();
+    private static final int SHUT_RD = Shutdown.SHUT_RD.intValue();
 
     private final int fd;
     private final int validOps;
+    private final Object stateLock = new Object();
+    // The channel's registration with the shared poller, see NativePoller
+    private final Object pollLock = new Object();
+    private NativePoller.Registration polled;
+    private boolean pollClosed;
+    // Threads waiting in a blocking accept, which close wakes by shutting the socket down
+    private final AtomicInteger blockedThreads = new AtomicInteger();
 
     public NativeServerSocketChannel(int fd) {
         this(NativeSelectorProvider.getInstance(), fd, SelectionKey.OP_ACCEPT | SelectionKey.OP_READ);
@@ -38,14 +63,47 @@ public class NativeServerSocketChannel extends AbstractSelectableChannel impleme
         this.validOps = ops;
     }
 
+    /**
+     * Opens an unbound IPv4 server socket.
+     */
+    public static NativeServerSocketChannel open() throws IOException {
+        return open(StandardProtocolFamily.INET);
+    }
+
+    /**
+     * Opens an unbound server socket of the given family.
+     */
+    public static NativeServerSocketChannel open(ProtocolFamily family) throws IOException {
+        int fd = Native.socket(SockAddr.af(family), Sock.SOCK_STREAM.intValue(), NativePoller.ENABLED);
+        Pointer val = Memory.allocateDirect(Native.getRuntime(), 4);
+        val.putInt(0, 1);
+        // Like the JDK, allow rebinding a port that still has connections in TIME_WAIT
+        if (Native.libc().setsockopt(fd, SocketLevel.SOL_SOCKET.intValue(), SocketOption.SO_REUSEADDR.intValue(), val, 4) < 0) {
+            NativeException ex = error("setsockopt");
+            Native.close(fd);
+            throw ex;
+        }
+        return new NativeServerSocketChannel(NativeSelectorProvider.getInstance(), fd, SelectionKey.OP_ACCEPT);
+    }
+
     @Override
     protected void implCloseSelectableChannel() throws IOException {
-       Native.close(fd);
+        synchronized (pollLock) {
+            pollClosed = true;
+            if (polled != null) {
+                polled.release();
+            }
+        }
+        if (blockedThreads.get() > 0) {
+            Native.shutdown(fd, SHUT_RD);
+        }
+        Native.close(fd);
     }
 
     @Override
     protected void implConfigureBlocking(boolean block) throws IOException {
-        Native.setBlocking(fd, block);
+        // In the poller mode blocking is done by parking, the fd itself never blocks
+        Native.setBlocking(fd, block && !NativePoller.ENABLED);
     }
 
     @Override
@@ -56,4 +114,164 @@ public class NativeServerSocketChannel extends AbstractSelectableChannel impleme
     public final int getFD() {
         return fd;
     }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static NativeException error(String call) {
+        return Native.newException(call, Native.getLastErrno());
+    }
+
+    /**
+     * Parks until a connection is pending, for a blocking accept in the poller mode.
+     */
+    private void awaitConnection() throws IOException {
+        NativePoller.Registration registration;
+        synchronized (pollLock) {
+            if (pollClosed) {
+                throw new ClosedChannelException();
+            }
+            if (polled == null) {
+                polled = NativePoller.getInstance().register(fd);
+            }
+            registration = polled;
+        }
+
+        boolean ready = false;
+        try {
+            begin();
+            ready = registration.await(SelectionKey.OP_READ);
+        } finally {
+            end(ready);
+        }
+    }
+
+    /**
+     * Binds the socket and starts listening, with the default backlog.
+     *
+     * @param local the address to bind to, or null for an ephemeral port on the wildcard address
+     */
+    public NativeServerSocketChannel bind(SocketAddress local) throws IOException {
+        return bind(local, 0);
+    }
+
+    /**
+     * Binds the socket and starts listening.
+     *
+     * @param local the address to bind to, or null for an ephemeral port on the wildcard address
+     * @param backlog the maximum number of pending connections, or zero or less for the default
+     */
+    public NativeServerSocketChannel bind(SocketAddress local, int backlog) throws IOException {
+        synchronized (stateLock) {
+            ensureOpen();
+            InetSocketAddress address = local != null ? SockAddr.check(local) : new InetSocketAddress(0);
+            Pointer sockaddr = Memory.allocateDirect(Native.getRuntime(), SockAddr.STORAGE_SIZE);
+            int len = SockAddr.put(sockaddr, 0, SockAddr.family(fd), address);
+            if (Native.libc().bind(fd, sockaddr, len) < 0) {
+                throw error("bind");
+            }
+            if (Native.libc().listen(fd, backlog > 0 ? backlog : DEFAULT_BACKLOG) < 0) {
+                throw error("listen");
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the address the socket is bound to, or null if it is not bound.
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        synchronized (stateLock) {
+            ensureOpen();
+            return SockAddr.localAddress(fd);
+        }
+    }
+
+    /**
+     * Accepts a connection.
+     *
+     * The new socket is created non-blocking and close-on-exec in the same system call where
+     * accept4 is available, so the returned channel is already in non-blocking mode.
+     *
+     * @return the new connection, or null if the channel is non-blocking and none is pending
+     */
+    public NativeSocketChannel accept() throws IOException {
+        ensureOpen();
+        int n;
+        for (;;) {
+            n = accept0();
+            if (n >= 0) {
+                break;
+            }
+            int errno = -n;
+            if (Native.wouldBlock(errno)) {
+                if (NativePoller.ENABLED && isBlocking()) {
+                    awaitConnection();
+                    continue;
+                }
+                return null;
+            }
+            throw Native.newException("accept", errno);
+        }
+
+        return new NativeSocketChannel(provider(), n, SelectionKey.OP_READ | SelectionKey.OP_WRITE, true);
+    }
+
+    /**
+     * Runs accept4, bracketed so an interrupt or an asynchronous close ends it when the fd blocks.
+     *
+     * @return the new fd, or the negated errno
+     */
+    private int accept0() throws IOException {
+        boolean blocking = isBlocking() && !NativePoller.ENABLED;
+        int n = -1;
+        int errno = 0;
+        try {
+            if (blocking) {
+                blockedThreads.incrementAndGet();
+                begin();
+            }
+            do {
+                n = Native.accept(fd);
+            } while (n < 0 && retry(errno = Native.getLastErrno()));
+        } finally {
+            if (blocking) {
+                blockedThreads.decrementAndGet();
+                // Throws if the channel was closed or the thread interrupted meanwhile
+                end(n >= 0);
+            }
+        }
+        return n >= 0 ? n : -errno;
+    }
+
+    private static boolean retry(int errno) {
+        // A connection reset while it sat in the backlog is not an error of the listener
+        return errno == Native.EINTR || errno == ECONNABORTED;
+    }
+
+    /**
+     * Accepts pending connections until the backlog is empty or {@code max} have been accepted,
+     * so a single readiness event can be answered without going back to the selector.
+     * In blocking mode at most one connection is accepted.
+     *
+     * @return the number of connections handed to {@code consumer}
+     */
+    public int drainAccept(int max, Consumer<NativeSocketChannel> consumer) throws IOException {
+        int count = 0;
+        while (count < max) {
+            NativeSocketChannel ch = accept();
+            if (ch == null) {
+                break;
+            }
+            consumer.accept(ch);
+            ++count;
+            if (isBlocking()) {
+                break;
+            }
+        }
+        return count;
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Signal;
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.spi.AbstractSelectableChannel;
+
+/**
+ * A channel that receives signals through a linux signalfd(2), so signals are handled by the
+ * selector loop like any other readable descriptor rather than by a thread of their own.
+ *
+ * {@link #open} blocks the signals in the calling thread, and threads it starts later inherit
+ * that.  A signal sent to the process is only queued for the channel if every thread blocks
+ * it, so open the channel before starting other threads; the JVM's own threads still take
+ * the signals it installs handlers for, such as SIGTERM and SIGHUP, unless it runs with
+ * {@code -Xrs}.  The signals stay blocked when the channel is closed.
+ *
+ * Readiness and reads see the signals pending for the process and for the thread that polls
+ * or reads, as for any signalfd.
+ */
+public class NativeSignalChannel extends AbstractSelectableChannel implements NativeSelectableChannel {
+    /** The most signals returned by one read */
+    public static final int MAX_BATCH = 32;
+
+    // struct signalfd_siginfo
+    private static final int SIGINFO_SIZE = 128;
+    private static final int SSI_SIGNO_OFFSET = 0;
+    private static final int SSI_PID_OFFSET = 12;
+    private static final int SIGSET_SIZE = 128;
+
+    private static final int SIG_BLOCK = 0;
+    private static final int SFD_CLOEXEC = 0x80000;
+
+    private final int fd;
+    private final Pointer buffer;
+
+    private NativeSignalChannel(int fd) {
+        super(NativeSelectorProvider.getInstance());
+        this.fd = fd;
+        this.buffer = Memory.allocateDirect(Native.getRuntime(), MAX_BATCH * SIGINFO_SIZE);
+    }
+
+    /**
+     * Blocks {@code signals} in the calling thread and opens a channel that receives them.
+     */
+    public static NativeSignalChannel open(Signal... signals) throws IOException {
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) {
+            throw new UnsupportedOperationException("signalfd is only available on linux");
+        }
+        if (signals.length == 0) {
+            throw new IllegalArgumentException("no signals");
+        }
+
+        Pointer mask = Memory.allocateDirect(Native.getRuntime(), SIGSET_SIZE, true);
+        for (Signal signal : signals) {
+            int bit = signal.intValue() - 1;
+            if (!signal.defined() || bit < 0 || bit >= SIGSET_SIZE * 8) {
+                throw new IllegalArgumentException("unknown signal " + signal);
+            }
+            mask.putLong((bit / 64) * 8, mask.getLong((bit / 64) * 8) | (1L << (bit % 64)));
+        }
+
+        if (Native.libc().sigprocmask(SIG_BLOCK, mask, null) < 0) {
+            throw Native.newException("sigprocmask", Native.getLastErrno());
+        }
+        int fd = Native.libc().signalfd(-1, mask, SFD_CLOEXEC);
+        if (fd < 0) {
+            throw Native.newException("signalfd", Native.getLastErrno());
+        }
+        return new NativeSignalChannel(fd);
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() throws IOException {
+        if (Native.close(fd) < 0) {
+            throw Native.newException("close", Native.getLastErrno());
+        }
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        Native.setBlocking(fd, block);
+    }
+
+    @Override
+    public final int validOps() {
+        return SelectionKey.OP_READ;
+    }
+
+    public final int getFD() {
+        return fd;
+    }
+
+    public int read(int[] signals) throws IOException {
+        return read(signals, null);
+    }
+
+    /**
+     * Reads the pending signals with one read(2), at most {@link #MAX_BATCH} of them.
+     *
+     * @param signals receives the signal numbers, see {@link Signal#valueOf(long)}
+     * @param pids receives the pid of the process that sent each signal, or for SIGCHLD the
+     *             child that changed state; may be null
+     * @return the number of signals read, 0 if none is pending in non-blocking mode
+     */
+    public int read(int[] signals, int[] pids) throws IOException {
+        if (signals.length == 0 || pids != null && pids.length < signals.length) {
+            throw new IllegalArgumentException("signals is empty or pids is shorter than signals");
+        }
+
+        int n;
+        do {
+            n = Native.libc().read(fd, buffer, Math.min(signals.length, MAX_BATCH) * (long) SIGINFO_SIZE);
+        } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+
+        if (n < 0) {
+            int errno = Native.getLastErrno();
+            if (Native.wouldBlock(errno)) {
+                return 0;
+            }
+            throw Native.newException("read", errno);
+        }
+
+        int count = n / SIGINFO_SIZE;
+        for (int i = 0; i < count; i++) {
+            signals[i] = buffer.getInt(i * SIGINFO_SIZE + SSI_SIGNO_OFFSET);
+            if (pids != null) {
+                pids[i] = buffer.getInt(i * SIGINFO_SIZE + SSI_PID_OFFSET);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jnr.enxio.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * The writable end of a {@link NativePipe}.
+ */
+public class NativeSinkChannel extends Pipe.SinkChannel implements NativeSelectableChannel {
+
+    private final int fd;
+    // The mode of the fd itself, so switching to the mode the fd was created in is free
+    private boolean fdBlocking;
+
+    // The fd must already be non-blocking
+    NativeSinkChannel(SelectorProvider provider, int fd) throws IOException {
+        super(provider);
+        this.fd = fd;
+        configureBlocking(false);
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() throws IOException {
+        Native.close(fd);
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        if (block != fdBlocking) {
+            Native.setBlocking(fd, block);
+            fdBlocking = block;
+        }
+    }
+
+    public final int getFD() {
+        return fd;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        int n = Native.write(fd, src);
+        if (n < 0) {
+            int errno = Native.getLastErrno();
+            if (Native.wouldBlock(errno)) {
+                return 0;
+            }
+            throw Native.newException("write", errno);
+        }
+
+        return n;
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long n = Native.write(fd, srcs, offset, length);
+        if (n < 0) {
+            int errno = Native.getLastErrno();
+            if (Native.wouldBlock(errno)) {
+                return 0;
+            }
+            throw Native.newException("write", errno);
+        }
+
+        return n;
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+}
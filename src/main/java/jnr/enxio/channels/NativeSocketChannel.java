@@ -18,19 +18,56 @@
 
 package jnr.enxio.channels;
 
+import jnr.constants.platform.Errno;
 import jnr.constants.platform.Shutdown;
+import jnr.constants.platform.Sock;
+import jnr.constants.platform.SocketLevel;
+import jnr.constants.platform.SocketOption;
+import jnr.ffi.Memory;
+import jnr.ffi.Pointer;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
+import java.nio.channels.AlreadyConnectedException;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.NoConnectionPendingException;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NativeSocketChannel extends AbstractSelectableChannel
-        implements ByteChannel, NativeSelectableChannel {
+        implements ByteChannel, ScatteringByteChannel, GatheringByteChannel, NativeSelectableChannel {
+
+    private static final int ST_UNCONNECTED = 0;
+    private static final int ST_PENDING = 1;
+    private static final int ST_CONNECTED = 2;
+
+    private static final int POLLOUT = 0x4;
+    private static final int EINPROGRESS = Errno.EINPROGRESS.intValue();
 
     private final int fd;
     private final int validOps;
+    private final Object stateLock = new Object();
+    private int state;
+    private InetSocketAddress remoteAddress;
+    // The mode of the fd itself when it is known, so switching to that mode is free
+    private boolean fdModeKnown;
+    private boolean fdBlocking;
+    // The channel's registration with the shared poller, see NativePoller
+    private final Object pollLock = new Object();
+    private NativePoller.Registration polled;
+    private boolean pollClosed;
+    // Threads waiting in a blocking connect or poll, which close wakes by shutting the socket down
+    private final AtomicInteger blockedThreads = new AtomicInteger();
 
     public NativeSocketChannel(int fd) {
         this(NativeSelectorProvider.getInstance(), fd, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
@@ -44,16 +81,63 @@ public class NativeSocketChannel extends AbstractSelectableChannel
         super(provider);
         this.fd = fd;
         this.validOps = ops;
+        // A wrapped fd is assumed to be connected already
+        this.state = ST_CONNECTED;
+    }
+
+    // For sockets created by this library, either freshly opened and blocking unless the
+    // poller mode keeps them non-blocking, or accepted and already non-blocking
+    NativeSocketChannel(SelectorProvider provider, int fd, int ops, boolean accepted) throws IOException {
+        super(provider);
+        this.fd = fd;
+        this.validOps = ops;
+        this.state = accepted ? ST_CONNECTED : ST_UNCONNECTED;
+        this.fdModeKnown = true;
+        this.fdBlocking = !accepted && !NativePoller.ENABLED;
+        if (accepted) {
+            configureBlocking(false);
+        }
+    }
+
+    /**
+     * Opens an unconnected IPv4 socket.
+     */
+    public static NativeSocketChannel open() throws IOException {
+        return open(StandardProtocolFamily.INET);
+    }
+
+    /**
+     * Opens an unconnected socket of the given family.
+     */
+    public static NativeSocketChannel open(ProtocolFamily family) throws IOException {
+        int fd = Native.socket(SockAddr.af(family), Sock.SOCK_STREAM.intValue(), NativePoller.ENABLED);
+        return new NativeSocketChannel(NativeSelectorProvider.getInstance(), fd,
+                SelectionKey.OP_READ | SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT, false);
     }
 
     @Override
     protected void implCloseSelectableChannel() throws IOException {
-       Native.close(fd);
+        synchronized (pollLock) {
+            pollClosed = true;
+            if (polled != null) {
+                polled.release();
+            }
+        }
+        if (blockedThreads.get() > 0) {
+            Native.shutdown(fd, SHUT_RDWR);
+        }
+        Native.close(fd);
     }
 
     @Override
     protected void implConfigureBlocking(boolean block) throws IOException {
-        Native.setBlocking(fd, block);
+        // In the poller mode blocking is done by parking, the fd itself never blocks
+        block = block && !NativePoller.ENABLED;
+        if (!fdModeKnown || block != fdBlocking) {
+            Native.setBlocking(fd, block);
+            fdModeKnown = true;
+            fdBlocking = block;
+        }
     }
 
     @Override
@@ -64,37 +148,452 @@ public class NativeSocketChannel extends AbstractSelectableChannel
         return fd;
     }
 
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static NativeException error(String call) {
+        return Native.newException(call, Native.getLastErrno());
+    }
+
+    /**
+     * In the poller mode, waits for {@code op} when a call on a blocking channel got EAGAIN.
+     * Must come straight after the failed call, while errno is still intact.
+     *
+     * @return true if the call should be retried, false to handle errno as usual
+     */
+    private boolean awaitReady(int op) throws IOException {
+        if (!NativePoller.ENABLED || !Native.wouldBlock(Native.getLastErrno()) || !isBlocking()) {
+            return false;
+        }
+        await(op);
+        return true;
+    }
+
+    private void await(int op) throws IOException {
+        NativePoller.Registration registration;
+        synchronized (pollLock) {
+            if (pollClosed) {
+                throw new ClosedChannelException();
+            }
+            if (polled == null) {
+                polled = NativePoller.getInstance().register(fd);
+            }
+            registration = polled;
+        }
+
+        boolean ready = false;
+        try {
+            begin();
+            ready = registration.await(op);
+        } finally {
+            // Throws if the channel was closed or the thread interrupted while waiting
+            end(ready);
+        }
+    }
+
+    /**
+     * Connects the socket.
+     *
+     * In non-blocking mode the connection is usually still in progress when this returns;
+     * wait for {@link SelectionKey#OP_CONNECT} and then call {@link #finishConnect()}.
+     *
+     * @return true if the connection was established, false if it is still in progress
+     */
+    public boolean connect(SocketAddress remote) throws IOException {
+        InetSocketAddress address;
+        Pointer sockaddr;
+        int len;
+        synchronized (stateLock) {
+            ensureOpen();
+            if (state == ST_CONNECTED) {
+                throw new AlreadyConnectedException();
+            }
+            if (state == ST_PENDING) {
+                throw new ConnectionPendingException();
+            }
+
+            address = SockAddr.check(remote);
+            sockaddr = Memory.allocateDirect(Native.getRuntime(), SockAddr.STORAGE_SIZE);
+            len = SockAddr.put(sockaddr, 0, SockAddr.family(fd), address);
+            // Claimed before the call, which may block without the lock held
+            state = ST_PENDING;
+            remoteAddress = address;
+        }
+
+        boolean blocking = isBlocking() && !NativePoller.ENABLED;
+        int rc = -1;
+        int errno = 0;
+        try {
+            if (blocking) {
+                enterBlocking();
+            }
+            rc = Native.libc().connect(fd, sockaddr, len);
+            if (rc < 0) {
+                errno = Native.getLastErrno();
+            }
+        } finally {
+            if (blocking) {
+                leaveBlocking(rc == 0);
+            }
+        }
+
+        synchronized (stateLock) {
+            if (rc == 0) {
+                state = ST_CONNECTED;
+                return true;
+            }
+            // An interrupted connect carries on in the background, just like a non-blocking one
+            if (errno != EINPROGRESS && errno != Native.EINTR) {
+                state = ST_UNCONNECTED;
+                remoteAddress = null;
+                throw Native.newException("connect", errno);
+            }
+        }
+
+        return isBlocking() ? finishConnect() : false;
+    }
+
+    /**
+     * Completes a connection started by {@link #connect(SocketAddress)}.  In blocking mode this
+     * waits for the connection to be established.
+     *
+     * @return true if the socket is connected, false if the connection is still in progress
+     */
+    public boolean finishConnect() throws IOException {
+        boolean block;
+        synchronized (stateLock) {
+            ensureOpen();
+            if (state == ST_CONNECTED) {
+                return true;
+            }
+            if (state != ST_PENDING) {
+                throw new NoConnectionPendingException();
+            }
+            block = isBlocking();
+        }
+
+        // Wait without the lock, so the addresses, shutdown and close stay available meanwhile
+        Pointer pollfd = Memory.allocateDirect(Native.getRuntime(), 8);
+        pollfd.putInt(0, fd);
+        pollfd.putShort(4, (short) POLLOUT);
+        int n;
+        for (;;) {
+            n = pollConnect(pollfd, block && !NativePoller.ENABLED);
+            if (n != 0 || !block) {
+                break;
+            }
+            await(SelectionKey.OP_WRITE);
+        }
+        if (n == 0) {
+            return false;
+        }
+
+        synchronized (stateLock) {
+            ensureOpen();
+            if (state == ST_CONNECTED) {
+                return true;
+            }
+            if (state != ST_PENDING) {
+                throw new NoConnectionPendingException();
+            }
+
+            Pointer val = Memory.allocateDirect(Native.getRuntime(), 4);
+            Pointer length = Memory.allocateDirect(Native.getRuntime(), 4);
+            length.putInt(0, 4);
+            if (Native.libc().getsockopt(fd, SocketLevel.SOL_SOCKET.intValue(), SocketOption.SO_ERROR.intValue(), val, length) < 0) {
+                throw error("getsockopt");
+            }
+            int err = val.getInt(0);
+            if (err != 0) {
+                // As with the JDK, a failed connection leaves nothing worth keeping open
+                state = ST_UNCONNECTED;
+                close();
+                throw Native.newException("connect", err);
+            }
+            state = ST_CONNECTED;
+            return true;
+        }
+    }
+
+    /**
+     * Polls for the end of a pending connect, waiting for it when {@code wait} is true.
+     *
+     * @return the number of ready descriptors, zero if the connection is still in progress
+     */
+    private int pollConnect(Pointer pollfd, boolean wait) throws IOException {
+        int n = -1;
+        try {
+            if (wait) {
+                enterBlocking();
+            }
+            do {
+                n = Native.libc().poll(pollfd, 1, wait ? -1 : 0);
+            } while (n < 0 && Native.getLastErrno() == Native.EINTR);
+            if (n < 0) {
+                throw error("poll");
+            }
+        } finally {
+            if (wait) {
+                leaveBlocking(n > 0 && isOpen());
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Brackets a system call that may block on the fd, so an interrupt or an asynchronous
+     * close ends it.
+     */
+    private void enterBlocking() {
+        blockedThreads.incrementAndGet();
+        begin();
+    }
+
+    private void leaveBlocking(boolean completed) throws IOException {
+        blockedThreads.decrementAndGet();
+        // Throws if the channel was closed or the thread interrupted meanwhile
+        end(completed);
+    }
+
+    public boolean isConnected() {
+        synchronized (stateLock) {
+            return state == ST_CONNECTED;
+        }
+    }
+
+    public boolean isConnectionPending() {
+        synchronized (stateLock) {
+            return state == ST_PENDING;
+        }
+    }
+
+    /**
+     * Returns the address the socket is bound to, or null if it is not bound.
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        ensureOpen();
+        return SockAddr.localAddress(fd);
+    }
+
+    /**
+     * Returns the address of the peer, or null if the socket is not connected.
+     */
+    public InetSocketAddress getRemoteAddress() throws IOException {
+        synchronized (stateLock) {
+            ensureOpen();
+            if (state != ST_CONNECTED) {
+                return null;
+            }
+            if (remoteAddress == null) {
+                remoteAddress = SockAddr.remoteAddress(fd);
+            }
+            return remoteAddress;
+        }
+    }
+
     public int read(ByteBuffer dst) throws IOException {
-        int n = Native.read(fd, dst);
-        switch (n) {
-            case 0:
-                return -1;
+        for (;;) {
+            int n = Native.read(fd, dst);
+            switch (n) {
+                case 0:
+                    return -1;
 
-            case -1:
-                switch (Native.getLastError()) {
-                    case EAGAIN:
-                    case EWOULDBLOCK:
+                case -1:
+                    if (awaitReady(SelectionKey.OP_READ)) {
+                        continue;
+                    }
+                    int errno = Native.getLastErrno();
+                    if (Native.wouldBlock(errno)) {
                         return 0;
+                    }
+                    throw Native.newException("read", errno);
 
-                    default:
-                        throw new IOException(Native.getLastErrorString());
+                default:
+                    return n;
+            }
+        }
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        int total = 0;
+        for (;;) {
+            int n = Native.write(fd, src);
+            if (n < 0) {
+                if (awaitReady(SelectionKey.OP_WRITE)) {
+                    continue;
                 }
+                int errno = Native.getLastErrno();
+                if (Native.wouldBlock(errno)) {
+                    return total;
+                }
+                throw Native.newException("write", errno);
+            }
 
-            default:
-                return n;
+            total += n;
+            // Like a blocking fd, the poller mode only returns once everything is written
+            if (!NativePoller.ENABLED || !src.hasRemaining() || !isBlocking()) {
+                return total;
+            }
         }
     }
 
-    public int write(ByteBuffer src) throws IOException {
-        int n = Native.write(fd, src);
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        for (;;) {
+            long n = Native.read(fd, dsts, offset, length);
+            if (n == 0 && Native.hasRemaining(dsts, offset, length)) {
+                return -1;
+            }
+            if (n < 0 && awaitReady(SelectionKey.OP_READ)) {
+                continue;
+            }
+            return vectorResult(n, "readv");
+        }
+    }
+
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    /**
+     * Reads into native memory regions given as address and length pairs, with one system call.
+     *
+     * @return the number of bytes read, 0 if none are available right now, or -1 at end of stream
+     */
+    public long read(long[] addresses, long[] lengths, int offset, int length) throws IOException {
+        for (;;) {
+            long n = Native.read(fd, addresses, lengths, offset, length);
+            if (n == 0 && length > 0) {
+                return -1;
+            }
+            if (n < 0 && awaitReady(SelectionKey.OP_READ)) {
+                continue;
+            }
+            return vectorResult(n, "readv");
+        }
+    }
+
+    /**
+     * Reads into direct pointers, {@code lengths[i]} bytes at most into {@code dsts[i]}.
+     */
+    public long read(Pointer[] dsts, long[] lengths) throws IOException {
+        return read(Native.addresses(dsts), lengths, 0, dsts.length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (;;) {
+            long n = Native.write(fd, srcs, offset, length);
+            if (n < 0 && awaitReady(SelectionKey.OP_WRITE)) {
+                continue;
+            }
+            n = vectorResult(n, "writev");
+            total += n;
+            if (!NativePoller.ENABLED || n == 0 || !Native.hasRemaining(srcs, offset, length) || !isBlocking()) {
+                return total;
+            }
+        }
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Writes native memory regions given as address and length pairs, with one system call.
+     */
+    public long write(long[] addresses, long[] lengths, int offset, int length) throws IOException {
+        for (;;) {
+            long n = Native.write(fd, addresses, lengths, offset, length);
+            if (n < 0 && awaitReady(SelectionKey.OP_WRITE)) {
+                continue;
+            }
+            return vectorResult(n, "writev");
+        }
+    }
+
+    /**
+     * Writes {@code lengths[i]} bytes from each of the direct pointers in {@code srcs}.
+     */
+    public long write(Pointer[] srcs, long[] lengths) throws IOException {
+        return write(Native.addresses(srcs), lengths, 0, srcs.length);
+    }
+
+    /**
+     * Sends up to {@code count} bytes of the file {@code fileFd}, starting at {@code position},
+     * with sendfile(2) so the data never passes through user space.  The file offset is not
+     * changed.
+     *
+     * In non-blocking mode this sends what the socket can take; when the result is less than
+     * {@code count} and the end of the file was not reached, wait for {@link SelectionKey#OP_WRITE}
+     * and call again with the position advanced by the bytes already sent.
+     *
+     * @return the number of bytes sent, possibly zero
+     */
+    public long transferFrom(int fileFd, long position, long count) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        return Native.sendfile(fd, fileFd, position, count);
+    }
+
+    /**
+     * Sends up to {@code count} bytes of a file opened as a native channel, starting at
+     * {@code position}, with sendfile(2) as {@link #transferFrom(int, long, long)} does.
+     */
+    public long transferFrom(NativeDeviceChannel src, long position, long count) throws IOException {
+        if (!src.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        return transferFrom(src.getFD(), position, count);
+    }
+
+    /**
+     * Sends up to {@code count} bytes of {@code src}, starting at {@code position}, as
+     * {@link #transferFrom(int, long, long)} does.
+     *
+     * The descriptor of a JDK file channel is only reachable through JDK internals.  On JDK 16
+     * and newer the JVM must be started with
+     * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-opens java.base/java.io=ALL-UNNAMED},
+     * otherwise the data is copied through a buffer instead of sent with sendfile(2).  Use
+     * {@link #transferFrom(NativeDeviceChannel, long, long)} or the descriptor overload to
+     * always get the zero-copy path.
+     */
+    public long transferFrom(FileChannel src, long position, long count) throws IOException {
+        int fileFd = Native.getFD(src);
+        if (fileFd >= 0) {
+            return transferFrom(fileFd, position, count);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, Native.STAGING_SIZE));
+        long total = 0;
+        while (total < count) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - total));
+            int n = src.read(buf, position + total);
+            if (n <= 0) {
+                break;
+            }
+            buf.flip();
+            int written = write(buf);
+            total += written;
+            if (written < n) {
+                break;
+            }
+        }
+
+        return total;
+    }
+
+    private static long vectorResult(long n, String call) throws IOException {
         if (n < 0) {
-            switch (Native.getLastError()) {
-                case EAGAIN:
-                case EWOULDBLOCK:
-                    return 0;
-            default:
-                throw new IOException(Native.getLastErrorString());
+            int errno = Native.getLastErrno();
+            if (Native.wouldBlock(errno)) {
+                return 0;
             }
+            throw Native.newException(call, errno);
         }
 
         return n;
@@ -103,17 +602,18 @@ public class NativeSocketChannel extends AbstractSelectableChannel
     public void shutdownInput() throws IOException {
         int n = Native.shutdown(fd, SHUT_RD);
         if (n < 0) {
-            throw new IOException(Native.getLastErrorString());
+            throw error("shutdown");
         }
     }
     
     public void shutdownOutput() throws IOException {
         int n = Native.shutdown(fd, SHUT_WR);
         if (n < 0) {
-            throw new IOException(Native.getLastErrorString());
+            throw error("shutdown");
         }
     }
     
     private final static int SHUT_RD = Shutdown.SHUT_RD.intValue();
     private final static int SHUT_WR = Shutdown.SHUT_WR.intValue();
+    private final static int SHUT_RDWR = Shutdown.SHUT_RDWR.intValue();
 }
@@ -0,0 +1,93 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jnr.enxio.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * The readable end of a {@link NativePipe}.
+ */
+public class NativeSourceChannel extends Pipe.SourceChannel implements NativeSelectableChannel {
+
+    private final int fd;
+    // The mode of the fd itself, so switching to the mode the fd was created in is free
+    private boolean fdBlocking;
+
+    // The fd must already be non-blocking
+    NativeSourceChannel(SelectorProvider provider, int fd) throws IOException {
+        super(provider);
+        this.fd = fd;
+        configureBlocking(false);
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() throws IOException {
+        Native.close(fd);
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        if (block != fdBlocking) {
+            Native.setBlocking(fd, block);
+            fdBlocking = block;
+        }
+    }
+
+    public final int getFD() {
+        return fd;
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        int n = Native.read(fd, dst);
+        switch (n) {
+            case 0:
+                return dst.hasRemaining() ? -1 : 0;
+
+            case -1:
+                int errno = Native.getLastErrno();
+                if (Native.wouldBlock(errno)) {
+                    return 0;
+                }
+                throw Native.newException("read", errno);
+
+            default:
+                return n;
+        }
+    }
+
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long n = Native.read(fd, dsts, offset, length);
+        if (n == 0 && Native.hasRemaining(dsts, offset, length)) {
+            return -1;
+        }
+        if (n < 0) {
+            int errno = Native.getLastErrno();
+            if (Native.wouldBlock(errno)) {
+                return 0;
+            }
+            throw Native.newException("read", errno);
+        }
+
+        return n;
+    }
+
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+}
@@ -20,13 +20,20 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.AbstractSelectionKey;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 class PollSelectionKey extends AbstractSelectionKey {
     private final PollSelector selector;
     private final NativeSelectableChannel channel;
-    private int interestOps = 0;
+    private static final AtomicIntegerFieldUpdater<PollSelectionKey> QUEUED
+            = AtomicIntegerFieldUpdater.newUpdater(PollSelectionKey.class, "queued");
+
+    private volatile int interestOps = 0;
+    // Non-zero while the key is in the selector's change queue
+    private volatile int queued = 0;
     private int readyOps = 0;
     private int index = -1;
+    private int selectedIndex = -1;
     
     public PollSelectionKey(PollSelector selector, NativeSelectableChannel channel) {
         this.selector = selector;
@@ -39,6 +46,18 @@ class PollSelectionKey extends AbstractSelectionKey {
     int getIndex() {
         return index;
     }
+    void setSelectedIndex(int selectedIndex) {
+        this.selectedIndex = selectedIndex;
+    }
+    int getSelectedIndex() {
+        return selectedIndex;
+    }
+    boolean markQueued() {
+        return QUEUED.compareAndSet(this, 0, 1);
+    }
+    void clearQueued() {
+        queued = 0;
+    }
     int getFD() {
         return channel.getFD();
     }
@@ -16,7 +16,7 @@
 
 package jnr.enxio.channels;
 
-import jnr.constants.platform.Errno;
+import jnr.ffi.Pointer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -27,12 +27,19 @@ import java.nio.channels.spi.AbstractSelectableChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * An implementation of a {@link java.nio.channels.Selector} that uses good old
  * poll(2)
+ *
+ * The pollfd array is only touched by the selecting thread.  Registrations and interest set
+ * changes from other threads are queued without locking and applied at the start of the next
+ * select, and the selector is only woken for them while it is blocked in poll(2).
  */
-class PollSelector extends java.nio.channels.spi.AbstractSelector {
+class PollSelector extends java.nio.channels.spi.AbstractSelector implements NativeSelector, NativeReadySet {
     private static final int POLLFD_SIZE = 8;
     private static final int FD_OFFSET = 0;
     private static final int EVENTS_OFFSET = 4;
@@ -43,24 +50,33 @@ class PollSelector extends java.nio.channels.spi.AbstractSelector {
     static final int POLLERR = 0x8;
     static final int POLLHUP = 0x10;
 
+    // Cleared the first time ppoll(2) turns out to be missing from libc
+    private static boolean ppollAvailable = true;
     
     private PollSelectionKey[] keyArray = new PollSelectionKey[0];
     private ByteBuffer pollData = null;
+    private Pointer pollPointer = null;
     private int nfds;
+    private final Native.Timespec timespec = new Native.Timespec();
     
-    private final int[] pipefd = { -1, -1 };
-    private final Object regLock = new Object();
+    private final SelectorMetrics metrics = SelectorMetrics.open("poll");
+    private final SelectorWakeup wakeup = new SelectorWakeup(metrics);
+    // Keys whose interest set changed since the last select, each key is queued at most once
+    private final Queue<PollSelectionKey> changes = new ConcurrentLinkedQueue<PollSelectionKey>();
+    // Set from before the change queue is drained until poll(2) returns
+    private volatile boolean polling;
     
     private final Map<SelectionKey, Boolean> keys = new ConcurrentHashMap<SelectionKey, Boolean>();
-    private final Set<SelectionKey> selected = new HashSet<SelectionKey>();
+    private final Set<SelectionKey> publicKeys = Collections.unmodifiableSet(keys.keySet());
+    private final SelectedKeySet selected = new SelectedKeySet();
 
 
     public PollSelector(SelectorProvider provider) {
         super(provider);
-        Native.libc().pipe(pipefd);
-        // Register the wakeup pipe as the first element in the pollfd array
+        // Register the wakeup fd as the first element in the pollfd array
         pollData = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
-        putPollFD(0, pipefd[0]);
+        pollPointer = Pointer.wrap(Native.getRuntime(), pollData);
+        putPollFD(0, wakeup.getFD());
         putPollEvents(0, POLLIN);
         nfds = 1;
         keyArray = new PollSelectionKey[1];
@@ -92,11 +108,9 @@ class PollSelector extends java.nio.channels.spi.AbstractSelector {
 
     @Override
     protected void implCloseSelector() throws IOException {
-        if (pipefd[0] != -1) {
-            Native.close(pipefd[0]);
-        }
-        if (pipefd[1] != -1) {
-            Native.close(pipefd[1]);
+        wakeup.close();
+        if (SelectorMetrics.ENABLED) {
+            metrics.close();
         }
 
         // remove all keys
@@ -108,15 +122,19 @@ class PollSelector extends java.nio.channels.spi.AbstractSelector {
     @Override
     protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
         PollSelectionKey key = new PollSelectionKey(this, (NativeSelectableChannel) ch);
-        add(key);
         key.attach(att);
+        keys.put(key, true);
+        if (SelectorMetrics.ENABLED) {
+            metrics.keyRegistered();
+        }
+        // The first change applied adds the key to the pollfd array
         key.interestOps(ops);
         return key;
     }
 
     @Override
     public Set<SelectionKey> keys() {
-        return new HashSet<SelectionKey>(Arrays.asList(keyArray).subList(1, nfds));
+        return publicKeys;
     }
 
     @Override
@@ -125,7 +143,19 @@ class PollSelector extends java.nio.channels.spi.AbstractSelector {
     }
 
 
+    /**
+     * Queues an interest set change, called by the key after it has stored the new set.
+     */
     void interestOps(PollSelectionKey k, int ops) {
+        if (k.markQueued()) {
+            changes.offer(k);
+            if (polling) {
+                wakeup();
+            }
+        }
+    }
+
+    private static short events(int ops) {
         short events = 0;
         if ((ops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ)) != 0) {
             events |= POLLIN;
@@ -133,36 +163,52 @@ class PollSelector extends java.nio.channels.spi.AbstractSelector {
         if ((ops & (SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT)) != 0) {
             events |= POLLOUT;
         }
-        putPollEvents(k.getIndex(), events);
+        return events;
     }
 
+    /**
+     * Applies the queued interest set changes, adding newly registered keys to the pollfd array.
+     */
+    private void applyChanges() {
+        PollSelectionKey k;
+        while ((k = changes.poll()) != null) {
+            // Cleared before the set is read, so a change racing with this one queues the key again
+            k.clearQueued();
+            if (!k.isValid()) {
+                continue;
+            }
+            if (k.getIndex() < 0) {
+                add(k);
+            }
+            putPollEvents(k.getIndex(), events(k.interestOps()));
+        }
+    }
 
     private void add(PollSelectionKey k) {
-        synchronized (regLock) {
-            ++nfds;
-            if (keyArray.length < nfds) {
-                PollSelectionKey[] newArray = new PollSelectionKey[nfds + (nfds / 2)];
-                System.arraycopy(keyArray, 0, newArray, 0, nfds - 1);
-                keyArray = newArray;
-                ByteBuffer newBuffer = ByteBuffer.allocateDirect(newArray.length * 8);
-                if (pollData != null) {
-                    newBuffer.put(pollData);
-                }
-                newBuffer.position(0);
-                pollData = newBuffer.order(ByteOrder.nativeOrder());
+        ++nfds;
+        if (keyArray.length < nfds) {
+            PollSelectionKey[] newArray = new PollSelectionKey[nfds + (nfds / 2)];
+            System.arraycopy(keyArray, 0, newArray, 0, nfds - 1);
+            keyArray = newArray;
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect(newArray.length * 8);
+            if (pollData != null) {
+                newBuffer.put(pollData);
             }
-            k.setIndex(nfds - 1);
-            keyArray[nfds - 1] = k;
-            putPollFD(k.getIndex(), k.getFD());
-            putPollEvents(k.getIndex(), 0);
-            keys.put(k, true);
+            newBuffer.position(0);
+            pollData = newBuffer.order(ByteOrder.nativeOrder());
+            pollPointer = Pointer.wrap(Native.getRuntime(), pollData);
         }
+        k.setIndex(nfds - 1);
+        keyArray[nfds - 1] = k;
+        putPollFD(k.getIndex(), k.getFD());
+        putPollEvents(k.getIndex(), 0);
     }
 
 
     private void remove(PollSelectionKey k) {
         int idx = k.getIndex();
-        synchronized (regLock) {
+        // A key cancelled before its registration was applied never made it into the array
+        if (idx >= 0) {
             //
             // If not the last key, swap last one into the removed key's position
             //
@@ -179,107 +225,262 @@ class PollSelector extends java.nio.channels.spi.AbstractSelector {
             }
             keyArray[nfds - 1] = null;
             --nfds;
-            synchronized (selected) {
-                selected.remove(k);
-            }
-            keys.remove(k);
+            k.setIndex(-1);
+        }
+        synchronized (selected) {
+            selected.remove(k);
         }
+        keys.remove(k);
         deregister(k);
+        if (SelectorMetrics.ENABLED) {
+            metrics.keysRemoved(1);
+        }
     }
 
 
     @Override
     public int selectNow() throws IOException {
-        return poll(0);
+        return poll(0, null);
     }
 
 
     @Override
     public int select(long timeout) throws IOException {
-        return poll(timeout > 0 ? timeout : -1);
+        return poll(timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1, null);
     }
 
 
     @Override
     public int select() throws IOException {
-        return poll(-1);
+        return poll(-1, null);
+    }
+
+
+    public int selectNanos(long timeoutNanos) throws IOException {
+        return poll(timeoutNanos, null);
     }
 
 
-    private int poll(long timeout) throws IOException {
+    /**
+     * Selects, handing each ready key to {@code action} instead of adding it to the selected-key
+     * set.  Declared without {@code @Override} so this builds for Java 8; on Java 11 and later
+     * it overrides {@code Selector.select(Consumer, long)}.
+     *
+     * @return the number of keys handed to {@code action}
+     */
+    public int select(Consumer<SelectionKey> action, long timeout) throws IOException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        return poll(timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1, checkAction(action));
+    }
+
+
+    public int select(Consumer<SelectionKey> action) throws IOException {
+        return poll(-1, checkAction(action));
+    }
+
+
+    public int selectNow(Consumer<SelectionKey> action) throws IOException {
+        return poll(0, checkAction(action));
+    }
+
+
+    private static Consumer<SelectionKey> checkAction(Consumer<SelectionKey> action) {
+        if (action == null) {
+            throw new NullPointerException("action");
+        }
+        return action;
+    }
+
+
+    /**
+     * Copies the ready descriptors straight out of the pollfd array.  Keys are neither
+     * selected nor updated, except that a {@link NativeSelectionKeys#ONE_SHOT} key is disarmed.
+     */
+    public int selectInto(int[] fds, int[] ops, long timeoutNanos) throws IOException {
+        if (fds.length == 0 || ops.length < fds.length) {
+            throw new IllegalArgumentException("fds is empty or ops is shorter than fds");
+        }
+        int remaining = pollNative(timeoutNanos);
+
+        int n = 0;
+        for (int idx = 1; idx < nfds && remaining > 0 && n < fds.length; ++idx) {
+            int revents = getPollRevents(idx);
+            if (revents == 0) {
+                continue;
+            }
+            --remaining;
+            putPollRevents(idx, 0);
+            PollSelectionKey k = keyArray[idx];
+            if (k == null || !k.isValid()) {
+                continue;
+            }
+            if ((k.interestOps() & NativeSelectionKeys.ONE_SHOT) != 0) {
+                putPollEvents(idx, 0);
+            }
+
+            int ready = 0;
+            if ((revents & (POLLIN | POLLHUP | POLLERR)) != 0) {
+                ready |= SelectionKey.OP_READ;
+            }
+            if ((revents & (POLLOUT | POLLHUP | POLLERR)) != 0) {
+                ready |= SelectionKey.OP_WRITE;
+            }
+            fds[n] = getPollFD(idx);
+            ops[n++] = ready;
+        }
+
+        if (SelectorMetrics.ENABLED) {
+            metrics.selected(n);
+        }
+        return n;
+    }
+
+    /**
+     * Polls and reports the ready keys to {@code action}, or adds them to the selected-key set
+     * when it is null.
+     */
+    private int poll(long timeoutNanos, Consumer<SelectionKey> action) throws IOException {
+        int remaining = pollNative(timeoutNanos);
+        if (remaining < 1) {
+            if (SelectorMetrics.ENABLED) {
+                metrics.selected(0);
+            }
+            return remaining;
+        }
+
+        //
+        // Walk the pollfd array in step with keyArray, stopping as soon as all of
+        // the descriptors poll(2) reported have been seen
+        //
+        int updatedKeyCount = 0;
+        for (int idx = 1; idx < nfds && remaining > 0; ++idx) {
+            int revents = getPollRevents(idx);
+            if (revents == 0) {
+                continue;
+            }
+            --remaining;
+            putPollRevents(idx, 0);
+
+            PollSelectionKey k = keyArray[idx];
+            if (k == null || !k.isValid()) {
+                continue;
+            }
+            int iops = k.interestOps();
+            int ops = 0;
+
+            if ((revents & POLLIN) != 0) {
+                ops |= iops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ);
+            }
+
+            if ((revents & POLLOUT) != 0) {
+                ops |= iops & (SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE);
+            }
+
+            // If an error occurred, enable all interested ops and let the
+            // event handling code deal with it
+            if ((revents & (POLLHUP | POLLERR)) != 0) {
+                ops = iops & NativeSelectionKeys.STANDARD_OPS;
+            }
+
+            // One-shot keys stay quiet until their interest set is written again
+            if ((iops & NativeSelectionKeys.ONE_SHOT) != 0) {
+                putPollEvents(idx, 0);
+            }
+
+            k.readyOps(ops);
+            ++updatedKeyCount;
+            if (action != null) {
+                action.accept(k);
+            } else {
+                selected.addKey(k);
+            }
+        }
+
+        if (SelectorMetrics.ENABLED) {
+            metrics.selected(updatedKeyCount);
+        }
+        return updatedKeyCount;
+    }
+
+    /**
+     * Runs one poll(2) cycle: removes cancelled keys, applies queued changes, polls and drains
+     * the wakeup source.
+     *
+     * @return the number of ready descriptors, not counting the wakeup source
+     */
+    private int pollNative(long timeoutNanos) throws IOException {
         //
         // Remove any cancelled keys
         //
         Set<SelectionKey> cancelled = cancelledKeys();
         synchronized (cancelled) {
-            for (SelectionKey k : cancelled) {
-                remove((PollSelectionKey) k);
+            // Checked first so the common case does not create an iterator
+            if (!cancelled.isEmpty()) {
+                for (SelectionKey k : cancelled) {
+                    remove((PollSelectionKey) k);
+                }
+                if (SelectorMetrics.ENABLED) {
+                    metrics.cancelled(cancelled.size());
+                }
+                cancelled.clear();
             }
-            cancelled.clear();
         }
 
+        //
+        // Announce the poll before draining the change queue: a change queued after the drain
+        // then always sees the flag and wakes the poll up
+        //
+        polling = timeoutNanos != 0;
+        applyChanges();
+
         int nready = 0;
+        long start = SelectorMetrics.ENABLED ? metrics.beforeSelect() : 0;
         try {
             begin();
 
             do {
-                nready = Native.libc().poll(pollData, nfds, (int) timeout);
-            } while (nready < 0 && Errno.EINTR.equals(Errno.valueOf(Native.getRuntime().getLastError())));
+                nready = timeoutNanos > 0
+                        ? ppoll(timeoutNanos) : Native.libc().poll(pollPointer, nfds, timeoutNanos < 0 ? -1 : 0);
+            } while (nready < 0 && Native.getLastErrno() == Native.EINTR);
 
         } finally {
+            polling = false;
             end();
         }
-
-        if (nready < 1) {
-            return nready;
-        }
-
-        if ((getPollRevents(0) & POLLIN) != 0) {
-            wakeupReceived();
+        if (SelectorMetrics.ENABLED) {
+            metrics.afterSelect(start);
         }
 
-        int updatedKeyCount = 0;
-        for (SelectionKey k : keys.keySet()) {
-            PollSelectionKey pk = (PollSelectionKey) k;
-            int revents = getPollRevents(pk.getIndex());
-            if (revents != 0) {
-                putPollRevents(pk.getIndex(), 0);
-                int iops = k.interestOps();
-                int ops = 0;
-
-                if ((revents & POLLIN) != 0) {
-                    ops |= iops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ);
-                }
-
-                if ((revents & POLLOUT) != 0) {
-                    ops |= iops & (SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE);
-                }
-
-                // If an error occurred, enable all interested ops and let the
-                // event handling code deal with it
-                if ((revents & (POLLHUP | POLLERR)) != 0) {
-                    ops = iops;
-                }
-
-                ((PollSelectionKey) k).readyOps(ops);
-                ++updatedKeyCount;
-                if (!selected.contains(k)) {
-                    selected.add(k);
-                }
+        if (nready > 0 && getPollRevents(0) != 0) {
+            --nready;
+            if ((getPollRevents(0) & POLLIN) != 0) {
+                wakeup.drain();
             }
         }
-
-        return updatedKeyCount;
+        return nready;
     }
 
-    private void wakeupReceived() throws IOException {
-        Native.read(pipefd[0], ByteBuffer.allocate(1));
+    /**
+     * Waits with ppoll(2) so a timeout is not rounded up to whole milliseconds, or with poll(2)
+     * where ppoll is missing.
+     */
+    private int ppoll(long timeoutNanos) {
+        if (ppollAvailable) {
+            try {
+                return Native.libc().ppoll(pollPointer, nfds, Native.timespec(timespec, timeoutNanos), null);
+            } catch (UnsatisfiedLinkError ex) {
+                ppollAvailable = false;
+            }
+        }
+        return Native.libc().poll(pollPointer, nfds, Native.timeoutMillis(timeoutNanos));
     }
 
     @Override
     public Selector wakeup() {
         try {
-            Native.write(pipefd[1], ByteBuffer.allocate(1));
+            wakeup.wakeup();
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
@@ -0,0 +1,143 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.nio.channels.SelectionKey;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The selected-key set of a {@link PollSelector}.
+ *
+ * Keys live in a plain array and each key remembers its own slot, so adding, testing and
+ * removing keys are all constant time and never allocate.  Like the JDK selected-key sets,
+ * keys can be removed but not added by callers.
+ */
+final class SelectedKeySet extends AbstractSet<SelectionKey> {
+    private PollSelectionKey[] keys = new PollSelectionKey[16];
+    private int size;
+    private int modCount;
+
+    /**
+     * Adds a key on behalf of the selector.
+     *
+     * @return true if the key was not already selected
+     */
+    boolean addKey(PollSelectionKey k) {
+        if (k.getSelectedIndex() >= 0) {
+            return false;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        k.setSelectedIndex(size);
+        keys[size++] = k;
+        ++modCount;
+        return true;
+    }
+
+    @Override
+    public boolean add(SelectionKey k) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof PollSelectionKey)) {
+            return false;
+        }
+        int idx = ((PollSelectionKey) o).getSelectedIndex();
+        return idx >= 0 && idx < size && keys[idx] == o;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        removeAt(((PollSelectionKey) o).getSelectedIndex());
+        return true;
+    }
+
+    private void removeAt(int idx) {
+        keys[idx].setSelectedIndex(-1);
+        // Move the last key into the hole
+        PollSelectionKey last = keys[--size];
+        keys[size] = null;
+        if (idx < size) {
+            keys[idx] = last;
+            last.setSelectedIndex(idx);
+        }
+        ++modCount;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i].setSelectedIndex(-1);
+            keys[i] = null;
+        }
+        size = 0;
+        ++modCount;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int cursor = 0;
+            private int last = -1;
+            private int expectedModCount = modCount;
+
+            public boolean hasNext() {
+                return cursor < size;
+            }
+
+            public SelectionKey next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (cursor >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = cursor;
+                return keys[cursor++];
+            }
+
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                // The last key moves into the removed slot, so visit that slot again
+                removeAt(last);
+                cursor = last;
+                last = -1;
+                expectedModCount = modCount;
+            }
+        };
+    }
+}
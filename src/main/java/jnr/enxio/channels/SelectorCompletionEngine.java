@@ -0,0 +1,300 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Errno;
+import jnr.ffi.LastError;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A {@link NativeCompletionEngine} that waits for readiness with a selector and then
+ * performs each operation with its own system call.  Used where io_uring is not available.
+ */
+final class SelectorCompletionEngine extends NativeCompletionEngine {
+    private static final int EAGAIN = Errno.EAGAIN.intValue();
+    private static final int EWOULDBLOCK = Errno.EWOULDBLOCK.intValue();
+    private static final int EINTR = Errno.EINTR.intValue();
+    private static final int EBADF = Errno.EBADF.intValue();
+    private static final int ENOBUFS = Errno.ENOBUFS.intValue();
+    private static final int ECANCELED = Errno.ECANCELED.intValue();
+
+    /** Operations waiting on one channel */
+    private static final class Pending {
+        final ArrayDeque<Integer> reads = new ArrayDeque<Integer>();
+        final ArrayDeque<Integer> writes = new ArrayDeque<Integer>();
+    }
+
+    private final Selector selector;
+
+    // Operations queued since the last submit
+    private int[] queued = new int[16];
+    private int queuedCount;
+
+    // Operations that completed without the kernel, e.g. cancelled ones
+    private int[] finishedSlots = new int[16];
+    private int[] finishedResults = new int[16];
+    private int finishedCount;
+
+    private int[] freeBuffers = new int[0];
+    private int freeBufferCount;
+
+    SelectorCompletionEngine(Selector selector) {
+        this.selector = selector;
+    }
+
+    private static int errno() {
+        return LastError.getLastError(Native.getRuntime());
+    }
+
+    @Override
+    void queued(int slot) {
+        if (queuedCount == queued.length) {
+            queued = Arrays.copyOf(queued, queued.length * 2);
+        }
+        queued[queuedCount++] = slot;
+    }
+
+    @Override
+    void provide(int firstBufferId, int count) {
+        if (freeBuffers.length < bufferCount()) {
+            freeBuffers = Arrays.copyOf(freeBuffers, bufferCount());
+        }
+        for (int i = 0; i < count; i++) {
+            freeBuffers[freeBufferCount++] = firstBufferId + i;
+        }
+    }
+
+    private void finish(int slot, int result) {
+        if (finishedCount == finishedSlots.length) {
+            finishedSlots = Arrays.copyOf(finishedSlots, finishedCount * 2);
+            finishedResults = Arrays.copyOf(finishedResults, finishedCount * 2);
+        }
+        finishedSlots[finishedCount] = slot;
+        finishedResults[finishedCount++] = result;
+    }
+
+    @Override
+    public void cancel(long op) {
+        int slot = slot(op);
+        if (slot < 0) {
+            return;
+        }
+        for (int i = 0; i < queuedCount; i++) {
+            if (queued[i] == slot) {
+                System.arraycopy(queued, i + 1, queued, i, --queuedCount - i);
+                finish(slot, -ECANCELED);
+                return;
+            }
+        }
+        SelectionKey key = ((SelectableChannel) channel(slot)).keyFor(selector);
+        if (key != null) {
+            Pending pending = (Pending) key.attachment();
+            if (pending.reads.remove(slot) || pending.writes.remove(slot)) {
+                finish(slot, -ECANCELED);
+                updateInterest(key, pending);
+            }
+        }
+    }
+
+    @Override
+    public int submit() throws IOException {
+        int count = queuedCount;
+        for (int i = 0; i < count; i++) {
+            int slot = queued[i];
+            SelectableChannel ch = (SelectableChannel) channel(slot);
+            SelectionKey key = ch.keyFor(selector);
+            try {
+                if (key == null) {
+                    if (ch.isBlocking()) {
+                        ch.configureBlocking(false);
+                    }
+                    key = ch.register(selector, 0, new Pending());
+                }
+            } catch (ClosedChannelException ex) {
+                finish(slot, -EBADF);
+                continue;
+            }
+
+            Pending pending = (Pending) key.attachment();
+            if (kind(slot) == OP_WRITE) {
+                pending.writes.add(slot);
+            } else {
+                pending.reads.add(slot);
+            }
+            updateInterest(key, pending);
+        }
+        queuedCount = 0;
+
+        return count;
+    }
+
+    private static void updateInterest(SelectionKey key, Pending pending) {
+        if (!key.isValid()) {
+            return;
+        }
+        int readOp = (key.channel().validOps() & SelectionKey.OP_ACCEPT) != 0
+                ? SelectionKey.OP_ACCEPT : SelectionKey.OP_READ;
+        int ops = (pending.reads.isEmpty() ? 0 : readOp) | (pending.writes.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    @Override
+    public int complete(CompletionHandler handler, long timeout) throws IOException {
+        submit();
+
+        int count = 0;
+        while (finishedCount > 0) {
+            // Take the entries off first, the handler may cancel more operations
+            int n = finishedCount;
+            int[] slots = Arrays.copyOf(finishedSlots, n);
+            int[] results = Arrays.copyOf(finishedResults, n);
+            finishedCount = 0;
+            for (int i = 0; i < n; i++) {
+                dispatch(handler, slots[i], results[i], 0);
+            }
+            count += n;
+        }
+
+        if (count > 0 || timeout == 0) {
+            selector.selectNow();
+        } else if (timeout < 0) {
+            selector.select();
+        } else {
+            selector.select(timeout);
+        }
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Pending pending = (Pending) key.attachment();
+            if (!key.isValid()) {
+                count += fail(handler, pending.reads) + fail(handler, pending.writes);
+                continue;
+            }
+
+            int ready = key.readyOps();
+            if ((ready & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0) {
+                count += perform(handler, pending.reads);
+            }
+            if ((ready & SelectionKey.OP_WRITE) != 0) {
+                count += perform(handler, pending.writes);
+            }
+            updateInterest(key, pending);
+        }
+
+        return count;
+    }
+
+    private int fail(CompletionHandler handler, ArrayDeque<Integer> ops) {
+        int count = 0;
+        while (!ops.isEmpty()) {
+            dispatch(handler, ops.poll(), -EBADF, 0);
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Runs the operations queued on one side of a channel until one would block.
+     */
+    private int perform(CompletionHandler handler, ArrayDeque<Integer> ops) throws IOException {
+        int count = 0;
+        while (!ops.isEmpty()) {
+            int slot = ops.peek();
+            int kind = kind(slot);
+            int flags = 0;
+            int result;
+
+            if (kind == OP_RECV_MULTISHOT) {
+                if (freeBufferCount == 0) {
+                    ops.poll();
+                    dispatch(handler, slot, -ENOBUFS, 0);
+                    ++count;
+                    continue;
+                }
+                int bufferId = freeBuffers[--freeBufferCount];
+                result = attempt(slot, buffer(bufferId));
+                if (result > 0) {
+                    flags = F_BUFFER | (bufferId << 16);
+                } else {
+                    freeBuffers[freeBufferCount++] = bufferId;
+                }
+            } else {
+                result = attempt(slot, slotBuffer(slot));
+            }
+
+            if (result == -EAGAIN || result == -EWOULDBLOCK) {
+                break;
+            }
+
+            boolean multishot = kind == OP_ACCEPT_MULTISHOT || kind == OP_RECV_MULTISHOT;
+            if (multishot && result > 0 || kind == OP_ACCEPT_MULTISHOT && result == 0) {
+                flags |= F_MORE;
+            } else {
+                ops.poll();
+            }
+            dispatch(handler, slot, result, flags);
+            ++count;
+        }
+
+        return count;
+    }
+
+    private int attempt(int slot, ByteBuffer buffer) {
+        int fd = channel(slot).getFD();
+        int n;
+        switch (kind(slot)) {
+            case OP_WRITE:
+                do {
+                    n = Native.libc().write(fd, buffer, buffer.remaining());
+                } while (n < 0 && errno() == EINTR);
+                break;
+
+            case OP_ACCEPT:
+            case OP_ACCEPT_MULTISHOT:
+                do {
+                    n = Native.accept(fd);
+                } while (n < 0 && errno() == EINTR);
+                break;
+
+            default:
+                do {
+                    n = Native.libc().read(fd, buffer, buffer.remaining());
+                } while (n < 0 && errno() == EINTR);
+                break;
+        }
+
+        return n < 0 ? -errno() : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+    }
+}
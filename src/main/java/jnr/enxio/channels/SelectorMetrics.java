@@ -0,0 +1,182 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The {@link NativeSelectorMXBean} of one selector.
+ *
+ * Everything measured on the select path is only written by the selecting thread, with ordered
+ * stores instead of atomic updates; wakeups and registrations come from any thread and use
+ * striped counters.  Call sites test {@link #ENABLED} first, so with metrics off the JIT drops
+ * them entirely.
+ */
+final class SelectorMetrics implements NativeSelectorMXBean {
+    static final boolean ENABLED = Boolean.getBoolean(NativeSelectorProvider.METRICS_PROPERTY);
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private static final int SELECTS = 0;
+    private static final int BLOCKED = 1;
+    private static final int PROCESSING = 2;
+    private static final int SPURIOUS = 3;
+    private static final int CANCELLED = 4;
+
+    private static final int BUCKETS = 9;
+
+    private final String kind;
+    private final ObjectName name;
+    private final AtomicLongArray counters = new AtomicLongArray(5);
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder wakeupsRequested = new LongAdder();
+    private final LongAdder wakeupsDelivered = new LongAdder();
+    private final LongAdder registered = new LongAdder();
+    // Selecting thread only
+    private long lastReturn;
+
+    SelectorMetrics(String kind) {
+        this.kind = kind;
+        ObjectName objectName = null;
+        try {
+            objectName = new ObjectName("jnr.enxio:type=NativeSelector,name=" + kind + "-" + SEQUENCE.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException ex) {
+            // Metrics are still collected, just not published
+            objectName = null;
+        }
+        this.name = objectName;
+    }
+
+    /**
+     * Returns the metrics of a new selector, or null when metrics are off.
+     */
+    static SelectorMetrics open(String kind) {
+        return ENABLED ? new SelectorMetrics(kind) : null;
+    }
+
+    void close() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException ignored) {
+            }
+        }
+    }
+
+    private void add(AtomicLongArray array, int index, long delta) {
+        array.lazySet(index, array.get(index) + delta);
+    }
+
+    /**
+     * Called by the selecting thread just before the system call.
+     *
+     * @return the start time to hand to {@link #afterSelect(long)}
+     */
+    long beforeSelect() {
+        long now = System.nanoTime();
+        if (lastReturn != 0) {
+            add(counters, PROCESSING, now - lastReturn);
+        }
+        return now;
+    }
+
+    void afterSelect(long start) {
+        long now = System.nanoTime();
+        add(counters, SELECTS, 1);
+        add(counters, BLOCKED, now - start);
+        lastReturn = now;
+    }
+
+    void selected(int readyKeys) {
+        if (readyKeys <= 0) {
+            add(counters, SPURIOUS, 1);
+            add(histogram, 0, 1);
+        } else {
+            add(histogram, Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(readyKeys)), 1);
+        }
+    }
+
+    void cancelled(int count) {
+        add(counters, CANCELLED, count);
+    }
+
+    void keyRegistered() {
+        registered.increment();
+    }
+
+    void keysRemoved(int count) {
+        registered.add(-count);
+    }
+
+    void wakeupRequested() {
+        wakeupsRequested.increment();
+    }
+
+    void wakeupDelivered() {
+        wakeupsDelivered.increment();
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public int getRegisteredKeyCount() {
+        return registered.intValue();
+    }
+
+    public long getSelectCount() {
+        return counters.get(SELECTS);
+    }
+
+    public long getBlockedTimeNanos() {
+        return counters.get(BLOCKED);
+    }
+
+    public long getProcessingTimeNanos() {
+        return counters.get(PROCESSING);
+    }
+
+    public long[] getReadyKeysHistogram() {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = histogram.get(i);
+        }
+        return buckets;
+    }
+
+    public long getWakeupsRequested() {
+        return wakeupsRequested.sum();
+    }
+
+    public long getWakeupsDelivered() {
+        return wakeupsDelivered.sum();
+    }
+
+    public long getSpuriousReturns() {
+        return counters.get(SPURIOUS);
+    }
+
+    public long getCancelledKeysProcessed() {
+        return counters.get(CANCELLED);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The wakeup source shared by the native selectors.
+ *
+ * On linux this is a single eventfd, elsewhere a non-blocking pipe.  Wakeups are coalesced:
+ * only the first {@link #wakeup()} after the selector last drained the source makes a system
+ * call, the rest just see the pending flag and return.
+ */
+final class SelectorWakeup {
+    // linux eventfd(2) flags
+    private static final int EFD_NONBLOCK = 0x800;
+    private static final int EFD_CLOEXEC = 0x80000;
+
+    private static final int DRAIN_SIZE = 128;
+
+    private final int readfd;
+    private final int writefd;
+    private final boolean eventfd;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final SelectorMetrics metrics;
+
+    // Only ever read from, so any thread can write it
+    private final Pointer signal;
+    // Only touched by the selecting thread
+    private final Pointer drainBuffer;
+
+    SelectorWakeup(SelectorMetrics metrics) {
+        this.metrics = metrics;
+        int fd = Platform.getNativePlatform().getOS() == Platform.OS.LINUX
+                ? Native.libc().eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC) : -1;
+        if (fd >= 0) {
+            readfd = writefd = fd;
+            eventfd = true;
+        } else {
+            int[] pipefd = { -1, -1 };
+            Native.libc().pipe(pipefd);
+            Native.setBlocking(pipefd[0], false);
+            Native.setBlocking(pipefd[1], false);
+            readfd = pipefd[0];
+            writefd = pipefd[1];
+            eventfd = false;
+        }
+
+        signal = Memory.allocateDirect(Native.getRuntime(), 8);
+        // An eventfd is written with a counter increment of one
+        signal.putLong(0, 1L);
+        drainBuffer = Memory.allocateDirect(Native.getRuntime(), DRAIN_SIZE);
+    }
+
+    /**
+     * Returns the descriptor the selector should poll for readability.
+     */
+    int getFD() {
+        return readfd;
+    }
+
+    void wakeup() throws IOException {
+        if (SelectorMetrics.ENABLED) {
+            metrics.wakeupRequested();
+        }
+        if (pending.compareAndSet(false, true)) {
+            Native.write(writefd, signal, eventfd ? 8 : 1);
+            if (SelectorMetrics.ENABLED) {
+                metrics.wakeupDelivered();
+            }
+        }
+    }
+
+    /**
+     * Consumes every pending wakeup.  Called by the selecting thread once the fd is readable.
+     */
+    void drain() throws IOException {
+        if (eventfd) {
+            // One read resets the counter
+            Native.read(readfd, drainBuffer, 8);
+        } else {
+            while (Native.read(readfd, drainBuffer, DRAIN_SIZE) == DRAIN_SIZE) {
+                // keep reading until the pipe is empty
+            }
+        }
+        // Only cleared once the source is empty, so a racing wakeup costs at most a spurious return
+        pending.set(false);
+    }
+
+    void close() throws IOException {
+        Native.close(readfd);
+        if (writefd != readfd) {
+            Native.close(writefd);
+        }
+    }
+}
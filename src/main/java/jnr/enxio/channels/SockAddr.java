@@ -0,0 +1,208 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import jnr.constants.platform.AddressFamily;
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnknownHostException;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.channels.UnsupportedAddressTypeException;
+
+/**
+ * Reads and writes sockaddr_in and sockaddr_in6 structures in native memory.
+ */
+final class SockAddr {
+    static final int AF_UNSPEC = 0;
+    static final int AF_INET = AddressFamily.AF_INET.intValue();
+    static final int AF_INET6 = AddressFamily.AF_INET6.intValue();
+
+    /** Room for any address, the size of struct sockaddr_storage */
+    static final int STORAGE_SIZE = 128;
+
+    private static final int SOCKADDR_IN_SIZE = 16;
+    private static final int SOCKADDR_IN6_SIZE = 28;
+
+    // BSD sockaddrs start with a length byte, and the family is only a byte
+    private static final boolean BSD = Platform.getNativePlatform().isBSD();
+
+    private SockAddr() {
+    }
+
+    static InetSocketAddress check(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress)) {
+            throw new UnsupportedAddressTypeException();
+        }
+        InetSocketAddress inet = (InetSocketAddress) address;
+        if (inet.isUnresolved()) {
+            throw new UnresolvedAddressException();
+        }
+        return inet;
+    }
+
+    private static void putFamily(Pointer p, long off, int family, int size) {
+        if (BSD) {
+            p.putByte(off, (byte) size);
+            p.putByte(off + 1, (byte) family);
+        } else {
+            p.putShort(off, (short) family);
+        }
+    }
+
+    static int family(Pointer p, long off) {
+        return BSD ? p.getByte(off + 1) & 0xff : p.getShort(off) & 0xffff;
+    }
+
+    /**
+     * Writes {@code address} as a sockaddr for a socket of the given family.  IPv4 addresses
+     * become IPv4-mapped addresses on IPv6 sockets.
+     *
+     * @return the length of the sockaddr
+     */
+    static int put(Pointer p, long off, int family, InetSocketAddress address) {
+        InetAddress ip = address.getAddress();
+        int port = address.getPort();
+
+        if (family == AF_INET) {
+            if (!(ip instanceof Inet4Address)) {
+                throw new UnsupportedAddressTypeException();
+            }
+            p.setMemory(off, SOCKADDR_IN_SIZE, (byte) 0);
+            putFamily(p, off, AF_INET, SOCKADDR_IN_SIZE);
+            putPort(p, off, port);
+            p.put(off + 4, ip.getAddress(), 0, 4);
+            return SOCKADDR_IN_SIZE;
+        }
+
+        p.setMemory(off, SOCKADDR_IN6_SIZE, (byte) 0);
+        putFamily(p, off, AF_INET6, SOCKADDR_IN6_SIZE);
+        putPort(p, off, port);
+        if (ip instanceof Inet6Address) {
+            p.put(off + 8, ip.getAddress(), 0, 16);
+            p.putInt(off + 24, ((Inet6Address) ip).getScopeId());
+        } else if (!ip.isAnyLocalAddress()) {
+            // ::ffff:a.b.c.d
+            p.putByte(off + 18, (byte) 0xff);
+            p.putByte(off + 19, (byte) 0xff);
+            p.put(off + 20, ip.getAddress(), 0, 4);
+        }
+        return SOCKADDR_IN6_SIZE;
+    }
+
+    /**
+     * Writes an AF_UNSPEC sockaddr, used to dissolve a datagram socket's association.
+     */
+    static int putUnspec(Pointer p, long off) {
+        p.setMemory(off, SOCKADDR_IN_SIZE, (byte) 0);
+        putFamily(p, off, AF_UNSPEC, SOCKADDR_IN_SIZE);
+        return SOCKADDR_IN_SIZE;
+    }
+
+    private static void putPort(Pointer p, long off, int port) {
+        p.putByte(off + 2, (byte) (port >> 8));
+        p.putByte(off + 3, (byte) port);
+    }
+
+    static int getPort(Pointer p, long off) {
+        return ((p.getByte(off + 2) & 0xff) << 8) | (p.getByte(off + 3) & 0xff);
+    }
+
+    /**
+     * Reads a sockaddr, returning null if it is not an internet address.
+     */
+    static InetSocketAddress get(Pointer p, long off) {
+        int family = family(p, off);
+        try {
+            if (family == AF_INET) {
+                byte[] ip = new byte[4];
+                p.get(off + 4, ip, 0, 4);
+                return new InetSocketAddress(InetAddress.getByAddress(ip), getPort(p, off));
+
+            } else if (family == AF_INET6) {
+                byte[] ip = new byte[16];
+                p.get(off + 8, ip, 0, 16);
+                int scope = p.getInt(off + 24);
+                // getByAddress turns IPv4-mapped addresses back into Inet4Address
+                InetAddress address = scope != 0
+                        ? Inet6Address.getByAddress(null, ip, scope) : InetAddress.getByAddress(ip);
+                return new InetSocketAddress(address, getPort(p, off));
+            }
+        } catch (UnknownHostException ex) {
+            // only thrown for addresses of the wrong length
+            throw new IllegalStateException(ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * Maps a {@link ProtocolFamily} to its address family constant.
+     */
+    static int af(ProtocolFamily family) {
+        if (family == StandardProtocolFamily.INET) {
+            return AF_INET;
+        } else if (family == StandardProtocolFamily.INET6) {
+            return AF_INET6;
+        }
+        throw new UnsupportedOperationException("Protocol family not supported");
+    }
+
+    /**
+     * Returns the family of a socket, or AF_INET if it cannot be determined.
+     */
+    static int family(int fd) {
+        Pointer address = Memory.allocateDirect(Native.getRuntime(), STORAGE_SIZE);
+        Pointer length = Memory.allocateDirect(Native.getRuntime(), 4);
+        length.putInt(0, STORAGE_SIZE);
+        return Native.libc().getsockname(fd, address, length) == 0 ? family(address, 0) : AF_INET;
+    }
+
+    /**
+     * Returns the address a socket is bound to, or null if it is not bound.
+     */
+    static InetSocketAddress localAddress(int fd) throws IOException {
+        Pointer address = Memory.allocateDirect(Native.getRuntime(), STORAGE_SIZE);
+        Pointer length = Memory.allocateDirect(Native.getRuntime(), 4);
+        length.putInt(0, STORAGE_SIZE);
+        if (Native.libc().getsockname(fd, address, length) < 0) {
+            String message = String.format("getsockname failed: %s", Native.getLastErrorString());
+            throw new NativeException(message, Native.getLastError());
+        }
+        // A socket that was never bound reports port zero
+        return getPort(address, 0) != 0 ? get(address, 0) : null;
+    }
+
+    /**
+     * Returns the address a socket is connected to, or null if it is not connected.
+     */
+    static InetSocketAddress remoteAddress(int fd) {
+        Pointer address = Memory.allocateDirect(Native.getRuntime(), STORAGE_SIZE);
+        Pointer length = Memory.allocateDirect(Native.getRuntime(), 4);
+        length.putInt(0, STORAGE_SIZE);
+        return Native.libc().getpeername(fd, address, length) == 0 ? get(address, 0) : null;
+    }
+}
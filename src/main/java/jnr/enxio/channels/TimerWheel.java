@@ -0,0 +1,227 @@
+/*
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.enxio.channels;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A hashed timer wheel driven by an {@link EventLoop}.
+ *
+ * A timer hashes into one of a fixed number of buckets by the tick its deadline falls in, so
+ * scheduling and cancelling cost O(1) however many timers are pending.  The earliest tick in
+ * each bucket is kept in a small min-heap over the buckets, which gives the exact time to the
+ * next deadline and leads expiry straight to the buckets holding due timers: the loop neither
+ * wakes on empty ticks nor walks the wheel to find the next one.  Timers never fire early, and
+ * fire at most one tick late.
+ *
+ * The wheel itself is only touched on the loop thread.  A timer can be cancelled from any
+ * thread; off the loop thread it is only marked, and unlinked when its bucket is next visited.
+ */
+final class TimerWheel {
+    private static final int ST_PENDING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    /** One scheduled timer, linked into the bucket of its deadline tick */
+    static final class Timer implements EventLoop.Timeout {
+        private static final AtomicIntegerFieldUpdater<Timer> STATE
+                = AtomicIntegerFieldUpdater.newUpdater(Timer.class, "state");
+
+        final TimerWheel wheel;
+        final Runnable task;
+        final long tick;
+        Timer prev, next;
+        boolean linked;
+        private volatile int state = ST_PENDING;
+
+        Timer(TimerWheel wheel, Runnable task, long tick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.tick = tick;
+        }
+
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, ST_PENDING, ST_CANCELLED)) {
+                return false;
+            }
+            if (Thread.currentThread() == wheel.owner && linked) {
+                wheel.unlink(this);
+            }
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+    }
+
+    /** Reports a task that threw, the wheel carries on with the next one */
+    interface ErrorHandler {
+        void error(RuntimeException ex);
+    }
+
+    private final Thread owner;
+    private final long tickNanos;
+    private final long origin;
+    private final Timer[] buckets;
+    private final int mask;
+    // Bucket i's earliest tick is leaf buckets.length + i, and each inner node holds the smaller
+    // of its two children.  Unlinking never raises a leaf, so it may be low until next visited.
+    private final long[] due;
+    private int size;
+
+    /**
+     * @param owner the only thread that schedules and expires timers
+     * @param tickNanos the resolution of the wheel
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    TimerWheel(Thread owner, long tickNanos, int wheelSize) {
+        this.owner = owner;
+        this.tickNanos = tickNanos;
+        this.origin = System.nanoTime();
+        this.buckets = new Timer[Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1];
+        this.mask = buckets.length - 1;
+        this.due = new long[buckets.length * 2];
+        Arrays.fill(due, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a timer, without scheduling it yet.  Safe to call from any thread.
+     */
+    Timer newTimer(Runnable task, long deadlineNanos) {
+        // Round up, so the deadline has passed by the time the tick is processed
+        long tick = (deadlineNanos - origin + tickNanos - 1) / tickNanos;
+        return new Timer(this, task, Math.max(0, tick));
+    }
+
+    /**
+     * Links a timer into its bucket, unless it has already been cancelled.
+     */
+    void schedule(Timer timer) {
+        if (timer.state != ST_PENDING) {
+            return;
+        }
+        long tick = timer.tick;
+        int idx = (int) tick & mask;
+        Timer head = buckets[idx];
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        buckets[idx] = timer;
+        timer.linked = true;
+        ++size;
+        for (int i = buckets.length + idx; i > 0 && due[i] > tick; i >>>= 1) {
+            due[i] = tick;
+        }
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            buckets[(int) timer.tick & mask] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = timer.next = null;
+        timer.linked = false;
+        --size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns how long the loop may wait before the next timer is due, or -1 if none is pending.
+     */
+    long nextTimeout(long now) {
+        if (size == 0) {
+            return -1;
+        }
+        return Math.max(0, origin + due[1] * tickNanos - now);
+    }
+
+    /**
+     * Runs every timer whose deadline has passed.
+     *
+     * @return the number of timers run
+     */
+    int expire(long now, ErrorHandler errors) {
+        long nowTick = (now - origin) / tickNanos;
+        if (size == 0 || due[1] > nowTick) {
+            return 0;
+        }
+
+        //
+        // Take the expired timers off the wheel before running any of them, a task may
+        // schedule or cancel others.  Only buckets whose earliest tick has passed are visited.
+        //
+        Timer expired = null;
+        while (due[1] <= nowTick) {
+            int i = 1;
+            while (i < buckets.length) {
+                i <<= 1;
+                if (due[i] > nowTick) {
+                    ++i;
+                }
+            }
+            int idx = i - buckets.length;
+            long earliest = Long.MAX_VALUE;
+            Timer timer = buckets[idx];
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.state == ST_CANCELLED) {
+                    unlink(timer);
+                } else if (timer.tick <= nowTick) {
+                    unlink(timer);
+                    timer.next = expired;
+                    expired = timer;
+                } else {
+                    earliest = Math.min(earliest, timer.tick);
+                }
+                timer = next;
+            }
+            for (due[i] = earliest, i >>>= 1; i > 0; i >>>= 1) {
+                due[i] = Math.min(due[2 * i], due[2 * i + 1]);
+            }
+        }
+
+        int count = 0;
+        while (expired != null) {
+            Timer timer = expired;
+            expired = timer.next;
+            timer.next = null;
+            if (Timer.STATE.compareAndSet(timer, ST_PENDING, ST_EXPIRED)) {
+                try {
+                    timer.task.run();
+                } catch (RuntimeException ex) {
+                    errors.error(ex);
+                }
+                ++count;
+            }
+        }
+        return count;
+    }
+}
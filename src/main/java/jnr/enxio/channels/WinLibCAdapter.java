@@ -42,6 +42,8 @@ public final class WinLibCAdapter implements LibC, LoadedLibrary {
         public @ssize_t int _read(int fd, @Out byte[] data, @size_t long size);
         public @ssize_t int _write(int fd, @In ByteBuffer data, @size_t long size);
         public @ssize_t int _write(int fd, @In byte[] data, @size_t long size);
+        public @ssize_t int _read(int fd, @Out Pointer data, @size_t long size);
+        public @ssize_t int _write(int fd, @In Pointer data, @size_t long size);
         public int _pipe(@Out int[] fds);
 
         @IgnoreError String _strerror(int error);
@@ -52,6 +54,7 @@ public final class WinLibCAdapter implements LibC, LoadedLibrary {
         //public int fcntl(int fd, int cmd, int data);
         //public int poll(@In @Out ByteBuffer pfds, int nfds, int timeout);
         //public int poll(@In @Out Pointer pfds, int nfds, int timeout);
+        //public int ppoll(@In @Out Pointer pfds, int nfds, @In @Transient Timespec timeout, @In Pointer sigmask);
         //public int kqueue();
         //public int kevent(int kq, @In ByteBuffer changebuf, int nchanges,
         //                  @Out ByteBuffer eventbuf, int nevents,
@@ -60,6 +63,41 @@ public final class WinLibCAdapter implements LibC, LoadedLibrary {
         //                  @In Pointer changebuf, int nchanges,
         //                  @Out Pointer eventbuf, int nevents,
         //                  @In @Transient Timespec timeout);
+        //public long readv(int fd, @In Pointer iov, int iovcnt);
+        //public long writev(int fd, @In Pointer iov, int iovcnt);
+        //public int eventfd(int initval, int flags);
+        //public int epoll_create1(int flags);
+        //public int epoll_ctl(int epfd, int op, int fd, @In Pointer event);
+        //public int epoll_wait(int epfd, @Out Pointer events, int maxevents, int timeout);
+        //public int epoll_pwait2(int epfd, @Out Pointer events, int maxevents, @In @Transient Timespec timeout, @In Pointer sigmask);
+        //public int signalfd(int fd, @In Pointer mask, int flags);
+        //public int sigprocmask(int how, @In Pointer set, @Out Pointer oldset);
+        //public int inotify_init1(int flags);
+        //public int inotify_add_watch(int fd, String pathname, int mask);
+        //public int inotify_rm_watch(int fd, int wd);
+        //public int pipe2(@Out int[] fds, int flags);
+        //public int sched_setaffinity(int pid, @size_t long cpusetsize, @In long[] mask);
+        //public int accept(int fd, @Out Pointer addr, @In @Out Pointer addrlen);
+        //public long mmap(long addr, long length, int prot, int flags, int fd, long offset);
+        //public int munmap(long addr, long length);
+        //public int syscall(long number, ...);
+        //public long pread(int fd, @Out Pointer buf, long count, long offset);
+        //public long sendfile(int out_fd, int in_fd, @In @Out long[] offset, long count);
+        //public long splice(int fd_in, @In @Out Pointer off_in, int fd_out, @In @Out Pointer off_out, long len, int flags);
+        //public long tee(int fd_in, int fd_out, long len, int flags);
+        //public int socket(int domain, int type, int protocol);
+        //public int listen(int fd, int backlog);
+        //public int accept4(int fd, @Out Pointer addr, @In @Out Pointer addrlen, int flags);
+        //public int bind(int fd, @In Pointer addr, int addrlen);
+        //public int connect(int fd, @In Pointer addr, int addrlen);
+        //public int getsockname(int fd, @Out Pointer addr, @In @Out Pointer addrlen);
+        //public int getpeername(int fd, @Out Pointer addr, @In @Out Pointer addrlen);
+        //public int setsockopt(int fd, int level, int optname, @In Pointer optval, int optlen);
+        //public int getsockopt(int fd, int level, int optname, @Out Pointer optval, @In @Out Pointer optlen);
+        //public long sendto(int fd, @In Pointer buf, long len, int flags, @In Pointer addr, int addrlen);
+        //public long recvfrom(int fd, @Out Pointer buf, long len, int flags, @Out Pointer addr, @In @Out Pointer addrlen);
+        //public int sendmmsg(int fd, @In @Out Pointer msgvec, int vlen, int flags);
+        //public int recvmmsg(int fd, @In @Out Pointer msgvec, int vlen, int flags, @In Pointer timeout);
     }
 
     private LibMSVCRT win;
@@ -70,6 +108,8 @@ public final class WinLibCAdapter implements LibC, LoadedLibrary {
     @Override public int read(int fd, byte[] data, long size) { return win._read(fd, data, size); }
     @Override public int write(int fd, ByteBuffer data, long size) { return win._write(fd, data, size); }
     @Override public int write(int fd, byte[] data, long size) { return win._write(fd, data, size); }
+    @Override public int read(int fd, Pointer data, long size) { return win._read(fd, data, size); }
+    @Override public int write(int fd, Pointer data, long size) { return win._write(fd, data, size); }
     @Override public int pipe(int[] fds) { return win._pipe(fds); }
     @Override public String strerror(int error) { return win._strerror(error); }
 
@@ -95,6 +135,11 @@ public final class WinLibCAdapter implements LibC, LoadedLibrary {
         throw new UnsupportedOperationException("poll isn't supported on Windows");
     }
 
+    @Override
+    public int ppoll(Pointer pfds, int nfds, Timespec timeout, Pointer sigmask) {
+        throw new UnsupportedOperationException("ppoll isn't supported on Windows");
+    }
+
     @Override
     public int kqueue() {
         throw new UnsupportedOperationException("kqueue isn't supported on Windows");
@@ -110,8 +155,188 @@ public final class WinLibCAdapter implements LibC, LoadedLibrary {
         throw new UnsupportedOperationException("kevent isn't supported on Windows");
     }
 
+    @Override
+    public long readv(int fd, Pointer iov, int iovcnt) {
+        throw new UnsupportedOperationException("readv isn't supported on Windows");
+    }
+
+    @Override
+    public long writev(int fd, Pointer iov, int iovcnt) {
+        throw new UnsupportedOperationException("writev isn't supported on Windows");
+    }
+
+    @Override
+    public int eventfd(int initval, int flags) {
+        throw new UnsupportedOperationException("eventfd isn't supported on Windows");
+    }
+
+    @Override
+    public int epoll_create1(int flags) {
+        throw new UnsupportedOperationException("epoll_create1 isn't supported on Windows");
+    }
+
+    @Override
+    public int epoll_ctl(int epfd, int op, int fd, Pointer event) {
+        throw new UnsupportedOperationException("epoll_ctl isn't supported on Windows");
+    }
+
+    @Override
+    public int epoll_wait(int epfd, Pointer events, int maxevents, int timeout) {
+        throw new UnsupportedOperationException("epoll_wait isn't supported on Windows");
+    }
+
+    @Override
+    public int epoll_pwait2(int epfd, Pointer events, int maxevents, Timespec timeout, Pointer sigmask) {
+        throw new UnsupportedOperationException("epoll_pwait2 isn't supported on Windows");
+    }
+
+    @Override
+    public int signalfd(int fd, Pointer mask, int flags) {
+        throw new UnsupportedOperationException("signalfd isn't supported on Windows");
+    }
+
+    @Override
+    public int sigprocmask(int how, Pointer set, Pointer oldset) {
+        throw new UnsupportedOperationException("sigprocmask isn't supported on Windows");
+    }
+
+    @Override
+    public int inotify_init1(int flags) {
+        throw new UnsupportedOperationException("inotify_init1 isn't supported on Windows");
+    }
+
+    @Override
+    public int inotify_add_watch(int fd, String pathname, int mask) {
+        throw new UnsupportedOperationException("inotify_add_watch isn't supported on Windows");
+    }
+
+    @Override
+    public int inotify_rm_watch(int fd, int wd) {
+        throw new UnsupportedOperationException("inotify_rm_watch isn't supported on Windows");
+    }
+
+    @Override
+    public int pipe2(int[] fds, int flags) {
+        throw new UnsupportedOperationException("pipe2 isn't supported on Windows");
+    }
+
+    @Override
+    public int sched_setaffinity(int pid, long cpusetsize, long[] mask) {
+        throw new UnsupportedOperationException("sched_setaffinity isn't supported on Windows");
+    }
+
+    @Override
+    public int accept(int fd, Pointer addr, Pointer addrlen) {
+        throw new UnsupportedOperationException("accept isn't supported on Windows");
+    }
+
+    @Override
+    public long mmap(long addr, long length, int prot, int flags, int fd, long offset) {
+        throw new UnsupportedOperationException("mmap isn't supported on Windows");
+    }
+
+    @Override
+    public int munmap(long addr, long length) {
+        throw new UnsupportedOperationException("munmap isn't supported on Windows");
+    }
+
+    @Override
+    public int syscall(long number, int arg1, Pointer arg2) {
+        throw new UnsupportedOperationException("syscall isn't supported on Windows");
+    }
+
+    @Override
+    public int syscall(long number, int arg1, int arg2, int arg3, int arg4, Pointer arg5, long arg6) {
+        throw new UnsupportedOperationException("syscall isn't supported on Windows");
+    }
+
     @Override
     public int shutdown(int s, int how) {
         throw new UnsupportedOperationException("shutdown isn't supported on Windows");
     }
-}
\ No newline at end of file
+
+    @Override
+    public long pread(int fd, Pointer buf, long count, long offset) {
+        throw new UnsupportedOperationException("pread isn't supported on Windows");
+    }
+
+    @Override
+    public long sendfile(int out_fd, int in_fd, long[] offset, long count) {
+        throw new UnsupportedOperationException("sendfile isn't supported on Windows");
+    }
+
+    @Override
+    public long splice(int fd_in, Pointer off_in, int fd_out, Pointer off_out, long len, int flags) {
+        throw new UnsupportedOperationException("splice isn't supported on Windows");
+    }
+
+    @Override
+    public long tee(int fd_in, int fd_out, long len, int flags) {
+        throw new UnsupportedOperationException("tee isn't supported on Windows");
+    }
+
+    @Override
+    public int socket(int domain, int type, int protocol) {
+        throw new UnsupportedOperationException("socket isn't supported on Windows");
+    }
+
+    @Override
+    public int listen(int fd, int backlog) {
+        throw new UnsupportedOperationException("listen isn't supported on Windows");
+    }
+
+    @Override
+    public int accept4(int fd, Pointer addr, Pointer addrlen, int flags) {
+        throw new UnsupportedOperationException("accept4 isn't supported on Windows");
+    }
+
+    @Override
+    public int bind(int fd, Pointer addr, int addrlen) {
+        throw new UnsupportedOperationException("bind isn't supported on Windows");
+    }
+
+    @Override
+    public int connect(int fd, Pointer addr, int addrlen) {
+        throw new UnsupportedOperationException("connect isn't supported on Windows");
+    }
+
+    @Override
+    public int getsockname(int fd, Pointer addr, Pointer addrlen) {
+        throw new UnsupportedOperationException("getsockname isn't supported on Windows");
+    }
+
+    @Override
+    public int getpeername(int fd, Pointer addr, Pointer addrlen) {
+        throw new UnsupportedOperationException("getpeername isn't supported on Windows");
+    }
+
+    @Override
+    public int setsockopt(int fd, int level, int optname, Pointer optval, int optlen) {
+        throw new UnsupportedOperationException("setsockopt isn't supported on Windows");
+    }
+
+    @Override
+    public int getsockopt(int fd, int level, int optname, Pointer optval, Pointer optlen) {
+        throw new UnsupportedOperationException("getsockopt isn't supported on Windows");
+    }
+
+    @Override
+    public long sendto(int fd, Pointer buf, long len, int flags, Pointer addr, int addrlen) {
+        throw new UnsupportedOperationException("sendto isn't supported on Windows");
+    }
+
+    @Override
+    public long recvfrom(int fd, Pointer buf, long len, int flags, Pointer addr, Pointer addrlen) {
+        throw new UnsupportedOperationException("recvfrom isn't supported on Windows");
+    }
+
+    @Override
+    public int sendmmsg(int fd, Pointer msgvec, int vlen, int flags) {
+        throw new UnsupportedOperationException("sendmmsg isn't supported on Windows");
+    }
+
+    @Override
+    public int recvmmsg(int fd, Pointer msgvec, int vlen, int flags, Pointer timeout) {
+        throw new UnsupportedOperationException("recvmmsg isn't supported on Windows");
+    }
+}
@@ -0,0 +1,217 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+public class EpollSelectorTest {
+
+    private static boolean isLinux() {
+        return Platform.getNativePlatform().getOS() == Platform.OS.LINUX;
+    }
+
+    @Test
+    public void linuxDefaultsToEpoll() throws Exception {
+        // Skip on non-linux
+        if (!isLinux()) return;
+
+        Selector selector = NativeSelectorProvider.getInstance().openSelector();
+        Assert.assertTrue(selector instanceof EpollSelector);
+        selector.close();
+
+        System.setProperty(NativeSelectorProvider.SELECTOR_PROPERTY, "poll");
+        try {
+            selector = NativeSelectorProvider.getInstance().openSelector();
+            Assert.assertTrue(selector instanceof PollSelector);
+            selector.close();
+        } finally {
+            System.clearProperty(NativeSelectorProvider.SELECTOR_PROPERTY);
+        }
+    }
+
+    @Test
+    public void selectReadable() throws Exception {
+        // Skip on non-linux
+        if (!isLinux()) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(fds[1]);
+        source.configureBlocking(false);
+
+        Selector selector = new EpollSelector(NativeSelectorProvider.getInstance());
+        SelectionKey key = source.register(selector, SelectionKey.OP_READ);
+        Assert.assertEquals(1, selector.keys().size());
+        Assert.assertEquals(0, selector.selectNow());
+
+        sink.write(ByteBuffer.wrap(new byte[] { 1 }));
+        Assert.assertEquals(1, selector.select(1000));
+        Assert.assertTrue(selector.selectedKeys().contains(key));
+        Assert.assertEquals(SelectionKey.OP_READ, key.readyOps());
+        selector.selectedKeys().clear();
+
+        key.cancel();
+        Assert.assertEquals(0, selector.selectNow());
+        Assert.assertTrue(selector.keys().isEmpty());
+
+        selector.close();
+        source.close();
+        sink.close();
+    }
+
+    @Test
+    public void consumerRunsUnlocked() throws Exception {
+        // Skip on non-linux
+        if (!isLinux()) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        source.configureBlocking(false);
+        EpollSelector selector = new EpollSelector(NativeSelectorProvider.getInstance());
+        final SelectionKey key = source.register(selector, SelectionKey.OP_READ);
+        Native.write(fds[1], ByteBuffer.wrap(new byte[] { 1 }));
+
+        // Another thread changing interest must not block against the consumer
+        final AtomicBoolean changed = new AtomicBoolean();
+        Assert.assertEquals(1, selector.select(new Consumer<SelectionKey>() {
+            public void accept(SelectionKey k) {
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        key.interestOps(0);
+                        changed.set(true);
+                    }
+                });
+                t.start();
+                try {
+                    t.join(5000);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }));
+        Assert.assertTrue(changed.get());
+        Assert.assertEquals(0, key.interestOps());
+
+        selector.close();
+        source.close();
+        Native.close(fds[1]);
+    }
+
+    @Test
+    public void wakeup() throws Exception {
+        // Skip on non-linux
+        if (!isLinux()) return;
+
+        Selector selector = new EpollSelector(NativeSelectorProvider.getInstance());
+        selector.wakeup();
+        Assert.assertEquals(0, selector.select());
+        selector.close();
+    }
+
+    @Test
+    public void wakeupsAreCoalesced() throws Exception {
+        // Skip on non-linux
+        if (!isLinux()) return;
+        Selector selector = new EpollSelector(NativeSelectorProvider.getInstance());
+        for (int i = 0; i < 1000; i++) {
+            selector.wakeup();
+        }
+        Assert.assertEquals(0, selector.select());
+
+        // The burst was consumed by the first select, so this one has to wait
+        long start = System.nanoTime();
+        Assert.assertEquals(0, selector.select(100));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        // and wakeups work again once drained
+        selector.wakeup();
+        Assert.assertEquals(0, selector.select());
+        selector.close();
+    }
+
+    @Test
+    public void selectInto() throws Exception {
+        // Skip on non-linux
+        if (!isLinux()) return;
+
+        int[] a = { -1, -1 };
+        int[] b = { -1, -1 };
+        Native.libc().pipe(a);
+        Native.libc().pipe(b);
+        NativeDeviceChannel source = new NativeDeviceChannel(a[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(b[1]);
+        source.configureBlocking(false);
+        sink.configureBlocking(false);
+
+        EpollSelector selector = new EpollSelector(NativeSelectorProvider.getInstance());
+        SelectionKey readKey = source.register(selector, SelectionKey.OP_READ);
+        sink.register(selector, SelectionKey.OP_WRITE);
+        Native.write(a[1], ByteBuffer.wrap(new byte[] { 1 }));
+        selector.wakeup();
+
+        int[] fds = new int[4];
+        int[] ops = new int[4];
+        int n = selector.selectInto(fds, ops, -1);
+        Assert.assertEquals(2, n);
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(fds[i] == a[0] ? SelectionKey.OP_READ : SelectionKey.OP_WRITE, ops[i]);
+            Assert.assertTrue(fds[i] == a[0] || fds[i] == b[1]);
+        }
+        // Keys are left alone
+        Assert.assertTrue(selector.selectedKeys().isEmpty());
+        Assert.assertEquals(0, readKey.readyOps());
+
+        // A short array takes what fits, the rest is still ready next time
+        n = selector.selectInto(new int[1], new int[1], 0);
+        Assert.assertEquals(1, n);
+        Assert.assertEquals(2, selector.selectNow());
+
+        selector.close();
+        source.close();
+        sink.close();
+        Native.close(a[1]);
+        Native.close(b[0]);
+    }
+
+    @Test
+    public void selectIntoSkipsCancelled() throws Exception {
+        // Skip on non-linux
+        if (!isLinux()) return;
+
+        final int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        source.configureBlocking(false);
+        EpollSelector selector = new EpollSelector(NativeSelectorProvider.getInstance());
+        final SelectionKey key = source.register(selector, SelectionKey.OP_READ);
+
+        // Cancelled while the selector waits, its event must not be reported
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    key.cancel();
+                    Native.write(fds[1], ByteBuffer.wrap(new byte[] { 1 }));
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        t.start();
+        Assert.assertEquals(0, selector.selectInto(new int[4], new int[4], TimeUnit.SECONDS.toNanos(5)));
+        t.join();
+
+        selector.close();
+        source.close();
+        Native.close(fds[1]);
+    }
+}
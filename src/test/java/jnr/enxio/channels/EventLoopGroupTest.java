@@ -0,0 +1,242 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EventLoopGroupTest {
+
+    private static class Echo implements EventLoop.Handler {
+        final ByteBuffer buf = ByteBuffer.allocateDirect(256);
+
+        public void ready(SelectionKey key) throws IOException {
+            NativeSocketChannel ch = (NativeSocketChannel) key.channel();
+            if (ch.read(buf) < 0) {
+                ch.close();
+                return;
+            }
+            buf.flip();
+            ch.write(buf);
+            buf.compact();
+        }
+    }
+
+    @Test
+    public void echo() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        final EventLoopGroup group = new EventLoopGroup(2);
+        final NativeServerSocketChannel server = NativeServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        group.loop(0).register(server, SelectionKey.OP_ACCEPT, new EventLoop.Handler() {
+            public void ready(SelectionKey key) throws IOException {
+                server.drainAccept(16, new java.util.function.Consumer<NativeSocketChannel>() {
+                    public void accept(NativeSocketChannel ch) {
+                        group.register(ch, SelectionKey.OP_READ, new Echo());
+                    }
+                });
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        NativeSocketChannel[] clients = new NativeSocketChannel[4];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = NativeSocketChannel.open();
+            Assert.assertTrue(clients[i].connect(server.getLocalAddress()));
+        }
+        for (int i = 0; i < clients.length; i++) {
+            Assert.assertEquals(1, clients[i].write(ByteBuffer.wrap(new byte[] { (byte) i })));
+            ByteBuffer dst = ByteBuffer.allocate(1);
+            Assert.assertEquals(1, clients[i].read(dst));
+            Assert.assertEquals((byte) i, dst.get(0));
+        }
+
+        // The listener counts towards loop 0, the connections balance the rest
+        int total = group.loop(0).load() + group.loop(1).load();
+        Assert.assertEquals(clients.length + 1, total);
+        Assert.assertTrue(Math.abs(group.loop(0).load() - group.loop(1).load()) <= 1);
+
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertFalse(server.isOpen());
+        for (NativeSocketChannel client : clients) {
+            Assert.assertEquals(-1, client.read(ByteBuffer.allocate(1)));
+            client.close();
+        }
+    }
+
+    @Test
+    public void tasks() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        final EventLoopGroup group = new EventLoopGroup(1, EventLoopGroup.Placement.HASH, true);
+        final EventLoop loop = group.loop(0);
+        Assert.assertFalse(loop.inEventLoop());
+
+        final CountDownLatch ran = new CountDownLatch(100);
+        final AtomicBoolean onLoop = new AtomicBoolean(true);
+        for (int i = 0; i < 100; i++) {
+            loop.execute(new Runnable() {
+                public void run() {
+                    onLoop.compareAndSet(true, loop.inEventLoop());
+                    ran.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(onLoop.get());
+
+        // Tasks queued before shutdown still run
+        final CountDownLatch last = new CountDownLatch(1);
+        loop.execute(new Runnable() {
+            public void run() {
+                last.countDown();
+            }
+        });
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, last.getCount());
+        Assert.assertTrue(group.isTerminated());
+        try {
+            loop.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            Assert.fail("task accepted after shutdown");
+        } catch (java.util.concurrent.RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void registerRacingShutdown() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        for (int round = 0; round < 20; round++) {
+            final EventLoopGroup group = new EventLoopGroup(1);
+            final List<CompletableFuture<SelectionKey>> futures = new ArrayList<CompletableFuture<SelectionKey>>();
+            final List<NativeSocketChannel> channels = new ArrayList<NativeSocketChannel>();
+            Thread registrar = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (;;) {
+                            NativeSocketChannel ch = NativeSocketChannel.open();
+                            channels.add(ch);
+                            futures.add(group.loop(0).register(ch, SelectionKey.OP_READ, new Echo()));
+                        }
+                    } catch (RejectedExecutionException expected) {
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            registrar.start();
+            Thread.sleep(1);
+            group.shutdown();
+            registrar.join(5000);
+            Assert.assertFalse(registrar.isAlive());
+            Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+
+            for (CompletableFuture<SelectionKey> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException rejected) {
+                    Assert.assertTrue(rejected.getCause() instanceof RejectedExecutionException);
+                }
+            }
+            Assert.assertEquals(0, group.loop(0).load());
+            for (NativeSocketChannel ch : channels) {
+                ch.close();
+            }
+        }
+    }
+
+    @Test
+    public void timers() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        EventLoopGroup group = new EventLoopGroup(1);
+        final EventLoop loop = group.loop(0);
+        final CountDownLatch fired = new CountDownLatch(1);
+        final AtomicBoolean onLoop = new AtomicBoolean();
+        final long start = System.nanoTime();
+        final long[] elapsed = new long[1];
+        loop.schedule(new Runnable() {
+            public void run() {
+                elapsed[0] = System.nanoTime() - start;
+                onLoop.set(loop.inEventLoop());
+                fired.countDown();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        final AtomicBoolean ran = new AtomicBoolean();
+        EventLoop.Timeout cancelled = loop.schedule(new Runnable() {
+            public void run() {
+                ran.set(true);
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(cancelled.cancel());
+
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(onLoop.get());
+        Assert.assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertFalse(ran.get());
+
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void idleTimeout() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        EventLoopGroup group = new EventLoopGroup(1);
+        NativeServerSocketChannel server = NativeServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        NativeSocketChannel client = NativeSocketChannel.open();
+        Assert.assertTrue(client.connect(server.getLocalAddress()));
+        NativeSocketChannel accepted = server.accept();
+
+        final CountDownLatch idle = new CountDownLatch(1);
+        group.loop(0).register(accepted, SelectionKey.OP_READ, new Echo() {
+            @Override
+            public void idle(SelectionKey key) throws IOException {
+                idle.countDown();
+                key.channel().close();
+            }
+        }, 100, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+
+        // Activity keeps the channel alive past the timeout
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(40);
+            Assert.assertEquals(1, client.write(ByteBuffer.wrap(new byte[] { 1 })));
+            Assert.assertEquals(1, client.read(ByteBuffer.allocate(1)));
+        }
+        Assert.assertEquals(1, idle.getCount());
+
+        Assert.assertTrue(idle.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(-1, client.read(ByteBuffer.allocate(1)));
+
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        client.close();
+        server.close();
+    }
+}
@@ -0,0 +1,187 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NativeAsynchronousByteChannelTest {
+
+    private static NativeSocketChannel[] connect(NativeServerSocketChannel server) throws Exception {
+        NativeSocketChannel client = NativeSocketChannel.open();
+        Assert.assertTrue(client.connect(server.getLocalAddress()));
+        return new NativeSocketChannel[] { client, server.accept() };
+    }
+
+    @Test
+    public void readWrite() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        EventLoopGroup group = new EventLoopGroup(1);
+        final EventLoop loop = group.loop(0);
+        NativeServerSocketChannel server = NativeServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        NativeSocketChannel[] pair = connect(server);
+        NativeSocketChannel client = pair[0];
+        NativeAsynchronousByteChannel ch = NativeAsynchronousByteChannel.open(loop, pair[1]);
+
+        // Buffered data completes on the calling thread
+        Assert.assertEquals(3, client.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+        Thread.sleep(50);
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        CompletableFuture<Integer> read = ch.read(dst);
+        Assert.assertTrue(read.isDone());
+        Assert.assertEquals(3, read.get().intValue());
+
+        // Otherwise the loop completes it once data arrives
+        final AtomicBoolean onLoop = new AtomicBoolean();
+        final AtomicInteger result = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        dst.clear();
+        ch.read(dst, "attachment", new CompletionHandler<Integer, String>() {
+            public void completed(Integer n, String attachment) {
+                onLoop.set(loop.inEventLoop() && "attachment".equals(attachment));
+                result.set(n);
+                done.countDown();
+            }
+
+            public void failed(Throwable ex, String attachment) {
+                done.countDown();
+            }
+        });
+        try {
+            ch.read(ByteBuffer.allocate(1));
+            Assert.fail("second read accepted while one is pending");
+        } catch (ReadPendingException expected) {
+        }
+        Assert.assertEquals(2, client.write(ByteBuffer.wrap(new byte[] { 4, 5 })));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(onLoop.get());
+        Assert.assertEquals(2, result.get());
+        Assert.assertEquals(5, dst.get(1));
+
+        Assert.assertEquals(2, ch.write(ByteBuffer.wrap(new byte[] { 6, 7 })).get(5, TimeUnit.SECONDS).intValue());
+        ByteBuffer echo = ByteBuffer.allocate(2);
+        Assert.assertEquals(2, client.read(echo));
+        Assert.assertEquals(7, echo.get(1));
+
+        // End of stream
+        client.close();
+        Assert.assertEquals(-1, ch.read(ByteBuffer.allocate(1)).get(5, TimeUnit.SECONDS).intValue());
+
+        ch.close();
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        server.close();
+    }
+
+    @Test
+    public void writeWaitsForSpace() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        EventLoopGroup group = new EventLoopGroup(1);
+        NativeServerSocketChannel server = NativeServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        NativeSocketChannel[] pair = connect(server);
+        NativeSocketChannel client = pair[0];
+
+        // Fill the socket buffers before wrapping the channel
+        pair[1].configureBlocking(false);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+        long filled = 0;
+        int n;
+        while ((n = pair[1].write(chunk)) > 0) {
+            filled += n;
+            chunk.clear();
+        }
+        NativeAsynchronousByteChannel ch = NativeAsynchronousByteChannel.open(group.loop(0), pair[1]);
+
+        CompletableFuture<Integer> write = ch.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+        Thread.sleep(50);
+        Assert.assertFalse(write.isDone());
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(64 * 1024);
+        long drained = 0;
+        while (!write.isDone() || drained < filled + 4) {
+            dst.clear();
+            drained += client.read(dst);
+        }
+        Assert.assertEquals(4, write.get(5, TimeUnit.SECONDS).intValue());
+        Assert.assertEquals(filled + 4, drained);
+
+        ch.close();
+        client.close();
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        server.close();
+    }
+
+    @Test
+    public void closeFailsPending() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        EventLoopGroup group = new EventLoopGroup(1);
+        NativeServerSocketChannel server = NativeServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        NativeSocketChannel[] pair = connect(server);
+        NativeAsynchronousByteChannel ch = NativeAsynchronousByteChannel.open(group.loop(0), pair[1]);
+
+        CompletableFuture<Integer> read = ch.read(ByteBuffer.allocate(8));
+        Assert.assertFalse(read.isDone());
+        ch.close();
+        Assert.assertFalse(ch.isOpen());
+        try {
+            read.get(5, TimeUnit.SECONDS);
+            Assert.fail("pending read completed after close");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof AsynchronousCloseException);
+        }
+
+        pair[0].close();
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        server.close();
+    }
+
+    @Test
+    public void shutdownFailsPending() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        EventLoopGroup group = new EventLoopGroup(1);
+        NativeServerSocketChannel server = NativeServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        NativeSocketChannel[] pair = connect(server);
+        NativeAsynchronousByteChannel ch = NativeAsynchronousByteChannel.open(group.loop(0), pair[1]);
+
+        CompletableFuture<Integer> read = ch.read(ByteBuffer.allocate(8));
+        Assert.assertFalse(read.isDone());
+        group.shutdown();
+        Assert.assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        try {
+            read.get(5, TimeUnit.SECONDS);
+            Assert.fail("pending read completed after shutdown");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof AsynchronousCloseException);
+        }
+        Assert.assertFalse(ch.isOpen());
+
+        pair[0].close();
+        server.close();
+    }
+}
@@ -0,0 +1,172 @@
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Errno;
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NativeCompletionEngineTest {
+
+    private static final class Results implements NativeCompletionEngine.CompletionHandler {
+        final List<long[]> completions = new ArrayList<long[]>();
+
+        public void completed(long userData, int result, int flags) {
+            completions.add(new long[] { userData, result, flags });
+        }
+    }
+
+    private static void readAndWrite(NativeCompletionEngine engine) throws Exception {
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(fds[1]);
+        source.configureBlocking(false);
+        sink.configureBlocking(false);
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(16);
+        ByteBuffer src = ByteBuffer.allocateDirect(16);
+        src.put("hello".getBytes()).flip();
+
+        engine.read(source, dst, 1);
+        engine.submit();
+        engine.write(sink, src, 2);
+
+        Results results = new Results();
+        for (int i = 0; i < 10 && results.completions.size() < 2; i++) {
+            engine.complete(results, 1000);
+        }
+        Assert.assertEquals(2, results.completions.size());
+        Assert.assertEquals(5, dst.position());
+        Assert.assertEquals(5, src.position());
+        Assert.assertEquals('h', dst.get(0));
+        Assert.assertEquals('o', dst.get(4));
+
+        source.close();
+        sink.close();
+    }
+
+    private static void cancel(NativeCompletionEngine engine) throws Exception {
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(fds[1]);
+        source.configureBlocking(false);
+
+        long op = engine.read(source, ByteBuffer.allocateDirect(16), 7);
+        engine.submit();
+        engine.cancel(op);
+
+        Results results = new Results();
+        for (int i = 0; i < 10 && results.completions.isEmpty(); i++) {
+            engine.complete(results, 1000);
+        }
+        Assert.assertEquals(1, results.completions.size());
+        Assert.assertEquals(7, results.completions.get(0)[0]);
+        Assert.assertEquals(-Errno.ECANCELED.intValue(), results.completions.get(0)[1]);
+
+        source.close();
+        sink.close();
+    }
+
+    private static int fdOf(Object channel) throws Exception {
+        Field fdField = channel.getClass().getDeclaredField("fd");
+        fdField.setAccessible(true);
+        FileDescriptor descriptor = (FileDescriptor) fdField.get(channel);
+        Field field = descriptor.getClass().getDeclaredField("fd");
+        field.setAccessible(true);
+        return (Integer) field.get(descriptor);
+    }
+
+    private static void multishot(NativeCompletionEngine engine) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        NativeServerSocketChannel listener = new NativeServerSocketChannel(fdOf(server));
+        listener.configureBlocking(false);
+
+        long accept = engine.acceptMultishot(listener, 1);
+        engine.submit();
+        Socket first = new Socket("127.0.0.1", server.socket().getLocalPort());
+        Socket second = new Socket("127.0.0.1", server.socket().getLocalPort());
+
+        Results results = new Results();
+        for (int i = 0; i < 10 && results.completions.size() < 2; i++) {
+            engine.complete(results, 1000);
+        }
+        Assert.assertEquals(2, results.completions.size());
+        for (long[] completion : results.completions) {
+            Assert.assertTrue(completion[1] >= 0);
+            Assert.assertEquals(NativeCompletionEngine.F_MORE, completion[2] & NativeCompletionEngine.F_MORE);
+        }
+
+        NativeSocketChannel client = new NativeSocketChannel((int) results.completions.get(0)[1]);
+        int other = (int) results.completions.get(1)[1];
+        engine.provideBuffers(ByteBuffer.allocateDirect(64), 16);
+        engine.recvMultishot(client, 2);
+        OutputStream out = first.getOutputStream();
+        out.write("ping".getBytes());
+        out.flush();
+
+        results.completions.clear();
+        for (int i = 0; i < 10 && results.completions.isEmpty(); i++) {
+            engine.complete(results, 1000);
+        }
+        Assert.assertEquals(1, results.completions.size());
+        long[] recv = results.completions.get(0);
+        Assert.assertEquals(2, recv[0]);
+        Assert.assertEquals(4, recv[1]);
+        Assert.assertEquals(NativeCompletionEngine.F_BUFFER, recv[2] & NativeCompletionEngine.F_BUFFER);
+        ByteBuffer data = engine.buffer(NativeCompletionEngine.bufferId((int) recv[2]));
+        Assert.assertEquals('p', data.get(0));
+        Assert.assertEquals('g', data.get(3));
+        engine.releaseBuffer(NativeCompletionEngine.bufferId((int) recv[2]));
+
+        engine.cancel(accept);
+        results.completions.clear();
+        for (int i = 0; i < 10 && results.completions.isEmpty(); i++) {
+            engine.complete(results, 1000);
+        }
+        Assert.assertEquals(1, results.completions.get(0)[0]);
+        Assert.assertEquals(0, results.completions.get(0)[2] & NativeCompletionEngine.F_MORE);
+
+        client.close();
+        Native.close(other);
+        first.close();
+        second.close();
+        server.close();
+    }
+
+    @Test
+    public void selectorEngine() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativeCompletionEngine engine = new SelectorCompletionEngine(NativeSelectorProvider.getInstance().openSelector());
+        readAndWrite(engine);
+        cancel(engine);
+        multishot(engine);
+        engine.close();
+    }
+
+    @Test
+    public void ioUringEngine() throws Exception {
+        // Skip where io_uring is not available
+        if (!IoUring.isSupported()) return;
+
+        NativeCompletionEngine engine = NativeCompletionEngine.open();
+        Assert.assertTrue(engine instanceof IoUringCompletionEngine);
+        readAndWrite(engine);
+        cancel(engine);
+        multishot(engine);
+        engine.close();
+    }
+}
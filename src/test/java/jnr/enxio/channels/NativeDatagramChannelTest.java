@@ -0,0 +1,172 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class NativeDatagramChannelTest {
+
+    private static NativeDatagramChannel open() throws Exception {
+        DatagramChannel ch = NativeSelectorProvider.getInstance().openDatagramChannel();
+        ch.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return (NativeDatagramChannel) ch;
+    }
+
+    @Test
+    public void sendAndReceive() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativeDatagramChannel a = open();
+        NativeDatagramChannel b = open();
+        InetSocketAddress aAddress = (InetSocketAddress) a.getLocalAddress();
+        Assert.assertEquals(InetAddress.getLoopbackAddress(), aAddress.getAddress());
+        Assert.assertTrue(aAddress.getPort() != 0);
+
+        b.configureBlocking(false);
+        Assert.assertNull(b.receive(ByteBuffer.allocate(16)));
+
+        Assert.assertEquals(3, a.send(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), b.getLocalAddress()));
+
+        Selector selector = NativeSelectorProvider.getInstance().openSelector();
+        b.register(selector, SelectionKey.OP_READ);
+        Assert.assertEquals(1, selector.select(1000));
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(16);
+        Assert.assertEquals(aAddress, b.receive(dst));
+        Assert.assertEquals(3, dst.position());
+        Assert.assertEquals(3, dst.get(2));
+
+        selector.close();
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void connected() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativeDatagramChannel a = open();
+        NativeDatagramChannel b = open();
+        a.connect(b.getLocalAddress());
+        Assert.assertTrue(a.isConnected());
+        Assert.assertEquals(b.getLocalAddress(), a.getRemoteAddress());
+
+        Assert.assertEquals(2, a.write(ByteBuffer.wrap(new byte[] { 7, 8 })));
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        Assert.assertEquals(a.getLocalAddress(), b.receive(dst));
+        Assert.assertEquals(2, dst.position());
+
+        a.disconnect();
+        Assert.assertFalse(a.isConnected());
+
+        a.setOption(StandardSocketOptions.SO_RCVBUF, 65536);
+        Assert.assertTrue(a.getOption(StandardSocketOptions.SO_RCVBUF) >= 65536);
+        a.setOption(StandardSocketOptions.SO_BROADCAST, true);
+        Assert.assertTrue(a.getOption(StandardSocketOptions.SO_BROADCAST));
+
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void batch() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativeDatagramChannel a = open();
+        NativeDatagramChannel b = open();
+
+        int count = 5;
+        ByteBuffer[] srcs = new ByteBuffer[count];
+        SocketAddress[] to = new SocketAddress[count];
+        for (int i = 0; i < count; i++) {
+            srcs[i] = i % 2 == 0 ? ByteBuffer.allocate(i + 1) : ByteBuffer.allocateDirect(i + 1);
+            for (int j = 0; j <= i; j++) {
+                srcs[i].put((byte) i);
+            }
+            srcs[i].flip();
+            to[i] = b.getLocalAddress();
+        }
+        Assert.assertEquals(count, a.send(srcs, to));
+        for (ByteBuffer src : srcs) {
+            Assert.assertFalse(src.hasRemaining());
+        }
+
+        ByteBuffer[] dsts = new ByteBuffer[8];
+        for (int i = 0; i < dsts.length; i++) {
+            dsts[i] = i % 2 == 0 ? ByteBuffer.allocateDirect(16) : ByteBuffer.allocate(16);
+        }
+        SocketAddress[] from = new SocketAddress[dsts.length];
+
+        // Blocking mode waits for the first datagram only
+        int received = 0;
+        while (received < count) {
+            ByteBuffer[] rest = java.util.Arrays.copyOfRange(dsts, received, dsts.length);
+            SocketAddress[] restFrom = new SocketAddress[rest.length];
+            int n = b.receive(rest, restFrom);
+            Assert.assertTrue(n > 0);
+            System.arraycopy(restFrom, 0, from, received, n);
+            received += n;
+        }
+        Assert.assertEquals(count, received);
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i + 1, dsts[i].position());
+            Assert.assertEquals((byte) i, dsts[i].get(i));
+            Assert.assertEquals(a.getLocalAddress(), from[i]);
+        }
+        Assert.assertEquals(0, dsts[count].position());
+
+        b.configureBlocking(false);
+        Assert.assertEquals(0, b.receive(dsts, null));
+
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void blockingReceiveEndsOnCloseAndInterrupt() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        for (final boolean interrupt : new boolean[] { false, true }) {
+            final NativeDatagramChannel ch = open();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread receiver = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        ch.receive(ByteBuffer.allocate(16));
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            receiver.start();
+            Thread.sleep(100);
+            if (interrupt) {
+                receiver.interrupt();
+            } else {
+                ch.close();
+            }
+            receiver.join(5000);
+            Assert.assertFalse(receiver.isAlive());
+            Assert.assertTrue(String.valueOf(failure.get()), interrupt
+                    ? failure.get() instanceof ClosedByInterruptException
+                    : failure.get() instanceof AsynchronousCloseException);
+            Assert.assertFalse(ch.isOpen());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+
+public class NativeInotifyChannelTest {
+
+    @Test
+    public void watchDirectory() throws Exception {
+        // Skip on non-linux
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) return;
+
+        File dir = Files.createTempDirectory("inotify").toFile();
+        NativeInotifyChannel ch = NativeInotifyChannel.open(NativeFileSelectorProvider.getInstance());
+        ch.configureBlocking(false);
+        Assert.assertFalse(ch.read().next());
+
+        int wd = ch.addWatch(dir.getPath(), NativeInotifyChannel.IN_CREATE | NativeInotifyChannel.IN_CLOSE_WRITE);
+        Selector selector = NativeFileSelectorProvider.getInstance().openSelector();
+        ch.register(selector, SelectionKey.OP_READ);
+        Assert.assertEquals(0, selector.selectNow());
+
+        File file = new File(dir, "config.properties");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(1);
+        out.close();
+        Assert.assertEquals(1, selector.select(1000));
+
+        NativeInotifyChannel.Events events = ch.read();
+        Assert.assertTrue(events.next());
+        Assert.assertEquals(wd, events.wd());
+        Assert.assertEquals(NativeInotifyChannel.IN_CREATE, events.mask());
+        Assert.assertEquals("config.properties", events.name());
+        Assert.assertTrue(events.next());
+        Assert.assertEquals(NativeInotifyChannel.IN_CLOSE_WRITE, events.mask());
+        byte[] name = new byte[6];
+        Assert.assertEquals(17, events.name(name));
+        Assert.assertEquals("config", new String(name, "US-ASCII"));
+        Assert.assertFalse(events.next());
+
+        ch.removeWatch(wd);
+        events = ch.read();
+        Assert.assertTrue(events.next());
+        Assert.assertEquals(NativeInotifyChannel.IN_IGNORED, events.mask());
+        Assert.assertNull(events.name());
+
+        selector.close();
+        ch.close();
+        file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,99 @@
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Errno;
+import jnr.constants.platform.Fcntl;
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+public class NativePipeTest {
+
+    @Test
+    public void openPipe() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        Pipe pipe = NativeSelectorProvider.getInstance().openPipe();
+        NativeSourceChannel source = (NativeSourceChannel) pipe.source();
+        NativeSinkChannel sink = (NativeSinkChannel) pipe.sink();
+        Assert.assertFalse(source.isBlocking());
+        Assert.assertFalse(Native.getBlocking(source.getFD()));
+        Assert.assertFalse(Native.getBlocking(sink.getFD()));
+        Assert.assertEquals(1, Native.libc().fcntl(source.getFD(), Fcntl.F_GETFD.intValue(), 0) & 1);
+
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        Assert.assertEquals(0, source.read(dst));
+
+        Selector selector = NativeSelectorProvider.getInstance().openSelector();
+        source.register(selector, SelectionKey.OP_READ);
+        Assert.assertEquals(3, sink.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+        Assert.assertEquals(1, selector.select(1000));
+        Assert.assertEquals(3, source.read(dst));
+        selector.close();
+
+        sink.close();
+        Assert.assertEquals(-1, source.read(dst));
+        source.close();
+    }
+
+    @Test
+    public void blockingMode() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativePipe pipe = NativePipe.open();
+        pipe.source().configureBlocking(true);
+        Assert.assertTrue(Native.getBlocking(pipe.source().getFD()));
+        pipe.source().configureBlocking(false);
+        Assert.assertFalse(Native.getBlocking(pipe.source().getFD()));
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    public void pipeSize() throws Exception {
+        // Skip on non-linux
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) return;
+
+        NativePipe pipe = NativePipe.open();
+        int size = pipe.setPipeSize(256 * 1024);
+        Assert.assertTrue(size >= 256 * 1024);
+        Assert.assertEquals(size, pipe.getPipeSize());
+
+        // A full pipe now takes the larger buffer before writes stop
+        ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+        long written = 0;
+        int n;
+        while ((n = pipe.sink().write(chunk)) > 0) {
+            written += n;
+            chunk.clear();
+        }
+        Assert.assertEquals(size, written);
+
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    public void brokenPipe() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        Pipe pipe = NativeSelectorProvider.getInstance().openPipe();
+        pipe.source().close();
+        try {
+            pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+            Assert.fail("write to a pipe without a reader");
+        } catch (BrokenPipeException ex) {
+            Assert.assertEquals(Errno.EPIPE, ex.getErrno());
+            Assert.assertEquals(Errno.EPIPE.intValue(), ex.getErrnoValue());
+            Assert.assertTrue(ex.getMessage().startsWith("write failed: "));
+        }
+        pipe.sink().close();
+    }
+}
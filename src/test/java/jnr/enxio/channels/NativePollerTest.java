@@ -0,0 +1,89 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NativePollerTest {
+
+    private static Thread awaitIn(final NativePoller.Registration registration, final int op, final AtomicInteger result) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                result.set(registration.await(op) ? 1 : 0);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void unparksWhenReady() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        Native.setBlocking(fds[0], false);
+        NativePoller.Registration reader = NativePoller.getInstance().register(fds[0]);
+        NativePoller.Registration writer = NativePoller.getInstance().register(fds[1]);
+
+        AtomicInteger result = new AtomicInteger(-1);
+        Thread thread = awaitIn(reader, SelectionKey.OP_READ, result);
+        thread.join(100);
+        Assert.assertTrue(thread.isAlive());
+
+        Native.write(fds[1], ByteBuffer.wrap(new byte[] { 1 }));
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertEquals(1, result.get());
+
+        // Still readable, so a second wait returns straight away
+        result.set(-1);
+        awaitIn(reader, SelectionKey.OP_READ, result).join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertEquals(1, result.get());
+
+        result.set(-1);
+        awaitIn(writer, SelectionKey.OP_WRITE, result).join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertEquals(1, result.get());
+
+        reader.release();
+        writer.release();
+        Native.close(fds[0]);
+        Native.close(fds[1]);
+    }
+
+    @Test
+    public void releaseAndInterruptWake() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativePoller.Registration registration = NativePoller.getInstance().register(fds[0]);
+
+        AtomicInteger result = new AtomicInteger(-1);
+        Thread thread = awaitIn(registration, SelectionKey.OP_READ, result);
+        thread.join(100);
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertEquals(0, result.get());
+
+        result.set(-1);
+        thread = awaitIn(registration, SelectionKey.OP_READ, result);
+        thread.join(100);
+        Assert.assertTrue(thread.isAlive());
+        registration.release();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertEquals(0, result.get());
+
+        // Nothing to wait for once released
+        Assert.assertFalse(registration.await(SelectionKey.OP_READ));
+
+        Native.close(fds[0]);
+        Native.close(fds[1]);
+    }
+}
@@ -0,0 +1,137 @@
+package jnr.enxio.channels;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class NativeRelayTest {
+
+    private static void drain(NativeSourceChannel source, ByteBuffer into) throws Exception {
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        int n;
+        while ((n = source.read(chunk)) > 0) {
+            chunk.flip();
+            if (into != null) {
+                into.put(chunk);
+            }
+            chunk.clear();
+        }
+    }
+
+    @Test
+    public void relayWithMirror() throws Exception {
+        // Skip where splice is missing
+        if (!NativeRelay.isSupported()) return;
+
+        NativePipe in = NativePipe.open();
+        NativePipe out = NativePipe.open();
+        NativePipe capture = NativePipe.open();
+        NativeRelay relay = NativeRelay.open(in.source(), out.sink(), capture.sink());
+
+        byte[] data = new byte[300 * 1024];
+        new Random(7).nextBytes(data);
+        ByteBuffer src = ByteBuffer.wrap(data);
+        ByteBuffer received = ByteBuffer.allocate(data.length);
+        ByteBuffer mirrored = ByteBuffer.allocate(data.length);
+
+        long moved = 0;
+        while (src.hasRemaining() || relay.hasPending()) {
+            in.sink().write(src);
+            moved += relay.transfer();
+            drain(out.source(), received);
+            drain(capture.source(), mirrored);
+        }
+        moved += relay.transfer();
+        drain(out.source(), received);
+        drain(capture.source(), mirrored);
+
+        Assert.assertEquals(data.length, moved);
+        Assert.assertArrayEquals(data, received.array());
+        Assert.assertEquals(0, relay.getMirrorDropped());
+        Assert.assertArrayEquals(data, mirrored.array());
+
+        Assert.assertFalse(relay.isEndOfStream());
+        in.sink().close();
+        Assert.assertEquals(0, relay.transfer());
+        Assert.assertTrue(relay.isEndOfStream());
+
+        relay.close();
+        in.source().close();
+        out.source().close();
+        out.sink().close();
+        capture.source().close();
+        capture.sink().close();
+    }
+
+    @Test
+    public void blockedSinkLeavesDataPending() throws Exception {
+        // Skip where splice is missing
+        if (!NativeRelay.isSupported()) return;
+
+        NativePipe in = NativePipe.open();
+        NativePipe out = NativePipe.open();
+        NativeRelay relay = NativeRelay.open(in.source(), out.sink());
+
+        // Fill the sink so nothing more fits
+        ByteBuffer fill = ByteBuffer.allocateDirect(4096);
+        while (out.sink().write(fill) > 0) {
+            fill.clear();
+        }
+
+        in.sink().write(ByteBuffer.wrap(new byte[100]));
+        Assert.assertEquals(0, relay.transfer());
+        Assert.assertTrue(relay.hasPending());
+
+        drain(out.source(), null);
+        Assert.assertEquals(100, relay.transfer());
+        Assert.assertFalse(relay.hasPending());
+
+        relay.close();
+        in.source().close();
+        in.sink().close();
+        out.source().close();
+        out.sink().close();
+    }
+
+    @Test
+    public void endOfStreamWaitsForMirror() throws Exception {
+        // Skip where splice is missing
+        if (!NativeRelay.isSupported()) return;
+
+        NativePipe in = NativePipe.open();
+        NativePipe out = NativePipe.open();
+        NativePipe capture = NativePipe.open();
+        NativeRelay relay = NativeRelay.open(in.source(), out.sink(), capture.sink());
+
+        // Fill the mirror so the captured bytes stay in the relay
+        ByteBuffer fill = ByteBuffer.allocateDirect(4096);
+        while (capture.sink().write(fill) > 0) {
+            fill.clear();
+        }
+
+        byte[] data = new byte[100];
+        new Random(11).nextBytes(data);
+        in.sink().write(ByteBuffer.wrap(data));
+        in.sink().close();
+        Assert.assertEquals(100, relay.transfer());
+        Assert.assertEquals(0, relay.transfer());
+        Assert.assertFalse(relay.isEndOfStream());
+
+        drain(capture.source(), null);
+        Assert.assertEquals(0, relay.transfer());
+        Assert.assertTrue(relay.isEndOfStream());
+        ByteBuffer mirrored = ByteBuffer.allocate(data.length);
+        drain(capture.source(), mirrored);
+        Assert.assertEquals(0, relay.getMirrorDropped());
+        Assert.assertArrayEquals(data, mirrored.array());
+
+        relay.close();
+        in.source().close();
+        out.source().close();
+        out.sink().close();
+        capture.source().close();
+        capture.sink().close();
+    }
+}
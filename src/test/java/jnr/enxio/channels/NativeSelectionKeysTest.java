@@ -0,0 +1,80 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+public class NativeSelectionKeysTest {
+
+    private static void oneShot(Selector selector) throws Exception {
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(fds[1]);
+        source.configureBlocking(false);
+        sink.write(ByteBuffer.wrap(new byte[] { 1 }));
+
+        SelectionKey key = NativeSelectionKeys.register(source, selector,
+                SelectionKey.OP_READ | NativeSelectionKeys.ONE_SHOT, null);
+        Assert.assertEquals(1, selector.selectNow());
+        Assert.assertEquals(SelectionKey.OP_READ, key.readyOps());
+        selector.selectedKeys().clear();
+
+        // Still readable, but disarmed until re-armed
+        Assert.assertEquals(0, selector.selectNow());
+        NativeSelectionKeys.rearm(key);
+        Assert.assertEquals(1, selector.selectNow());
+
+        selector.close();
+        source.close();
+        sink.close();
+    }
+
+    @Test
+    public void pollOneShot() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        oneShot(new PollSelector(NativeSelectorProvider.getInstance()));
+    }
+
+    @Test
+    public void epollOneShot() throws Exception {
+        // Skip on non-linux
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) return;
+
+        oneShot(new EpollSelector(NativeSelectorProvider.getInstance()));
+    }
+
+    @Test
+    public void epollEdgeTriggered() throws Exception {
+        // Skip on non-linux
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(fds[1]);
+        source.configureBlocking(false);
+
+        Selector selector = new EpollSelector(NativeSelectorProvider.getInstance());
+        NativeSelectionKeys.register(source, selector,
+                SelectionKey.OP_READ | NativeSelectionKeys.EDGE_TRIGGERED, null);
+        sink.write(ByteBuffer.wrap(new byte[] { 1 }));
+        Assert.assertEquals(1, selector.selectNow());
+        selector.selectedKeys().clear();
+
+        // No new data, no new edge
+        Assert.assertEquals(0, selector.selectNow());
+        sink.write(ByteBuffer.wrap(new byte[] { 2 }));
+        Assert.assertEquals(1, selector.selectNow());
+
+        selector.close();
+        source.close();
+        sink.close();
+    }
+}
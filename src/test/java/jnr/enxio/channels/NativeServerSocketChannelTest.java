@@ -0,0 +1,169 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.NoConnectionPendingException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class NativeServerSocketChannelTest {
+
+    private static NativeServerSocketChannel listen() throws Exception {
+        return NativeServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @Test
+    public void nonBlockingConnect() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativeServerSocketChannel server = listen();
+        InetSocketAddress address = server.getLocalAddress();
+        Assert.assertTrue(address.getPort() != 0);
+        server.configureBlocking(false);
+        Assert.assertNull(server.accept());
+
+        NativeSocketChannel client = NativeSocketChannel.open();
+        Assert.assertFalse(client.isConnected());
+        client.configureBlocking(false);
+
+        Selector selector = NativeSelectorProvider.getInstance().openSelector();
+        SelectionKey key = client.register(selector, SelectionKey.OP_CONNECT);
+        if (!client.connect(address)) {
+            Assert.assertTrue(client.isConnectionPending());
+            Assert.assertEquals(1, selector.select(1000));
+            Assert.assertTrue(key.isConnectable());
+            Assert.assertTrue(client.finishConnect());
+        }
+        Assert.assertTrue(client.isConnected());
+        Assert.assertEquals(address, client.getRemoteAddress());
+
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        selector.selectedKeys().clear();
+        key.interestOps(0);
+        Assert.assertEquals(1, selector.select(1000));
+
+        NativeSocketChannel accepted = server.accept();
+        Assert.assertNotNull(accepted);
+        Assert.assertFalse(accepted.isBlocking());
+        Assert.assertTrue(accepted.isConnected());
+        Assert.assertEquals(client.getLocalAddress(), accepted.getRemoteAddress());
+
+        Assert.assertEquals(3, client.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        accepted.configureBlocking(true);
+        Assert.assertEquals(3, accepted.read(dst));
+        Assert.assertEquals(3, dst.get(2));
+
+        selector.close();
+        accepted.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void drainAccept() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativeServerSocketChannel server = listen();
+        server.configureBlocking(false);
+
+        List<NativeSocketChannel> clients = new ArrayList<NativeSocketChannel>();
+        for (int i = 0; i < 3; i++) {
+            NativeSocketChannel client = NativeSocketChannel.open();
+            Assert.assertTrue(client.connect(server.getLocalAddress()));
+            clients.add(client);
+        }
+
+        final List<NativeSocketChannel> accepted = new ArrayList<NativeSocketChannel>();
+        Selector selector = NativeSelectorProvider.getInstance().openSelector();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        while (accepted.size() < 3) {
+            Assert.assertEquals(1, selector.select(1000));
+            selector.selectedKeys().clear();
+            server.drainAccept(2, new java.util.function.Consumer<NativeSocketChannel>() {
+                public void accept(NativeSocketChannel ch) {
+                    accepted.add(ch);
+                }
+            });
+        }
+        Assert.assertEquals(0, server.drainAccept(16, null));
+
+        for (NativeSocketChannel ch : accepted) {
+            ch.close();
+        }
+        for (NativeSocketChannel ch : clients) {
+            ch.close();
+        }
+        selector.close();
+        server.close();
+    }
+
+    @Test
+    public void connectRefused() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        NativeServerSocketChannel server = listen();
+        InetSocketAddress address = server.getLocalAddress();
+        server.close();
+
+        NativeSocketChannel client = NativeSocketChannel.open();
+        try {
+            client.finishConnect();
+            Assert.fail("finishConnect without connect");
+        } catch (NoConnectionPendingException expected) {
+        }
+        try {
+            client.connect(address);
+            Assert.fail("connected to a closed port");
+        } catch (IOException expected) {
+        }
+        client.close();
+    }
+
+    @Test
+    public void blockingAcceptEndsOnCloseAndInterrupt() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        for (final boolean interrupt : new boolean[] { false, true }) {
+            final NativeServerSocketChannel server = listen();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread acceptor = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        server.accept();
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            acceptor.start();
+            Thread.sleep(100);
+            if (interrupt) {
+                acceptor.interrupt();
+            } else {
+                server.close();
+            }
+            acceptor.join(5000);
+            Assert.assertFalse(acceptor.isAlive());
+            Assert.assertTrue(String.valueOf(failure.get()), interrupt
+                    ? failure.get() instanceof ClosedByInterruptException
+                    : failure.get() instanceof AsynchronousCloseException);
+            Assert.assertFalse(server.isOpen());
+        }
+    }
+}
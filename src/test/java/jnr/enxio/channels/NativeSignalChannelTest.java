@@ -0,0 +1,49 @@
+package jnr.enxio.channels;
+
+import jnr.constants.platform.Signal;
+import jnr.ffi.LibraryLoader;
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+public class NativeSignalChannelTest {
+
+    public interface LibC {
+        int raise(int sig);
+    }
+
+    @Test
+    public void selectAndRead() throws Exception {
+        // Skip on non-linux
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) return;
+
+        LibC libc = LibraryLoader.create(LibC.class).load(Platform.getNativePlatform().getStandardCLibraryName());
+        NativeSignalChannel ch = NativeSignalChannel.open(Signal.SIGWINCH, Signal.SIGURG);
+        ch.configureBlocking(false);
+        int[] signals = new int[4];
+        int[] pids = new int[4];
+        Assert.assertEquals(0, ch.read(signals, pids));
+
+        Selector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+        Assert.assertEquals(0, selector.selectNow());
+
+        // raise() signals the calling thread, which has both signals blocked
+        Assert.assertEquals(0, libc.raise(Signal.SIGWINCH.intValue()));
+        Assert.assertEquals(0, libc.raise(Signal.SIGURG.intValue()));
+        Assert.assertEquals(1, selector.selectNow());
+        Assert.assertTrue(key.isReadable());
+
+        Assert.assertEquals(2, ch.read(signals, pids));
+        Assert.assertEquals(Signal.SIGURG.intValue() + Signal.SIGWINCH.intValue(), signals[0] + signals[1]);
+        Assert.assertTrue(pids[0] > 0);
+        Assert.assertEquals(pids[0], pids[1]);
+        Assert.assertEquals(0, ch.read(signals));
+
+        selector.close();
+        ch.close();
+    }
+}
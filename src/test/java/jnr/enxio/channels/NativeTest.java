@@ -9,6 +9,7 @@ import org.junit.rules.ExpectedException;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.channels.Pipe;
 
 public class NativeTest {
@@ -48,4 +49,44 @@ public class NativeTest {
         Native.setBlocking(fd, false);
         Assert.assertEquals(false, Native.getBlocking(fd));
     }
+
+    @Test
+    public void heapBufferRoundTrip() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        final int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+
+        // Larger than the staging buffer, and sliced so the array offset is not zero
+        final byte[] data = new byte[200 * 1024 + 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ByteBuffer src = ByteBuffer.allocate(data.length + 3);
+                    src.position(3);
+                    ByteBuffer slice = src.slice();
+                    slice.put(data).flip();
+                    while (slice.hasRemaining()) {
+                        Assert.assertTrue(Native.write(fds[1], slice) > 0);
+                    }
+                    Native.close(fds[1]);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        writer.start();
+
+        ByteBuffer dst = ByteBuffer.allocate(data.length);
+        while (dst.hasRemaining()) {
+            Assert.assertTrue(Native.read(fds[0], dst) > 0);
+        }
+        writer.join();
+        Assert.assertArrayEquals(data, dst.array());
+        Native.close(fds[0]);
+    }
 }
@@ -0,0 +1,325 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.Iterator;
+
+public class PollSelectorTest {
+
+    @Test
+    public void selectedKeysRemove() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        int[] a = { -1, -1 };
+        int[] b = { -1, -1 };
+        Native.libc().pipe(a);
+        Native.libc().pipe(b);
+        NativeDeviceChannel source1 = new NativeDeviceChannel(a[0]);
+        NativeDeviceChannel source2 = new NativeDeviceChannel(b[0]);
+        source1.configureBlocking(false);
+        source2.configureBlocking(false);
+        Native.write(a[1], ByteBuffer.wrap(new byte[] { 1 }));
+        Native.write(b[1], ByteBuffer.wrap(new byte[] { 1 }));
+
+        Selector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        SelectionKey key1 = source1.register(selector, SelectionKey.OP_READ);
+        SelectionKey key2 = source2.register(selector, SelectionKey.OP_READ);
+        Assert.assertEquals(2, selector.selectNow());
+        Assert.assertEquals(2, selector.selectedKeys().size());
+        Assert.assertTrue(selector.selectedKeys().contains(key1));
+        Assert.assertTrue(selector.selectedKeys().contains(key2));
+
+        // Keys already selected are not added twice
+        selector.selectNow();
+        Assert.assertEquals(2, selector.selectedKeys().size());
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        int seen = 0;
+        while (it.hasNext()) {
+            it.next();
+            it.remove();
+            ++seen;
+        }
+        Assert.assertEquals(2, seen);
+        Assert.assertTrue(selector.selectedKeys().isEmpty());
+        Assert.assertFalse(selector.selectedKeys().contains(key1));
+
+        Assert.assertEquals(2, selector.selectNow());
+        Assert.assertTrue(selector.selectedKeys().remove(key1));
+        Assert.assertFalse(selector.selectedKeys().remove(key1));
+        Assert.assertTrue(selector.selectedKeys().contains(key2));
+
+        try {
+            selector.selectedKeys().add(key1);
+            Assert.fail("selected keys must not accept additions");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        selector.close();
+        source1.close();
+        source2.close();
+        Native.close(a[1]);
+        Native.close(b[1]);
+    }
+
+    @Test
+    public void steadyStateSelectDoesNotAllocate() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        source.configureBlocking(false);
+        Native.write(fds[1], ByteBuffer.wrap(new byte[] { 1 }));
+
+        Selector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        source.register(selector, SelectionKey.OP_READ);
+
+        for (int i = 0; i < 20000; i++) {
+            cycle(selector);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        int cycles = 10000;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < cycles; i++) {
+            cycle(selector);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Allow for a constant amount of measurement noise, but nothing per cycle
+        Assert.assertEquals("bytes allocated per select, " + allocated + " in total", 0, allocated / cycles);
+
+        selector.close();
+        source.close();
+        Native.close(fds[1]);
+    }
+
+    private static void cycle(Selector selector) throws Exception {
+        selector.wakeup();
+        selector.select();
+        selector.selectedKeys().clear();
+    }
+
+    @Test
+    public void wakeupsAreCoalesced() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+        Selector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        for (int i = 0; i < 1000; i++) {
+            selector.wakeup();
+        }
+        Assert.assertEquals(0, selector.select());
+
+        // The burst was consumed by the first select, so this one has to wait
+        long start = System.nanoTime();
+        Assert.assertEquals(0, selector.select(100));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        // and wakeups work again once drained
+        selector.wakeup();
+        Assert.assertEquals(0, selector.select());
+        selector.close();
+    }
+
+    @Test
+    public void registerWhileSelecting() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        final Selector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        final java.util.concurrent.atomic.AtomicReference<SelectionKey> ready
+                = new java.util.concurrent.atomic.AtomicReference<SelectionKey>();
+        Thread selecting = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (ready.get() == null) {
+                        if (selector.select(5000) > 0) {
+                            ready.set(selector.selectedKeys().iterator().next());
+                        }
+                    }
+                } catch (java.io.IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        selecting.start();
+        Thread.sleep(50);
+
+        // Registered from this thread while the other one is blocked in poll(2)
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        source.configureBlocking(false);
+        SelectionKey key = source.register(selector, 0);
+        key.interestOps(SelectionKey.OP_READ);
+        Native.write(fds[1], ByteBuffer.wrap(new byte[] { 1 }));
+
+        selecting.join(2000);
+        Assert.assertSame(key, ready.get());
+
+        // Changes made between selects are applied by the next one
+        key.interestOps(0);
+        selector.selectedKeys().clear();
+        Assert.assertEquals(0, selector.selectNow());
+        key.interestOps(SelectionKey.OP_READ);
+        Assert.assertEquals(1, selector.selectNow());
+
+        selector.close();
+        source.close();
+        Native.close(fds[1]);
+    }
+
+    @Test
+    public void selectWithAction() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        int[] a = { -1, -1 };
+        int[] b = { -1, -1 };
+        Native.libc().pipe(a);
+        Native.libc().pipe(b);
+        NativeDeviceChannel source1 = new NativeDeviceChannel(a[0]);
+        NativeDeviceChannel source2 = new NativeDeviceChannel(b[0]);
+        source1.configureBlocking(false);
+        source2.configureBlocking(false);
+
+        PollSelector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        SelectionKey key1 = source1.register(selector, SelectionKey.OP_READ);
+        SelectionKey key2 = source2.register(selector, SelectionKey.OP_READ);
+        Native.write(a[1], ByteBuffer.wrap(new byte[] { 1 }));
+        Assert.assertEquals(1, selector.selectNow());
+        Assert.assertTrue(selector.selectedKeys().contains(key1));
+
+        final java.util.List<SelectionKey> seen = new java.util.ArrayList<SelectionKey>();
+        java.util.function.Consumer<SelectionKey> action = new java.util.function.Consumer<SelectionKey>() {
+            public void accept(SelectionKey key) {
+                seen.add(key);
+            }
+        };
+        Native.write(b[1], ByteBuffer.wrap(new byte[] { 1 }));
+        Assert.assertEquals(2, selector.selectNow(action));
+        Assert.assertEquals(2, seen.size());
+        Assert.assertTrue(seen.contains(key2));
+        Assert.assertTrue(key2.isReadable());
+        // The selected-key set is neither filled nor cleared
+        Assert.assertEquals(1, selector.selectedKeys().size());
+
+        // On Java 11 and later the Selector method dispatches here rather than to the default
+        java.lang.reflect.Method select;
+        try {
+            select = Selector.class.getMethod("select", java.util.function.Consumer.class, long.class);
+        } catch (NoSuchMethodException ex) {
+            select = null;
+        }
+        if (select != null) {
+            seen.clear();
+            Assert.assertEquals(2, select.invoke(selector, action, 1000L));
+            Assert.assertEquals(2, seen.size());
+            Assert.assertTrue(selector.selectedKeys().contains(key1));
+        }
+
+        selector.close();
+        source1.close();
+        source2.close();
+        Native.close(a[1]);
+        Native.close(b[1]);
+    }
+
+    @Test
+    public void selectWithActionSkipsCancelled() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        final int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        source.configureBlocking(false);
+        PollSelector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        final SelectionKey key = source.register(selector, SelectionKey.OP_READ);
+
+        // Cancelled while the selector waits, its key must not be handed out
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    key.cancel();
+                    Native.write(fds[1], ByteBuffer.wrap(new byte[] { 1 }));
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        final java.util.List<SelectionKey> seen = new java.util.ArrayList<SelectionKey>();
+        t.start();
+        Assert.assertEquals(0, selector.select(new java.util.function.Consumer<SelectionKey>() {
+            public void accept(SelectionKey key) {
+                seen.add(key);
+            }
+        }, 5000));
+        t.join();
+        Assert.assertTrue(seen.isEmpty());
+
+        selector.close();
+        source.close();
+        Native.close(fds[1]);
+    }
+
+    @Test
+    public void selectInto() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        int[] a = { -1, -1 };
+        int[] b = { -1, -1 };
+        Native.libc().pipe(a);
+        Native.libc().pipe(b);
+        NativeDeviceChannel source = new NativeDeviceChannel(a[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(b[1]);
+        source.configureBlocking(false);
+        sink.configureBlocking(false);
+
+        PollSelector selector = new PollSelector(NativeSelectorProvider.getInstance());
+        SelectionKey readKey = source.register(selector, SelectionKey.OP_READ);
+        sink.register(selector, SelectionKey.OP_WRITE);
+        Native.write(a[1], ByteBuffer.wrap(new byte[] { 1 }));
+        selector.wakeup();
+
+        int[] fds = new int[4];
+        int[] ops = new int[4];
+        int n = selector.selectInto(fds, ops, -1);
+        Assert.assertEquals(2, n);
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(fds[i] == a[0] ? SelectionKey.OP_READ : SelectionKey.OP_WRITE, ops[i]);
+            Assert.assertTrue(fds[i] == a[0] || fds[i] == b[1]);
+        }
+        // Keys are left alone
+        Assert.assertTrue(selector.selectedKeys().isEmpty());
+        Assert.assertEquals(0, readKey.readyOps());
+
+        // A short array takes what fits, the rest is still ready next time
+        n = selector.selectInto(new int[1], new int[1], 0);
+        Assert.assertEquals(1, n);
+        Assert.assertEquals(2, selector.selectNow());
+
+        selector.close();
+        source.close();
+        sink.close();
+        Native.close(a[1]);
+        Native.close(b[0]);
+    }
+}
@@ -0,0 +1,74 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class ScatterGatherTest {
+
+    @Test
+    public void gatherWriteScatterRead() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(fds[1]);
+
+        ByteBuffer header = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer body = ByteBuffer.allocateDirect(4);
+        body.put(new byte[] { 4, 5, 6, 7 }).flip();
+        Assert.assertEquals(7, sink.write(new ByteBuffer[] { header, empty, body }));
+        Assert.assertFalse(header.hasRemaining());
+        Assert.assertFalse(body.hasRemaining());
+
+        ByteBuffer first = ByteBuffer.allocateDirect(2);
+        ByteBuffer second = ByteBuffer.allocate(10);
+        Assert.assertEquals(7, source.read(new ByteBuffer[] { first, second }));
+        Assert.assertEquals(2, first.position());
+        Assert.assertEquals(5, second.position());
+        Assert.assertEquals(1, first.get(0));
+        Assert.assertEquals(2, first.get(1));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(3 + i, second.get(i));
+        }
+
+        // Nothing to read into is not end of stream
+        Assert.assertEquals(0, source.read(new ByteBuffer[] { ByteBuffer.allocate(0) }));
+
+        sink.close();
+        Assert.assertEquals(-1, source.read(new ByteBuffer[] { ByteBuffer.allocate(1) }));
+        source.close();
+    }
+
+    @Test
+    public void pointers() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeDeviceChannel source = new NativeDeviceChannel(fds[0]);
+        NativeDeviceChannel sink = new NativeDeviceChannel(fds[1]);
+
+        Pointer a = Memory.allocateDirect(Native.getRuntime(), 8);
+        Pointer b = Memory.allocateDirect(Native.getRuntime(), 8);
+        a.putInt(0, 0x11223344);
+        b.putInt(0, 0x55667788);
+        Assert.assertEquals(8, sink.write(new Pointer[] { a, b }, new long[] { 4, 4 }));
+
+        Pointer dst = Memory.allocateDirect(Native.getRuntime(), 8);
+        Assert.assertEquals(8, source.read(new long[] { dst.address() + 4, dst.address() }, new long[] { 4, 4 }, 0, 2));
+        Assert.assertEquals(0x11223344, dst.getInt(4));
+        Assert.assertEquals(0x55667788, dst.getInt(0));
+
+        source.close();
+        sink.close();
+    }
+}
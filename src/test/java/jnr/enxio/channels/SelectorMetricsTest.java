@@ -0,0 +1,48 @@
+package jnr.enxio.channels;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class SelectorMetricsTest {
+
+    @Test
+    public void publishedAsMXBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        SelectorMetrics metrics = new SelectorMetrics("test");
+        Set<ObjectName> names = server.queryNames(new ObjectName("jnr.enxio:type=NativeSelector,name=test-*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        metrics.keyRegistered();
+        metrics.keyRegistered();
+        metrics.keysRemoved(1);
+        metrics.cancelled(1);
+        for (int ready : new int[] { 0, 1, 3, 200 }) {
+            long start = metrics.beforeSelect();
+            metrics.afterSelect(start);
+            metrics.selected(ready);
+        }
+        metrics.wakeupRequested();
+        metrics.wakeupRequested();
+        metrics.wakeupDelivered();
+
+        Assert.assertEquals("test", server.getAttribute(name, "Kind"));
+        Assert.assertEquals(1, server.getAttribute(name, "RegisteredKeyCount"));
+        Assert.assertEquals(4L, server.getAttribute(name, "SelectCount"));
+        Assert.assertEquals(1L, server.getAttribute(name, "SpuriousReturns"));
+        Assert.assertEquals(1L, server.getAttribute(name, "CancelledKeysProcessed"));
+        Assert.assertEquals(2L, server.getAttribute(name, "WakeupsRequested"));
+        Assert.assertEquals(1L, server.getAttribute(name, "WakeupsDelivered"));
+        Assert.assertTrue((Long) server.getAttribute(name, "ProcessingTimeNanos") >= 0);
+        Assert.assertArrayEquals(new long[] { 1, 1, 1, 0, 0, 0, 0, 0, 1 },
+                (long[]) server.getAttribute(name, "ReadyKeysHistogram"));
+
+        metrics.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,141 @@
+package jnr.enxio.channels;
+
+import jnr.ffi.Platform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+public class SendfileTest {
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static File file(byte[] data) throws Exception {
+        File file = File.createTempFile("enxio", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void transferFromResumesAfterPartialSends() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        byte[] data = data(300 * 1024 + 13);
+        RandomAccessFile raf = new RandomAccessFile(file(data), "r");
+        FileChannel file = raf.getChannel();
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeSocketChannel out = new NativeSocketChannel(fds[1]);
+        out.configureBlocking(false);
+        NativeDeviceChannel in = new NativeDeviceChannel(fds[0]);
+        in.configureBlocking(false);
+
+        // The pipe holds far less than the file, so every call is partial
+        ByteBuffer received = ByteBuffer.allocate(data.length);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+        long position = 0;
+        while (position < data.length) {
+            long n = out.transferFrom(file, position, data.length - position);
+            Assert.assertTrue(n >= 0);
+            position += n;
+            while (in.read(chunk) > 0) {
+                chunk.flip();
+                received.put(chunk);
+                chunk.clear();
+            }
+        }
+        Assert.assertEquals(data.length, position);
+        Assert.assertArrayEquals(data, received.array());
+        Assert.assertEquals(0, file.position());
+
+        // Past the end of the file nothing is sent
+        Assert.assertEquals(0, out.transferFrom(file, data.length, 100));
+
+        out.close();
+        in.close();
+        raf.close();
+    }
+
+    @Test
+    public void transferTo() throws Exception {
+        // Skip on non-unix
+        if (!Platform.getNativePlatform().isUnix()) return;
+
+        byte[] data = data(10000);
+        RandomAccessFile raf = new RandomAccessFile(file(data), "r");
+        int fileFd = Native.getFD(raf.getChannel());
+        Assert.assertTrue(fileFd >= 0);
+        NativeDeviceChannel file = new NativeDeviceChannel(fileFd, true);
+
+        // A native target uses sendfile
+        NativePipe pipe = NativePipe.open();
+        Assert.assertEquals(1000, file.transferTo(100, 1000, pipe.sink()));
+        ByteBuffer dst = ByteBuffer.allocate(2000);
+        Assert.assertEquals(1000, pipe.source().read(dst));
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(data[100 + i], dst.get(i));
+        }
+
+        // Any other channel gets a copy
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Assert.assertEquals(data.length - 5000, file.transferTo(5000, data.length, Channels.newChannel(bytes)));
+        byte[] copied = bytes.toByteArray();
+        Assert.assertEquals(data.length - 5000, copied.length);
+        Assert.assertEquals(data[5000], copied[0]);
+        Assert.assertEquals(data[data.length - 1], copied[copied.length - 1]);
+
+        pipe.source().close();
+        pipe.sink().close();
+        raf.close();
+    }
+
+    @Test
+    public void fileChannelReachesSendfile() throws Exception {
+        // Skip on non-linux
+        if (Platform.getNativePlatform().getOS() != Platform.OS.LINUX) return;
+
+        byte[] data = data(4096);
+        File path = file(data);
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+
+        // The build opens the JDK internals, so the descriptor is found and sendfile is used
+        int fileFd = Native.getFD(raf.getChannel());
+        Assert.assertTrue(fileFd >= 0);
+        Assert.assertEquals(path.getCanonicalFile().toPath(), Files.readSymbolicLink(Paths.get("/proc/self/fd/" + fileFd)));
+
+        int[] fds = { -1, -1 };
+        Native.libc().pipe(fds);
+        NativeSocketChannel out = new NativeSocketChannel(fds[1]);
+        NativeDeviceChannel in = new NativeDeviceChannel(fds[0]);
+        Assert.assertEquals(1000, out.transferFrom(raf.getChannel(), 0, 1000));
+        // A file opened as a native channel never needs the JDK internals
+        Assert.assertEquals(data.length - 1000, out.transferFrom(new NativeDeviceChannel(fileFd, true), 1000, data.length));
+
+        ByteBuffer received = ByteBuffer.allocate(data.length);
+        while (received.hasRemaining() && in.read(received) > 0) {
+        }
+        Assert.assertArrayEquals(data, received.array());
+
+        out.close();
+        in.close();
+        raf.close();
+    }
+}
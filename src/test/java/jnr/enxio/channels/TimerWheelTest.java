@@ -0,0 +1,125 @@
+package jnr.enxio.channels;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TimerWheelTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final TimerWheel.ErrorHandler RETHROW = new TimerWheel.ErrorHandler() {
+        public void error(RuntimeException ex) {
+            throw ex;
+        }
+    };
+
+    private static Runnable record(final List<String> fired, final String name) {
+        return new Runnable() {
+            public void run() {
+                fired.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void expiresInDeadlineOrder() {
+        TimerWheel wheel = new TimerWheel(Thread.currentThread(), MS, 8);
+        long base = System.nanoTime();
+        List<String> fired = new ArrayList<String>();
+        Assert.assertEquals(-1, wheel.nextTimeout(base));
+
+        wheel.schedule(wheel.newTimer(record(fired, "a"), base + 5 * MS));
+        // More than a turn of the wheel away
+        wheel.schedule(wheel.newTimer(record(fired, "b"), base + 20 * MS));
+        TimerWheel.Timer c = wheel.newTimer(record(fired, "c"), base + 3 * MS);
+        wheel.schedule(c);
+        Assert.assertEquals(3, wheel.size());
+        Assert.assertTrue(wheel.nextTimeout(base) <= 4 * MS);
+
+        Assert.assertTrue(c.cancel());
+        Assert.assertFalse(c.cancel());
+        Assert.assertEquals(2, wheel.size());
+
+        Assert.assertEquals(0, wheel.expire(base + 4 * MS, RETHROW));
+        Assert.assertEquals(1, wheel.expire(base + 6 * MS, RETHROW));
+        Assert.assertEquals(0, wheel.expire(base + 12 * MS, RETHROW));
+        Assert.assertTrue(wheel.nextTimeout(base + 12 * MS) > 0);
+        Assert.assertEquals(1, wheel.expire(base + 21 * MS, RETHROW));
+        Assert.assertEquals(-1, wheel.nextTimeout(base + 21 * MS));
+        Assert.assertEquals(2, fired.size());
+        Assert.assertEquals("a", fired.get(0));
+        Assert.assertEquals("b", fired.get(1));
+        Assert.assertTrue(c.isCancelled());
+    }
+
+    @Test
+    public void sleepsUntilNextDeadline() {
+        TimerWheel wheel = new TimerWheel(Thread.currentThread(), MS, 8);
+        long base = System.nanoTime();
+        List<String> fired = new ArrayList<String>();
+
+        // Many turns of the wheel away, the loop need not wake in between
+        wheel.schedule(wheel.newTimer(record(fired, "far"), base + 100 * MS));
+        Assert.assertTrue(wheel.nextTimeout(base) >= 99 * MS);
+        wheel.schedule(wheel.newTimer(record(fired, "near"), base + 4 * MS));
+        Assert.assertTrue(wheel.nextTimeout(base) <= 5 * MS);
+
+        Assert.assertEquals(1, wheel.expire(base + 5 * MS, RETHROW));
+        Assert.assertTrue(wheel.nextTimeout(base + 5 * MS) >= 94 * MS);
+        Assert.assertEquals(0, wheel.expire(base + 50 * MS, RETHROW));
+        Assert.assertEquals(1, wheel.expire(base + 101 * MS, RETHROW));
+        Assert.assertEquals(2, fired.size());
+        Assert.assertEquals("far", fired.get(1));
+    }
+
+    @Test
+    public void pastDeadlineFiresOnNextTick() {
+        final TimerWheel wheel = new TimerWheel(Thread.currentThread(), MS, 8);
+        long base = System.nanoTime();
+        final List<String> fired = new ArrayList<String>();
+        final long[] now = { base + 10 * MS };
+
+        // A task that schedules a timer already due, it runs on the next expire
+        wheel.schedule(wheel.newTimer(new Runnable() {
+            public void run() {
+                fired.add("outer");
+                wheel.schedule(wheel.newTimer(record(fired, "inner"), now[0] - 5 * MS));
+            }
+        }, base + 2 * MS));
+
+        Assert.assertEquals(1, wheel.expire(now[0], RETHROW));
+        Assert.assertTrue(wheel.nextTimeout(now[0]) <= MS);
+        now[0] += MS;
+        Assert.assertEquals(1, wheel.expire(now[0], RETHROW));
+        Assert.assertEquals(2, fired.size());
+        Assert.assertEquals("inner", fired.get(1));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelFromAnotherThread() throws Exception {
+        TimerWheel wheel = new TimerWheel(Thread.currentThread(), MS, 8);
+        long base = System.nanoTime();
+        List<String> fired = new ArrayList<String>();
+        final TimerWheel.Timer timer = wheel.newTimer(record(fired, "a"), base + 2 * MS);
+        wheel.schedule(timer);
+
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                timer.cancel();
+            }
+        });
+        t.start();
+        t.join();
+
+        // Only marked, and dropped when its bucket comes round
+        Assert.assertEquals(1, wheel.size());
+        Assert.assertEquals(0, wheel.expire(base + 3 * MS, RETHROW));
+        Assert.assertEquals(0, wheel.size());
+        Assert.assertTrue(fired.isEmpty());
+        Assert.assertFalse(timer.isExpired());
+    }
+}